@@ -1,9 +1,82 @@
 #include "tangram.h"
 #include "platform_android.h"
 #include "data/clientGeoJsonSource.h"
+#include "data/propertyItem.h"
 
+#include <algorithm>
 #include <cassert>
 
+// Copy @_count interleaved longitude/latitude pairs starting at value @_offset of a Java array
+static std::vector<Tangram::LngLat> coordinatesFromJArray(JNIEnv* _jniEnv, jdoubleArray _jcoordinates,
+                                                          jint _offset, size_t _count) {
+    static_assert(sizeof(Tangram::LngLat) == 2 * sizeof(jdouble), "LngLat must be a pair of doubles");
+    std::vector<Tangram::LngLat> coordinates(_count);
+    _jniEnv->GetDoubleArrayRegion(_jcoordinates, _offset, 2 * _count,
+                                  reinterpret_cast<jdouble*>(coordinates.data()));
+    return coordinates;
+}
+
+// Copy @_count interleaved fixed-point longitude/latitude pairs, in units of 1e-7 degrees,
+// starting at value @_offset of a Java array
+static std::vector<Tangram::LngLat> coordinatesFromE7JArray(JNIEnv* _jniEnv, jintArray _jcoordinates,
+                                                            jint _offset, size_t _count) {
+    std::vector<Tangram::LngLat> coordinates(_count);
+    // Converted in place, without copying the ints first
+    auto* e7 = static_cast<jint*>(_jniEnv->GetPrimitiveArrayCritical(_jcoordinates, NULL));
+    for (size_t i = 0; i < _count; ++i) {
+        coordinates[i] = { e7[_offset + 2 * i] * 1e-7, e7[_offset + 2 * i + 1] * 1e-7 };
+    }
+    _jniEnv->ReleasePrimitiveArrayCritical(_jcoordinates, e7, JNI_ABORT);
+    return coordinates;
+}
+
+// Read alternating keys and values of a Java array into properties
+static Tangram::Properties propertiesFromJArray(JNIEnv* _jniEnv, jobjectArray _jproperties) {
+
+    Tangram::Properties properties;
+    size_t n_properties = (_jproperties == NULL) ? 0 : _jniEnv->GetArrayLength(_jproperties) / 2;
+
+    for (size_t i = 0; i < n_properties; ++i) {
+        jstring jkey = (jstring) (_jniEnv->GetObjectArrayElement(_jproperties, 2 * i));
+        jstring jvalue = (jstring) (_jniEnv->GetObjectArrayElement(_jproperties, 2 * i + 1));
+        auto key = stringFromJString(_jniEnv, jkey);
+        auto value = stringFromJString(_jniEnv, jvalue);
+        properties.set(key, value);
+        _jniEnv->DeleteLocalRef(jkey);
+        _jniEnv->DeleteLocalRef(jvalue);
+    }
+    return properties;
+}
+
+// Add a point, polyline or polygon to @_source, depending on @_jrings and the number of points;
+// a non-zero @_id replaces the feature with that id
+static void addGeometry(JNIEnv* _jniEnv, Tangram::ClientGeoJsonSource* _source,
+                        const std::vector<Tangram::LngLat>& _coordinates, jintArray _jrings,
+                        const Tangram::Properties& _properties, uint64_t _id = 0) {
+
+    size_t n_rings = (_jrings == NULL) ? 0 : _jniEnv->GetArrayLength(_jrings);
+    size_t n_points = _coordinates.size();
+
+    if (n_rings > 0) {
+        // If rings are defined, this is a polygon feature.
+        auto* rings = _jniEnv->GetIntArrayElements(_jrings, NULL);
+        std::vector<std::vector<Tangram::LngLat>> polygon;
+        auto ring_start = _coordinates.begin();
+        for (size_t i = 0; i < n_rings; ++i) {
+            polygon.emplace_back(ring_start, ring_start + rings[i]);
+            ring_start += rings[i];
+        }
+        _source->addPoly(_properties, polygon, _id);
+        _jniEnv->ReleaseIntArrayElements(_jrings, rings, JNI_ABORT);
+    } else if (n_points > 1) {
+        // If no rings defined but multiple points, this is a polyline feature.
+        _source->addLine(_properties, _coordinates, _id);
+    } else {
+        // This is a point feature.
+        _source->addPoint(_properties, _coordinates[0], _id);
+    }
+}
+
 extern "C" {
 
     JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeSetPosition(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jdouble lon, jdouble lat) {
@@ -207,6 +280,10 @@ extern "C" {
         onUrlSuccess(jniEnv, fetchedBytes, callbackPtr);
     }
 
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeOnUrlSuccessBuffer(JNIEnv* jniEnv, jobject obj, jobject fetchedBuffer, jint offset, jint length, jlong callbackPtr) {
+        onUrlSuccessBuffer(jniEnv, fetchedBuffer, offset, length, callbackPtr);
+    }
+
     JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeOnUrlFailure(JNIEnv* jniEnv, jobject obj, jlong callbackPtr) {
         onUrlFailure(jniEnv, callbackPtr);
     }
@@ -267,44 +344,31 @@ extern "C" {
         return result;
     }
 
-    JNIEXPORT bool JNICALL Java_com_mapzen_tangram_MapController_nativeMarkerSetPolyline(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong markerID, jdoubleArray jcoordinates, jint count) {
+    JNIEXPORT bool JNICALL Java_com_mapzen_tangram_MapController_nativeMarkerSetPolyline(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong markerID, jdoubleArray jcoordinates, jint offset, jint count) {
         assert(mapPtr > 0);
         auto map = reinterpret_cast<Tangram::Map*>(mapPtr);
         if (!jcoordinates || count == 0) { return false; }
 
-        auto* coordinates = jniEnv->GetDoubleArrayElements(jcoordinates, NULL);
-        std::vector<Tangram::LngLat> polyline;
-        polyline.reserve(count);
-
-        for (size_t i = 0; i < count; ++i) {
-            polyline.emplace_back(coordinates[2 * i], coordinates[2 * i + 1]);
-        }
+        auto polyline = coordinatesFromJArray(jniEnv, jcoordinates, offset, count);
 
         auto result = map->markerSetPolyline(static_cast<unsigned int>(markerID), polyline.data(), count);
         return result;
     }
 
-    JNIEXPORT bool JNICALL Java_com_mapzen_tangram_MapController_nativeMarkerSetPolygon(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong markerID, jdoubleArray jcoordinates, jintArray jcounts, jint rings) {
+    JNIEXPORT bool JNICALL Java_com_mapzen_tangram_MapController_nativeMarkerSetPolygon(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong markerID, jdoubleArray jcoordinates, jint offset, jintArray jcounts, jint rings) {
         assert(mapPtr > 0);
         auto map = reinterpret_cast<Tangram::Map*>(mapPtr);
         if (!jcoordinates || !jcounts || rings == 0) { return false; }
 
-        auto* coordinates = jniEnv->GetDoubleArrayElements(jcoordinates, NULL);
-
-        auto* counts = jniEnv->GetIntArrayElements(jcounts, NULL);
-
-        std::vector<Tangram::LngLat> polygonCoords;
+        std::vector<jint> counts(rings);
+        jniEnv->GetIntArrayRegion(jcounts, 0, rings, counts.data());
 
         size_t coordsCount = 0;
-        for (size_t i = 0; i < rings; i++) {
-            size_t ringCount = *(counts+i);
-            for (size_t j = 0; j < ringCount; j++) {
-                polygonCoords.emplace_back(coordinates[coordsCount + 2 * j], coordinates[coordsCount + 2 * j + 1]);
-            }
-            coordsCount += ringCount;
-        }
+        for (jint count : counts) { coordsCount += count; }
+
+        auto polygonCoords = coordinatesFromJArray(jniEnv, jcoordinates, offset, coordsCount);
 
-        auto result = map->markerSetPolygon(static_cast<unsigned int>(markerID), polygonCoords.data(), counts, rings);
+        auto result = map->markerSetPolygon(static_cast<unsigned int>(markerID), polygonCoords.data(), counts.data(), rings);
         return result;
     }
 
@@ -345,6 +409,33 @@ extern "C" {
         map->removeDataSource(*source);
     }
 
+    JNIEXPORT jlong JNICALL Java_com_mapzen_tangram_MapController_nativeCreateStagingSource(JNIEnv* jniEnv, jobject obj, jstring name) {
+        // Not added to the map; filled with the natives that add features, then swapped in
+        auto source = new Tangram::ClientGeoJsonSource(stringFromJString(jniEnv, name), "");
+        return reinterpret_cast<jlong>(source);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeBuildIndex(JNIEnv* jniEnv, jobject obj, jlong sourcePtr) {
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+        source->buildIndex();
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeSwapSourceData(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jlong stagingPtr) {
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        assert(stagingPtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+        auto staging = reinterpret_cast<Tangram::ClientGeoJsonSource*>(stagingPtr);
+        source->swapData(*staging);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeDisposeStagingSource(JNIEnv* jniEnv, jobject obj, jlong stagingPtr) {
+        assert(stagingPtr > 0);
+        delete reinterpret_cast<Tangram::ClientGeoJsonSource*>(stagingPtr);
+    }
+
     JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeClearDataSource(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr) {
         assert(mapPtr > 0);
         auto map = reinterpret_cast<Tangram::Map*>(mapPtr);
@@ -353,61 +444,382 @@ extern "C" {
         map->clearDataSource(*source, true, true);
     }
 
+    JNIEXPORT jobjectArray JNICALL Java_com_mapzen_tangram_MapController_nativeGetTileSourceUrls(JNIEnv* jniEnv, jobject obj, jlong mapPtr) {
+        assert(mapPtr > 0);
+        auto map = reinterpret_cast<Tangram::Map*>(mapPtr);
+        auto sources = map->getTileSources();
+
+        // Returned as triples of URL template, maximum zoom level and comma-separated subdomains
+        jclass stringClass = jniEnv->FindClass("java/lang/String");
+        jobjectArray jurls = jniEnv->NewObjectArray(3 * sources.size(), stringClass, nullptr);
+        for (size_t i = 0; i < sources.size(); ++i) {
+            std::string subdomains;
+            for (const auto& subdomain : sources[i]->urlSubdomains()) {
+                if (!subdomains.empty()) { subdomains += ','; }
+                subdomains += subdomain;
+            }
+            jstring jurl = jniEnv->NewStringUTF(sources[i]->urlTemplate().c_str());
+            jstring jzoom = jniEnv->NewStringUTF(std::to_string(sources[i]->fullMaxZoom()).c_str());
+            jstring jsubdomains = jniEnv->NewStringUTF(subdomains.c_str());
+            jniEnv->SetObjectArrayElement(jurls, 3 * i, jurl);
+            jniEnv->SetObjectArrayElement(jurls, 3 * i + 1, jzoom);
+            jniEnv->SetObjectArrayElement(jurls, 3 * i + 2, jsubdomains);
+            jniEnv->DeleteLocalRef(jurl);
+            jniEnv->DeleteLocalRef(jzoom);
+            jniEnv->DeleteLocalRef(jsubdomains);
+        }
+        return jurls;
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeReloadTiles(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jstring url) {
+        assert(mapPtr > 0);
+        auto map = reinterpret_cast<Tangram::Map*>(mapPtr);
+        map->reloadTiles(stringFromJString(jniEnv, url));
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeSetTileZoomReduction(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jint levels) {
+        assert(mapPtr > 0);
+        auto map = reinterpret_cast<Tangram::Map*>(mapPtr);
+        map->setTileZoomReduction(levels);
+    }
+
     JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeAddFeature(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
-        jdoubleArray jcoordinates, jintArray jrings, jobjectArray jproperties) {
+        jdoubleArray jcoordinates, jint offset, jint length, jintArray jrings, jobjectArray jproperties) {
 
         assert(mapPtr > 0);
         assert(sourcePtr > 0);
         auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
 
-        size_t n_points = jniEnv->GetArrayLength(jcoordinates) / 2;
-        size_t n_rings = (jrings == NULL) ? 0 : jniEnv->GetArrayLength(jrings);
-        size_t n_properties = (jproperties == NULL) ? 0 : jniEnv->GetArrayLength(jproperties) / 2;
+        size_t n_points = length / 2;
+        if (n_points == 0) { return; }
 
-        Tangram::Properties properties;
+        auto properties = propertiesFromJArray(jniEnv, jproperties);
+
+        // Only the used range of the array is copied, straight into the coordinates
+        addGeometry(jniEnv, source, coordinatesFromJArray(jniEnv, jcoordinates, offset, n_points), jrings, properties);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeAddFeatureE7(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jintArray jcoordinates, jint offset, jint length, jintArray jrings, jobjectArray jproperties) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        size_t n_points = length / 2;
+        if (n_points == 0) { return; }
+
+        auto properties = propertiesFromJArray(jniEnv, jproperties);
+
+        addGeometry(jniEnv, source, coordinatesFromE7JArray(jniEnv, jcoordinates, offset, n_points), jrings, properties);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeUpdateFeature(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jlong id, jdoubleArray jcoordinates, jint offset, jint length, jintArray jrings, jobjectArray jproperties) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        assert(id > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        size_t n_points = length / 2;
+        if (n_points == 0) {
+            source->removeFeature(id);
+            return;
+        }
+
+        auto properties = propertiesFromJArray(jniEnv, jproperties);
+
+        addGeometry(jniEnv, source, coordinatesFromJArray(jniEnv, jcoordinates, offset, n_points), jrings, properties, id);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeUpdateFeatureE7(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jlong id, jintArray jcoordinates, jint offset, jint length, jintArray jrings, jobjectArray jproperties) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        assert(id > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        size_t n_points = length / 2;
+        if (n_points == 0) {
+            source->removeFeature(id);
+            return;
+        }
+
+        auto properties = propertiesFromJArray(jniEnv, jproperties);
+
+        addGeometry(jniEnv, source, coordinatesFromE7JArray(jniEnv, jcoordinates, offset, n_points), jrings, properties, id);
+    }
+
+    JNIEXPORT jboolean JNICALL Java_com_mapzen_tangram_MapController_nativeRemoveFeature(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jlong id) {
 
-        for (size_t i = 0; i < n_properties; ++i) {
-            jstring jkey = (jstring) (jniEnv->GetObjectArrayElement(jproperties, 2 * i));
-            jstring jvalue = (jstring) (jniEnv->GetObjectArrayElement(jproperties, 2 * i + 1));
-            auto key = stringFromJString(jniEnv, jkey);
-            auto value = stringFromJString(jniEnv, jvalue);
-            properties.set(key, value);
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+        return source->removeFeature(id);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeSetPropertySchema(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jobjectArray jkeys) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        std::vector<std::string> keys(jniEnv->GetArrayLength(jkeys));
+        for (size_t i = 0; i < keys.size(); ++i) {
+            jstring jkey = (jstring) (jniEnv->GetObjectArrayElement(jkeys, i));
+            keys[i] = stringFromJString(jniEnv, jkey);
             jniEnv->DeleteLocalRef(jkey);
-            jniEnv->DeleteLocalRef(jvalue);
         }
+        source->setPropertyKeys(std::move(keys));
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeSetClusterOptions(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jfloat radius, jint minZoom, jint maxZoom, jint minPoints, jobjectArray jproperties, jobjectArray jsources, jintArray jreduce) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        Tangram::PointClusterer::Options options;
+        options.radius = radius;
+        options.minZoom = minZoom;
+        options.maxZoom = maxZoom;
+        options.minPoints = minPoints;
+
+        size_t n_aggregates = jniEnv->GetArrayLength(jreduce);
+        auto* reduce = jniEnv->GetIntArrayElements(jreduce, NULL);
+        for (size_t i = 0; i < n_aggregates; ++i) {
+            jstring jproperty = (jstring) (jniEnv->GetObjectArrayElement(jproperties, i));
+            jstring jsource = (jstring) (jniEnv->GetObjectArrayElement(jsources, i));
+            options.aggregates.push_back({ stringFromJString(jniEnv, jproperty), stringFromJString(jniEnv, jsource),
+                                           static_cast<Tangram::PointClusterer::Reduce>(reduce[i]) });
+            jniEnv->DeleteLocalRef(jproperty);
+            jniEnv->DeleteLocalRef(jsource);
+        }
+        jniEnv->ReleaseIntArrayElements(jreduce, reduce, JNI_ABORT);
+
+        source->setClusterOptions(options);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeDisableClustering(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr) {
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+        source->disableClustering();
+    }
+
+    JNIEXPORT jint JNICALL Java_com_mapzen_tangram_MapController_nativeGetClusterExpansionZoom(JNIEnv* jniEnv, jobject obj, jlong sourcePtr,
+        jlong clusterId) {
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+        return source->clusterExpansionZoom(clusterId);
+    }
+
+    // Returns the children or the leaves of a cluster as an array of the interleaved coordinates
+    // of the features, followed by the alternating keys and values of the properties of each
+    JNIEXPORT jobjectArray JNICALL Java_com_mapzen_tangram_MapController_nativeGetClusterFeatures(JNIEnv* jniEnv, jobject obj, jlong sourcePtr,
+        jlong clusterId, jboolean leaves, jint limit, jint offset) {
+
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        auto features = leaves ? source->clusterLeaves(clusterId, limit, offset) : source->clusterChildren(clusterId);
+
+        jclass objectClass = jniEnv->FindClass("java/lang/Object");
+        jclass stringClass = jniEnv->FindClass("java/lang/String");
+        jobjectArray jresult = jniEnv->NewObjectArray(features.size() + 1, objectClass, NULL);
+
+        std::vector<jdouble> coordinates;
+        for (size_t i = 0; i < features.size(); ++i) {
+            const auto& feature = features[i];
+            coordinates.push_back(feature.position.longitude);
+            coordinates.push_back(feature.position.latitude);
+
+            const auto& items = feature.properties.items();
+            jobjectArray jproperties = jniEnv->NewObjectArray(2 * items.size(), stringClass, NULL);
+            for (size_t j = 0; j < items.size(); ++j) {
+                jstring jkey = jniEnv->NewStringUTF(items[j].key.c_str());
+                jstring jvalue = jniEnv->NewStringUTF(feature.properties.asString(items[j].value).c_str());
+                jniEnv->SetObjectArrayElement(jproperties, 2 * j, jkey);
+                jniEnv->SetObjectArrayElement(jproperties, 2 * j + 1, jvalue);
+                jniEnv->DeleteLocalRef(jkey);
+                jniEnv->DeleteLocalRef(jvalue);
+            }
+            jniEnv->SetObjectArrayElement(jresult, i + 1, jproperties);
+            jniEnv->DeleteLocalRef(jproperties);
+        }
+
+        jdoubleArray jcoordinates = jniEnv->NewDoubleArray(coordinates.size());
+        jniEnv->SetDoubleArrayRegion(jcoordinates, 0, coordinates.size(), coordinates.data());
+        jniEnv->SetObjectArrayElement(jresult, 0, jcoordinates);
+        jniEnv->DeleteLocalRef(jcoordinates);
+
+        return jresult;
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeAddTypedFeature(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jdoubleArray jcoordinates, jint offset, jint length, jintArray jrings, jbyteArray jtypes, jdoubleArray jnumbers,
+        jobjectArray jstrings) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        size_t n_points = length / 2;
+        if (n_points == 0) { return; }
+
+        // Value types of PropertyValues.java; keys are those of the registered PropertySchema
+        const jbyte typeString = 1, typeNumber = 2;
+        // A snapshot, since the schema may be replaced on another thread
+        auto schema = source->propertyKeys();
+        const auto& keys = *schema;
+
+        std::vector<Tangram::PropertyItem> items;
+        if (jtypes != NULL) {
+            size_t n_columns = std::min(keys.size(), size_t(jniEnv->GetArrayLength(jtypes)));
+            auto* types = jniEnv->GetByteArrayElements(jtypes, NULL);
+            auto* numbers = jniEnv->GetDoubleArrayElements(jnumbers, NULL);
+            items.reserve(n_columns);
+            for (size_t i = 0; i < n_columns; ++i) {
+                if (types[i] == typeString) {
+                    jstring jvalue = (jstring) (jniEnv->GetObjectArrayElement(jstrings, i));
+                    items.emplace_back(keys[i], stringFromJString(jniEnv, jvalue));
+                    jniEnv->DeleteLocalRef(jvalue);
+                } else if (types[i] == typeNumber) {
+                    items.emplace_back(keys[i], numbers[i]);
+                }
+            }
+            jniEnv->ReleaseDoubleArrayElements(jnumbers, numbers, JNI_ABORT);
+            jniEnv->ReleaseByteArrayElements(jtypes, types, JNI_ABORT);
+        }
+
+        Tangram::Properties properties;
+        properties.setSorted(std::move(items));
+        properties.sort();
 
-        auto* coordinates = jniEnv->GetDoubleArrayElements(jcoordinates, NULL);
-
-        if (n_rings > 0) {
-            // If rings are defined, this is a polygon feature.
-            auto* rings = jniEnv->GetIntArrayElements(jrings, NULL);
-            std::vector<std::vector<Tangram::LngLat>> polygon;
-            size_t ring_start = 0, ring_end = 0;
-            for (size_t i = 0; i < n_rings; ++i) {
-                ring_end += rings[i];
-                std::vector<Tangram::LngLat> ring;
-                for (; ring_start < ring_end; ++ring_start) {
-                    ring.push_back({coordinates[2 * ring_start], coordinates[2 * ring_start + 1]});
+        addGeometry(jniEnv, source, coordinatesFromJArray(jniEnv, jcoordinates, offset, n_points), jrings, properties);
+    }
+
+    JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeAddFeatures(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jdoubleArray jcoordinates, jintArray jcoordinatesE7, jintArray jrings, jintArray jfeatures, jint featureCount, jintArray jpropertyKeys,
+        jobjectArray jpropertyValues, jdoubleArray jpropertyNumbers, jobjectArray jpropertyKeyNames, jobjectArray jschemaKeys,
+        jbyteArray jvalueTypes, jdoubleArray jvalueNumbers, jobjectArray jvalueStrings) {
+
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+
+        // Layout of the arrays is described in FeatureBatch.java
+        const jint typePoint = 0, typePolyline = 1;
+        // Value types of PropertyValues.java
+        const jbyte typeString = 1, typeNumber = 2;
+
+        auto readKeys = [&](jobjectArray jkeys) {
+            std::vector<std::string> keys(jkeys ? jniEnv->GetArrayLength(jkeys) : 0);
+            for (size_t i = 0; i < keys.size(); ++i) {
+                jstring jkey = (jstring) (jniEnv->GetObjectArrayElement(jkeys, i));
+                keys[i] = stringFromJString(jniEnv, jkey);
+                jniEnv->DeleteLocalRef(jkey);
+            }
+            return keys;
+        };
+        auto keyNames = readKeys(jpropertyKeyNames);
+        // Columns of the typed values of each feature, if the batch has a schema
+        auto schemaKeys = readKeys(jschemaKeys);
+        size_t n_columns = schemaKeys.size();
+
+        // Coordinates are either doubles or fixed-point ints in units of 1e-7 degrees
+        jdouble* coordinates = jcoordinates ? jniEnv->GetDoubleArrayElements(jcoordinates, NULL) : nullptr;
+        jint* coordinatesE7 = jcoordinatesE7 ? jniEnv->GetIntArrayElements(jcoordinatesE7, NULL) : nullptr;
+        auto* rings = jniEnv->GetIntArrayElements(jrings, NULL);
+        auto* features = jniEnv->GetIntArrayElements(jfeatures, NULL);
+        auto* propertyKeys = jniEnv->GetIntArrayElements(jpropertyKeys, NULL);
+        auto* propertyNumbers = jniEnv->GetDoubleArrayElements(jpropertyNumbers, NULL);
+        jbyte* valueTypes = jvalueTypes ? jniEnv->GetByteArrayElements(jvalueTypes, NULL) : nullptr;
+        jdouble* valueNumbers = jvalueNumbers ? jniEnv->GetDoubleArrayElements(jvalueNumbers, NULL) : nullptr;
+
+        Tangram::ClientGeoJsonSource::Batch batch;
+        size_t point = 0, ring = 0, property = 0;
+        auto readRing = [&]() {
+            Tangram::Coordinates coords;
+            coords.reserve(rings[ring]);
+            for (size_t end = point + rings[ring++]; point < end; ++point) {
+                if (coordinatesE7) {
+                    coords.push_back({coordinatesE7[2 * point] * 1e-7, coordinatesE7[2 * point + 1] * 1e-7});
+                } else {
+                    coords.push_back({coordinates[2 * point], coordinates[2 * point + 1]});
                 }
-                polygon.push_back(std::move(ring));
             }
-            source->addPoly(properties, polygon);
-            jniEnv->ReleaseIntArrayElements(jrings, rings, JNI_ABORT);
-        } else if (n_points > 1) {
-            // If no rings defined but multiple points, this is a polyline feature.
-            std::vector<Tangram::LngLat> polyline;
-            for (size_t i = 0; i < n_points; ++i) {
-                polyline.push_back({coordinates[2 * i], coordinates[2 * i + 1]});
+            return coords;
+        };
+
+        for (jint i = 0; i < featureCount; ++i) {
+            jint type = features[3 * i];
+            jint n_rings = features[3 * i + 1];
+            jint n_properties = features[3 * i + 2];
+
+            Tangram::Properties properties;
+            for (jint j = 0; j < n_properties; ++j, ++property) {
+                const auto& key = keyNames[propertyKeys[property]];
+                jstring jvalue = (jstring) (jniEnv->GetObjectArrayElement(jpropertyValues, property));
+                if (jvalue) {
+                    properties.set(key, stringFromJString(jniEnv, jvalue));
+                    jniEnv->DeleteLocalRef(jvalue);
+                } else {
+                    // Numeric values have no string
+                    properties.set(key, propertyNumbers[property]);
+                }
+            }
+            for (size_t column = 0, value = i * n_columns; column < n_columns; ++column, ++value) {
+                if (valueTypes[value] == typeString) {
+                    jstring jvalue = (jstring) (jniEnv->GetObjectArrayElement(jvalueStrings, value));
+                    properties.set(schemaKeys[column], stringFromJString(jniEnv, jvalue));
+                    jniEnv->DeleteLocalRef(jvalue);
+                } else if (valueTypes[value] == typeNumber) {
+                    properties.set(schemaKeys[column], valueNumbers[value]);
+                }
+            }
+
+            if (type == typePoint) {
+                auto coords = readRing();
+                batch.addPoint(std::move(properties), coords[0]);
+            } else if (type == typePolyline) {
+                batch.addLine(std::move(properties), readRing());
+            } else {
+                std::vector<Tangram::Coordinates> polygon;
+                polygon.reserve(n_rings);
+                for (jint j = 0; j < n_rings; ++j) {
+                    polygon.push_back(readRing());
+                }
+                batch.addPoly(std::move(properties), polygon);
             }
-            source->addLine(properties, polyline);
-        } else {
-            // This is a point feature.
-            auto point = Tangram::LngLat(coordinates[0], coordinates[1]);
-            source->addPoint(properties, point);
         }
 
-        jniEnv->ReleaseDoubleArrayElements(jcoordinates, coordinates, JNI_ABORT);
+        // One change for the whole batch, rather than one per feature
+        source->addFeatures(batch);
 
+        if (valueNumbers) { jniEnv->ReleaseDoubleArrayElements(jvalueNumbers, valueNumbers, JNI_ABORT); }
+        if (valueTypes) { jniEnv->ReleaseByteArrayElements(jvalueTypes, valueTypes, JNI_ABORT); }
+        jniEnv->ReleaseDoubleArrayElements(jpropertyNumbers, propertyNumbers, JNI_ABORT);
+        jniEnv->ReleaseIntArrayElements(jpropertyKeys, propertyKeys, JNI_ABORT);
+        jniEnv->ReleaseIntArrayElements(jfeatures, features, JNI_ABORT);
+        jniEnv->ReleaseIntArrayElements(jrings, rings, JNI_ABORT);
+        if (coordinatesE7) { jniEnv->ReleaseIntArrayElements(jcoordinatesE7, coordinatesE7, JNI_ABORT); }
+        if (coordinates) { jniEnv->ReleaseDoubleArrayElements(jcoordinates, coordinates, JNI_ABORT); }
+    }
+
+    JNIEXPORT jboolean JNICALL Java_com_mapzen_tangram_MapController_nativeAddFeatureBuffer(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr,
+        jobject buffer, jint offset, jint length) {
+        assert(mapPtr > 0);
+        assert(sourcePtr > 0);
+        auto source = reinterpret_cast<Tangram::ClientGeoJsonSource*>(sourcePtr);
+        auto* data = static_cast<const uint8_t*>(jniEnv->GetDirectBufferAddress(buffer));
+        if (!data) { return false; }
+        return source->addFeatureBuffer(data + offset, length);
     }
 
     JNIEXPORT void JNICALL Java_com_mapzen_tangram_MapController_nativeAddGeoJson(JNIEnv* jniEnv, jobject obj, jlong mapPtr, jlong sourcePtr, jstring geojson) {
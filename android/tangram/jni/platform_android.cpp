@@ -71,7 +71,7 @@ void setupJniEnv(JNIEnv* jniEnv, jobject _tangramInstance, jobject _assetManager
     }
     tangramInstance = jniEnv->NewGlobalRef(_tangramInstance);
     jclass tangramClass = jniEnv->FindClass("com/mapzen/tangram/MapController");
-    startUrlRequestMID = jniEnv->GetMethodID(tangramClass, "startUrlRequest", "(Ljava/lang/String;J)Z");
+    startUrlRequestMID = jniEnv->GetMethodID(tangramClass, "startUrlRequest", "(Ljava/lang/String;JD)Z");
     cancelUrlRequestMID = jniEnv->GetMethodID(tangramClass, "cancelUrlRequest", "(Ljava/lang/String;)V");
     getFontFilePath = jniEnv->GetMethodID(tangramClass, "getFontFilePath", "(Ljava/lang/String;)Ljava/lang/String;");
     getFontFallbackFilePath = jniEnv->GetMethodID(tangramClass, "getFontFallbackFilePath", "(II)Ljava/lang/String;");
@@ -260,7 +260,7 @@ unsigned char* bytesFromFile(const char* _path, size_t& _size) {
     return nullptr;
 }
 
-bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority) {
 
     jstring jUrl = jniRenderThreadEnv->NewStringUTF(_url.c_str());
 
@@ -272,7 +272,8 @@ bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
     // to make sure nothing is leaked.
     jlong jCallbackPtr = reinterpret_cast<jlong>(new UrlCallback(_callback));
 
-    jboolean methodResult = jniRenderThreadEnv->CallBooleanMethod(tangramInstance, startUrlRequestMID, jUrl, jCallbackPtr);
+    jboolean methodResult = jniRenderThreadEnv->CallBooleanMethod(tangramInstance, startUrlRequestMID, jUrl, jCallbackPtr, _priority);
+    jniRenderThreadEnv->DeleteLocalRef(jUrl);
 
     return methodResult;
 }
@@ -280,6 +281,9 @@ bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
 void cancelUrlRequest(const std::string& _url) {
     jstring jUrl = jniRenderThreadEnv->NewStringUTF(_url.c_str());
     jniRenderThreadEnv->CallVoidMethod(tangramInstance, cancelUrlRequestMID, jUrl);
+    // Tiles are cancelled in bursts during flings; release the reference right away rather
+    // than letting them pile up in the render thread's local reference table
+    jniRenderThreadEnv->DeleteLocalRef(jUrl);
 }
 
 void onUrlSuccess(JNIEnv* _jniEnv, jbyteArray _jBytes, jlong _jCallbackPtr) {
@@ -295,6 +299,22 @@ void onUrlSuccess(JNIEnv* _jniEnv, jbyteArray _jBytes, jlong _jCallbackPtr) {
     delete callback;
 }
 
+void onUrlSuccessBuffer(JNIEnv* _jniEnv, jobject _jBuffer, jint _jOffset, jint _jLength, jlong _jCallbackPtr) {
+
+    UrlCallback* callback = reinterpret_cast<UrlCallback*>(_jCallbackPtr);
+
+    // The direct buffer is recycled or unmapped by Java once this returns, so its
+    // contents are copied once into the vector that is handed to the callback.
+    auto* data = static_cast<const char*>(_jniEnv->GetDirectBufferAddress(_jBuffer));
+    std::vector<char> content;
+    if (data && _jLength > 0) {
+        content.assign(data + _jOffset, data + _jOffset + _jLength);
+    }
+
+    (*callback)(std::move(content));
+    delete callback;
+}
+
 void onUrlFailure(JNIEnv* _jniEnv, jlong _jCallbackPtr) {
     std::vector<char> empty;
 
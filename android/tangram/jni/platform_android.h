@@ -8,6 +8,7 @@
 void bindJniEnvToThread(JNIEnv* jniEnv);
 void setupJniEnv(JNIEnv* _jniEnv, jobject _tangramInstance, jobject _assetManager);
 void onUrlSuccess(JNIEnv* jniEnv, jbyteArray jFetchedBytes, jlong jCallbackPtr);
+void onUrlSuccessBuffer(JNIEnv* jniEnv, jobject jFetchedBuffer, jint jOffset, jint jLength, jlong jCallbackPtr);
 void onUrlFailure(JNIEnv* jniEnv, jlong jCallbackPtr);
 
 namespace Tangram {
@@ -0,0 +1,109 @@
+package com.mapzen.tangram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * {@code BufferPool} recycles direct {@link ByteBuffer}s used to pass downloaded map data to
+ * native code without allocating a Java array for every response.
+ */
+class BufferPool {
+
+    private static final int MIN_CAPACITY = 64 * 1024;
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private final int maxBuffers;
+    private final int maxPooledCapacity;
+
+    // Scratch array for copying from streams, one per thread
+    private final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[CHUNK_SIZE];
+        }
+    };
+
+    /**
+     * Create a pool
+     * @param maxBuffers Maximum number of idle buffers kept in the pool
+     * @param maxPooledCapacity Buffers larger than this are not returned to the pool
+     */
+    BufferPool(int maxBuffers, int maxPooledCapacity) {
+        this.maxBuffers = maxBuffers;
+        this.maxPooledCapacity = maxPooledCapacity;
+    }
+
+    /**
+     * Get a cleared direct buffer with at least the given capacity
+     * @param minCapacity Minimum capacity in bytes
+     * @return A buffer from the pool or a newly allocated one
+     */
+    ByteBuffer acquire(int minCapacity) {
+        synchronized (buffers) {
+            for (Iterator<ByteBuffer> it = buffers.iterator(); it.hasNext();) {
+                ByteBuffer buffer = it.next();
+                if (buffer.capacity() >= minCapacity) {
+                    it.remove();
+                    buffer.clear();
+                    return buffer;
+                }
+            }
+        }
+        int capacity = MIN_CAPACITY;
+        while (capacity < minCapacity) {
+            capacity *= 2;
+        }
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Return a buffer to the pool; it must not be used by the caller afterwards
+     * @param buffer Buffer obtained from {@link #acquire(int)}
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() > maxPooledCapacity) {
+            return;
+        }
+        synchronized (buffers) {
+            if (buffers.size() < maxBuffers) {
+                buffers.push(buffer);
+            }
+        }
+    }
+
+    /**
+     * Read a stream into a pooled buffer, growing it as needed
+     * @param in Stream to read until its end
+     * @param expectedLength Expected number of bytes, or -1 if unknown
+     * @return A buffer with position 0 and limit at the end of the data
+     * @throws IOException If reading from the stream fails
+     */
+    ByteBuffer read(InputStream in, long expectedLength) throws IOException {
+        int capacity = expectedLength > 0 && expectedLength < Integer.MAX_VALUE ? (int) expectedLength : MIN_CAPACITY;
+        ByteBuffer buffer = acquire(capacity);
+        byte[] chunk = chunks.get();
+        try {
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                if (buffer.remaining() < n) {
+                    ByteBuffer larger = acquire(buffer.capacity() * 2);
+                    buffer.flip();
+                    larger.put(buffer);
+                    release(buffer);
+                    buffer = larger;
+                }
+                buffer.put(chunk, 0, n);
+            }
+        } catch (IOException e) {
+            release(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
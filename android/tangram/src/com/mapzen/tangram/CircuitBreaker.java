@@ -0,0 +1,131 @@
+package com.mapzen.tangram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code CircuitBreaker} tracks the health of each host contacted by {@link HttpHandler}. When
+ * the share of failed requests among the latest requests to a host is too high, the circuit of
+ * the host opens and requests to it should not go to the network. Once the open period has
+ * passed, a single probe request is allowed; its success closes the circuit and its failure
+ * keeps it open for another period.
+ */
+class CircuitBreaker {
+
+    private static final int WINDOW = 20;
+    private static final int MIN_SAMPLES = 10;
+
+    private static class HostState {
+        // Outcomes of the latest requests, one bit each, set for failures
+        long outcomes = 0;
+        int samples = 0;
+        boolean open = false;
+        boolean probing = false;
+        long openUntil = 0;
+
+        void reset() {
+            outcomes = 0;
+            samples = 0;
+        }
+
+        int failures() {
+            return Long.bitCount(outcomes & ((1L << WINDOW) - 1));
+        }
+    }
+
+    private final Map<String, HostState> hosts = new HashMap<>();
+    private float failureRate;
+    private long openMillis;
+
+    /**
+     * Create a circuit breaker
+     * @param failureRate Share of failed requests in the window that opens a circuit, or a value
+     * above 1 to never open circuits
+     * @param openMillis Time for which an open circuit rejects requests before a probe
+     */
+    CircuitBreaker(float failureRate, long openMillis) {
+        this.failureRate = failureRate;
+        this.openMillis = openMillis;
+    }
+
+    synchronized void configure(float failureRate, long openMillis) {
+        this.failureRate = failureRate;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Check whether a network request to a host may be sent; when the open period of a host has
+     * passed, the first request checked becomes its probe and must be reported with
+     * {@link #onSuccess}, {@link #onFailure} or {@link #onProbeCanceled}
+     * @return true if the request may go to the network
+     */
+    synchronized boolean allowRequest(String host) {
+        HostState state = hosts.get(host);
+        if (state == null || !state.open) {
+            return true;
+        }
+        if (state.probing || now() < state.openUntil) {
+            return false;
+        }
+        state.probing = true;
+        return true;
+    }
+
+    synchronized boolean isOpen(String host) {
+        HostState state = hosts.get(host);
+        return state != null && state.open;
+    }
+
+    synchronized void onSuccess(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            return;
+        }
+        if (state.open) {
+            // The probe succeeded
+            state.open = false;
+            state.probing = false;
+            state.reset();
+            return;
+        }
+        add(state, false);
+    }
+
+    synchronized void onFailure(String host) {
+        HostState state = hosts.get(host);
+        if (state == null) {
+            state = new HostState();
+            hosts.put(host, state);
+        }
+        if (state.open) {
+            // The probe failed, or a request sent before the circuit opened
+            state.probing = false;
+            state.openUntil = now() + openMillis;
+            return;
+        }
+        add(state, true);
+        if (state.samples >= MIN_SAMPLES && state.failures() >= failureRate * Math.min(state.samples, WINDOW)) {
+            state.open = true;
+            state.openUntil = now() + openMillis;
+        }
+    }
+
+    synchronized void onProbeCanceled(String host) {
+        HostState state = hosts.get(host);
+        if (state != null) {
+            state.probing = false;
+        }
+    }
+
+    private static void add(HostState state, boolean failure) {
+        state.outcomes = (state.outcomes << 1) | (failure ? 1 : 0);
+        if (state.samples < WINDOW) {
+            state.samples++;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+}
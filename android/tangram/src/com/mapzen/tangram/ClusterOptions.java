@@ -0,0 +1,83 @@
+package com.mapzen.tangram;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code ClusterOptions} configures the clustering of the point features of a {@link MapData},
+ * set with {@link MapData#setClusterOptions(ClusterOptions)}. Up to the maximum zoom, points that
+ * are close together on screen are drawn as a single cluster feature, so that a low-zoom tile holds
+ * a few clusters rather than all of the points. The points are indexed once for all zooms when
+ * the collection changes.
+ *
+ * Cluster features have the properties {@code cluster} (1, so that a scene filter such as
+ * {@code cluster: true} matches them), {@code cluster_id}, {@code point_count}, and the
+ * aggregates added with {@link #addAggregate(String, String, Reduce)}.
+ */
+public class ClusterOptions {
+
+    /**
+     * How the values of a numeric property of the points of a cluster are combined
+     */
+    public enum Reduce {
+        SUM,
+        MIN,
+        MAX,
+    }
+
+    float radius = 40;
+    int minZoom = 0;
+    int maxZoom = 16;
+    int minPoints = 2;
+    final List<String> aggregateProperties = new ArrayList<>();
+    final List<String> aggregateSources = new ArrayList<>();
+    final List<Reduce> aggregateReduce = new ArrayList<>();
+
+    /**
+     * Set the radius within which points are clustered
+     * @param radius The radius in pixels, for tiles of 256 pixels; 40 by default
+     * @return This object, for chaining
+     */
+    public ClusterOptions setRadius(float radius) {
+        this.radius = radius;
+        return this;
+    }
+
+    /**
+     * Set the zooms at which points are clustered
+     * @param minZoom The lowest zoom of clusters; 0 by default
+     * @param maxZoom The highest zoom of clusters, above which all points are drawn; 16 by default
+     * @return This object, for chaining
+     */
+    public ClusterOptions setZoomRange(int minZoom, int maxZoom) {
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        return this;
+    }
+
+    /**
+     * Set the fewest points that form a cluster
+     * @param minPoints The number of points; 2 by default
+     * @return This object, for chaining
+     */
+    public ClusterOptions setMinPoints(int minPoints) {
+        this.minPoints = minPoints;
+        return this;
+    }
+
+    /**
+     * Add a numeric property to clusters, combined from a numeric property of their points;
+     * points without the property are skipped
+     * @param property The name of the property of clusters
+     * @param source The name of the property of points
+     * @param reduce How the values are combined
+     * @return This object, for chaining
+     */
+    public ClusterOptions addAggregate(String property, String source, Reduce reduce) {
+        aggregateProperties.add(property);
+        aggregateSources.add(source);
+        aggregateReduce.add(reduce);
+        return this;
+    }
+
+}
@@ -0,0 +1,276 @@
+package com.mapzen.tangram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code DeliveryQueue} hands downloaded resources to native code on its own threads, so that
+ * network threads only read responses. The number of responses that are read but not delivered
+ * yet is bounded: a network thread waits for a free slot before reading a response body, which
+ * also stops it from reading further responses until native code catches up. Deliveries for
+ * URLs that are cancelled while they wait are dropped.
+ *
+ * Native code is only called on the delivery threads: dropped deliveries and failures passed to
+ * {@link #post} are reported from there too, since a URL is cancelled from inside native code.
+ *
+ * The bound only holds for bodies that are streamed to their callback. {@link HttpHandler} reads
+ * a body into memory before delivery when it has several callbacks for one URL, or when its
+ * memory cache is on, so those bodies are held before a slot is acquired.
+ */
+class DeliveryQueue {
+
+    /**
+     * A response waiting for delivery
+     */
+    interface Delivery {
+        /** Pass the data to native code and release it; called on a delivery thread */
+        void deliver();
+        /** Release the data without passing it on; called on the thread that dropped it */
+        void drop();
+    }
+
+    private static final int THREADS = 2;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, List<Task>> queued = new HashMap<>();
+    private int maxDepth;
+    private int depth = 0;
+    private int peakDepth = 0;
+    private long deliveredCount = 0;
+    private long droppedCount = 0;
+    private long waitCount = 0;
+    private boolean shutdown = false;
+
+    private class Task implements Runnable {
+        final String url;
+        final Delivery delivery;
+
+        Task(String url, Delivery delivery) {
+            this.url = url;
+            this.delivery = delivery;
+        }
+
+        @Override
+        public void run() {
+            synchronized (DeliveryQueue.this) {
+                List<Task> tasks = queued.get(url);
+                if (tasks == null || !tasks.remove(this)) {
+                    // Dropped while waiting
+                    return;
+                }
+                if (tasks.isEmpty()) {
+                    queued.remove(url);
+                }
+            }
+            try {
+                delivery.deliver();
+            } finally {
+                synchronized (DeliveryQueue.this) {
+                    deliveredCount++;
+                }
+                release();
+            }
+        }
+    }
+
+    // A task of post(), run by shutdown() if it has not started yet
+    private static class Posted implements Runnable {
+        final Runnable task;
+
+        Posted(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Create a queue
+     * @param maxDepth Maximum number of responses read but not delivered yet
+     */
+    DeliveryQueue(int maxDepth) {
+        this.maxDepth = maxDepth;
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "TangramDelivery");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Reserve a slot for a response, waiting until one is free; a reserved slot must be passed
+     * to {@link #execute} or given back with {@link #release}
+     * @return false if the queue was shut down or the thread interrupted while waiting
+     */
+    synchronized boolean acquire() {
+        if (depth >= maxDepth && !shutdown) {
+            waitCount++;
+        }
+        while (depth >= maxDepth && !shutdown) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        if (shutdown) {
+            return false;
+        }
+        depth++;
+        peakDepth = Math.max(peakDepth, depth);
+        return true;
+    }
+
+    synchronized void release() {
+        depth--;
+        notifyAll();
+    }
+
+    /**
+     * Queue a delivery in a slot reserved with {@link #acquire}
+     * @param url URL of the response, used to drop it when the URL is cancelled
+     * @param delivery The delivery to run
+     */
+    void execute(String url, Delivery delivery) {
+        Task task = new Task(url, delivery);
+        synchronized (this) {
+            if (!shutdown) {
+                List<Task> tasks = queued.get(url);
+                if (tasks == null) {
+                    tasks = new ArrayList<>(1);
+                    queued.put(url, tasks);
+                }
+                tasks.add(task);
+                executor.execute(task);
+                return;
+            }
+        }
+        drop(task);
+    }
+
+    /**
+     * Run a task on a delivery thread without taking a slot, e.g. to tell native code of a
+     * failure on a thread that may be inside a native call; after shutdown it runs right away
+     * @param task The task
+     */
+    void post(Runnable task) {
+        synchronized (this) {
+            if (!shutdown) {
+                executor.execute(new Posted(task));
+                return;
+            }
+        }
+        task.run();
+    }
+
+    /**
+     * Drop the deliveries for a URL that have not started yet; they are released on a delivery
+     * thread, since this is called while native code cancels the URL
+     * @param url URL of the cancelled request
+     */
+    void cancel(String url) {
+        final List<Task> tasks;
+        synchronized (this) {
+            tasks = queued.remove(url);
+            if (tasks == null) {
+                return;
+            }
+            for (Task task : tasks) {
+                executor.remove(task);
+            }
+        }
+        post(new Runnable() {
+            @Override
+            public void run() {
+                for (Task task : tasks) {
+                    drop(task);
+                }
+            }
+        });
+    }
+
+    /**
+     * Drop every waiting delivery, run the posted tasks that have not started, and stop the
+     * delivery threads
+     */
+    void shutdown() {
+        List<Task> tasks = new ArrayList<>();
+        List<Runnable> posted = new ArrayList<>();
+        synchronized (this) {
+            shutdown = true;
+            for (List<Task> urlTasks : queued.values()) {
+                tasks.addAll(urlTasks);
+            }
+            queued.clear();
+            for (Runnable waiting : executor.shutdownNow()) {
+                if (waiting instanceof Posted) {
+                    posted.add(waiting);
+                }
+            }
+            notifyAll();
+        }
+        for (Task task : tasks) {
+            drop(task);
+        }
+        for (Runnable task : posted) {
+            task.run();
+        }
+    }
+
+    private void drop(Task task) {
+        try {
+            task.delivery.drop();
+        } finally {
+            synchronized (this) {
+                droppedCount++;
+            }
+            release();
+        }
+    }
+
+    synchronized void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        notifyAll();
+    }
+
+    synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /** Number of responses read but not delivered yet, including those being read */
+    synchronized int getDepth() {
+        return depth;
+    }
+
+    synchronized int getPeakDepth() {
+        return peakDepth;
+    }
+
+    synchronized long getDeliveredCount() {
+        return deliveredCount;
+    }
+
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /** Number of times a network thread had to wait for a free slot */
+    synchronized long getWaitCount() {
+        return waitCount;
+    }
+
+}
@@ -0,0 +1,357 @@
+package com.mapzen.tangram;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code FeatureBatch} collects many map features in flat arrays, so that they can be added to a
+ * {@link MapData} with {@link MapData#addFeatures(FeatureBatch)} in a single call to the map
+ * instead of one call per feature. A batch can be cleared and reused.
+ *
+ * A batch created with {@code fixedPoint} stores coordinates as ints in units of 1e-7 degrees,
+ * which halves the memory of the batch and the data copied to the map; this is about 1 cm at the
+ * equator, plenty for display.
+ *
+ * A batch created with a {@link PropertySchema} also takes features with {@link PropertyValues}
+ * of that schema. Their values are copied into typed columns of the batch, one row per feature,
+ * and passed to the map with the rest of the batch in the same single call.
+ */
+public class FeatureBatch {
+
+    static final int TYPE_POINT = 0;
+    static final int TYPE_POLYLINE = 1;
+    static final int TYPE_POLYGON = 2;
+
+    // Values of FEATURE_FIELDS ints for each feature: type, number of rings, number of properties
+    static final int FEATURE_FIELDS = 3;
+
+    // Longitude and latitude of each point, in degrees or, for a fixed-point batch, in
+    // coordinatesE7 instead
+    double[] coordinates;
+    int[] coordinatesE7;
+    int coordinateCount = 0;
+    // Number of points in each ring; points and polylines have a single ring
+    int[] rings;
+    int ringCount = 0;
+    int[] features;
+    int featureCount = 0;
+    // Each property is stored as the index of its key in propertyKeyNames and its value;
+    // numeric values are stored in propertyNumbers, with a null string value
+    int[] propertyKeys;
+    String[] propertyValues;
+    double[] propertyNumbers;
+    int propertyCount = 0;
+    // Properties added since the last feature, which belong to the next one
+    private int featurePropertiesStart = 0;
+    final List<String> propertyKeyNames = new ArrayList<>();
+    private final Map<String, Integer> propertyKeyIndices = new HashMap<>();
+    // For a batch with a schema, the typed values of each feature at feature * schema.size() +
+    // column, with the types of PropertyValues; features added without values have none
+    final PropertySchema schema;
+    byte[] valueTypes;
+    double[] valueNumbers;
+    String[] valueStrings;
+
+    /**
+     * Create an empty batch
+     */
+    public FeatureBatch() {
+        this(64, 256);
+    }
+
+    /**
+     * Create an empty batch with room for a given number of features and points, which avoids
+     * growing its arrays while it is filled
+     * @param expectedFeatures Expected number of features
+     * @param expectedPoints Expected total number of points
+     */
+    public FeatureBatch(int expectedFeatures, int expectedPoints) {
+        this(expectedFeatures, expectedPoints, false);
+    }
+
+    /**
+     * Create an empty batch with room for a given number of features and points
+     * @param expectedFeatures Expected number of features
+     * @param expectedPoints Expected total number of points
+     * @param fixedPoint True to store coordinates in units of 1e-7 degrees rather than as doubles
+     */
+    public FeatureBatch(int expectedFeatures, int expectedPoints, boolean fixedPoint) {
+        this(null, expectedFeatures, expectedPoints, fixedPoint);
+    }
+
+    /**
+     * Create an empty batch for features with typed property values
+     * @param schema The schema of the {@link PropertyValues} of the features; may be null
+     * @param expectedFeatures Expected number of features
+     * @param expectedPoints Expected total number of points
+     * @param fixedPoint True to store coordinates in units of 1e-7 degrees rather than as doubles
+     */
+    public FeatureBatch(PropertySchema schema, int expectedFeatures, int expectedPoints, boolean fixedPoint) {
+        this.schema = schema;
+        if (schema != null) {
+            int values = schema.size() * Math.max(1, expectedFeatures);
+            valueTypes = new byte[values];
+            valueNumbers = new double[values];
+            valueStrings = new String[values];
+        }
+        if (fixedPoint) {
+            coordinatesE7 = new int[2 * Math.max(1, expectedPoints)];
+        } else {
+            coordinates = new double[2 * Math.max(1, expectedPoints)];
+        }
+        rings = new int[Math.max(1, expectedFeatures)];
+        features = new int[FEATURE_FIELDS * Math.max(1, expectedFeatures)];
+        propertyKeys = new int[Math.max(1, expectedFeatures)];
+        propertyValues = new String[Math.max(1, expectedFeatures)];
+        propertyNumbers = new double[Math.max(1, expectedFeatures)];
+    }
+
+    /**
+     * Add a point feature
+     * @param point The coordinates of the feature
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBatch addPoint(LngLat point, Map<String, String> properties) {
+        addCoordinate(point.longitude, point.latitude);
+        addRing(1);
+        addFeature(TYPE_POINT, 1, properties);
+        return this;
+    }
+
+    /**
+     * Add a polyline feature
+     * @param polyline A list of coordinates that define the line segments of the feature
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBatch addPolyline(List<LngLat> polyline, Map<String, String> properties) {
+        for (LngLat point : polyline) {
+            addCoordinate(point.longitude, point.latitude);
+        }
+        addRing(polyline.size());
+        addFeature(TYPE_POLYLINE, 1, properties);
+        return this;
+    }
+
+    /**
+     * Add a polygon feature
+     * @param polygon A list of rings describing the shape of the feature, as for
+     * {@link MapData#addPolygon(List, Map)}
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBatch addPolygon(List<List<LngLat>> polygon, Map<String, String> properties) {
+        for (List<LngLat> ring : polygon) {
+            for (LngLat point : ring) {
+                addCoordinate(point.longitude, point.latitude);
+            }
+            addRing(ring.size());
+        }
+        addFeature(TYPE_POLYGON, polygon.size(), properties);
+        return this;
+    }
+
+    /**
+     * Add a point feature with typed property values
+     * @param longitude The longitude of the feature
+     * @param latitude The latitude of the feature
+     * @param values The properties of the feature, for the schema of this batch; may be null
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the values are not for the schema of this batch
+     */
+    public FeatureBatch addPoint(double longitude, double latitude, PropertyValues values) {
+        checkSchema(values);
+        addCoordinate(longitude, latitude);
+        addRing(1);
+        endFeature(TYPE_POINT, 1, values);
+        return this;
+    }
+
+    /**
+     * Add a polyline feature with typed property values
+     * @param coordinates Interleaved longitudes and latitudes of the points of the line
+     * @param offset Index of the longitude of the first point in the array
+     * @param length Number of values to use, twice the number of points
+     * @param values The properties of the feature, for the schema of this batch; may be null
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the values are not for the schema of this batch
+     */
+    public FeatureBatch addPolyline(double[] coordinates, int offset, int length, PropertyValues values) {
+        MapController.checkCoordinates(coordinates, offset, length);
+        checkSchema(values);
+        for (int i = offset; i < offset + length; i += 2) {
+            addCoordinate(coordinates[i], coordinates[i + 1]);
+        }
+        addRing(length / 2);
+        endFeature(TYPE_POLYLINE, 1, values);
+        return this;
+    }
+
+    /**
+     * Add a polygon feature with typed property values
+     * @param coordinates Interleaved longitudes and latitudes of the points of all rings
+     * @param offset Index of the longitude of the first point in the array
+     * @param rings Number of points in each ring, as for
+     * {@link MapData#addPolygon(double[], int, int[], Map)}
+     * @param values The properties of the feature, for the schema of this batch; may be null
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the values are not for the schema of this batch
+     */
+    public FeatureBatch addPolygon(double[] coordinates, int offset, int[] rings, PropertyValues values) {
+        int length = 2 * MapController.countPoints(rings);
+        MapController.checkCoordinates(coordinates, offset, length);
+        checkSchema(values);
+        for (int i = offset; i < offset + length; i += 2) {
+            addCoordinate(coordinates[i], coordinates[i + 1]);
+        }
+        for (int ring : rings) {
+            addRing(ring);
+        }
+        endFeature(TYPE_POLYGON, rings.length, values);
+        return this;
+    }
+
+    /**
+     * Get the number of features in this batch
+     * @return The number of features
+     */
+    public int size() {
+        return featureCount;
+    }
+
+    /**
+     * Remove all features from this batch, keeping its arrays for reuse
+     */
+    public void clear() {
+        coordinateCount = 0;
+        ringCount = 0;
+        Arrays.fill(propertyValues, 0, propertyCount, null);
+        propertyCount = 0;
+        if (schema != null) {
+            Arrays.fill(valueStrings, 0, schema.size() * featureCount, null);
+        }
+        featureCount = 0;
+        featurePropertiesStart = 0;
+    }
+
+    String[] getPropertyKeyNames() {
+        return propertyKeyNames.toArray(new String[propertyKeyNames.size()]);
+    }
+
+    // Features are added by adding their points, rings and properties, then calling endFeature()
+
+    void addCoordinate(double longitude, double latitude) {
+        if (coordinatesE7 != null) {
+            if (coordinateCount + 2 > coordinatesE7.length) {
+                coordinatesE7 = Arrays.copyOf(coordinatesE7, 2 * coordinatesE7.length);
+            }
+            coordinatesE7[coordinateCount++] = LngLat.toE7(longitude);
+            coordinatesE7[coordinateCount++] = LngLat.toE7(latitude);
+            return;
+        }
+        if (coordinateCount + 2 > coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, 2 * coordinates.length);
+        }
+        coordinates[coordinateCount++] = longitude;
+        coordinates[coordinateCount++] = latitude;
+    }
+
+    void addRing(int points) {
+        if (ringCount == rings.length) {
+            rings = Arrays.copyOf(rings, 2 * rings.length);
+        }
+        rings[ringCount++] = points;
+    }
+
+    void addProperty(String key, String value) {
+        if (value == null) {
+            return;
+        }
+        // The slot is found before indexing, since finding it can grow the arrays
+        int slot = addPropertyKey(key);
+        propertyValues[slot] = value;
+    }
+
+    void addProperty(String key, double value) {
+        int slot = addPropertyKey(key);
+        propertyNumbers[slot] = value;
+    }
+
+    void endFeature(int type, int featureRings) {
+        endFeature(type, featureRings, null);
+    }
+
+    private void endFeature(int type, int featureRings, PropertyValues values) {
+        if (schema != null) {
+            setValues(values);
+        }
+        int n = FEATURE_FIELDS * featureCount;
+        if (n + FEATURE_FIELDS > features.length) {
+            features = Arrays.copyOf(features, 2 * features.length);
+        }
+        features[n] = type;
+        features[n + 1] = featureRings;
+        features[n + 2] = propertyCount - featurePropertiesStart;
+        featureCount++;
+        featurePropertiesStart = propertyCount;
+    }
+
+    private void addFeature(int type, int featureRings, Map<String, String> properties) {
+        if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                addProperty(entry.getKey(), entry.getValue());
+            }
+        }
+        endFeature(type, featureRings);
+    }
+
+    // Copies the values into the row of the next feature
+    private void setValues(PropertyValues values) {
+        int columns = schema.size();
+        int row = columns * featureCount;
+        if (row + columns > valueTypes.length) {
+            int size = Math.max(2 * valueTypes.length, row + columns);
+            valueTypes = Arrays.copyOf(valueTypes, size);
+            valueNumbers = Arrays.copyOf(valueNumbers, size);
+            valueStrings = Arrays.copyOf(valueStrings, size);
+        }
+        if (values == null) {
+            Arrays.fill(valueTypes, row, row + columns, PropertyValues.TYPE_NONE);
+            Arrays.fill(valueStrings, row, row + columns, null);
+            return;
+        }
+        System.arraycopy(values.types, 0, valueTypes, row, columns);
+        System.arraycopy(values.numbers, 0, valueNumbers, row, columns);
+        System.arraycopy(values.strings, 0, valueStrings, row, columns);
+    }
+
+    private void checkSchema(PropertyValues values) {
+        if (values != null && values.schema != schema) {
+            throw new IllegalArgumentException("The schema of the values is not the schema of this batch");
+        }
+    }
+
+    // Returns the slot of the new property, with a null string value
+    private int addPropertyKey(String key) {
+        // Features usually share a few keys, which are passed to the map only once
+        Integer index = propertyKeyIndices.get(key);
+        if (index == null) {
+            index = propertyKeyNames.size();
+            propertyKeyNames.add(key);
+            propertyKeyIndices.put(key, index);
+        }
+        if (propertyCount == propertyKeys.length) {
+            propertyKeys = Arrays.copyOf(propertyKeys, 2 * propertyKeys.length);
+            propertyValues = Arrays.copyOf(propertyValues, 2 * propertyValues.length);
+            propertyNumbers = Arrays.copyOf(propertyNumbers, 2 * propertyNumbers.length);
+        }
+        propertyKeys[propertyCount] = index;
+        propertyValues[propertyCount] = null;
+        return propertyCount++;
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.mapzen.tangram;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code FeatureBufferEncoder} encodes map features into a compact binary buffer that can be added
+ * to a {@link MapData} with {@link MapData#addFeatures(ByteBuffer)}. Coordinates are stored as
+ * variable-length differences between consecutive points, property keys are stored once per
+ * buffer, and property values keep their type, so a buffer is usually much smaller than the same
+ * features in GeoJSON and is decoded without parsing text. A buffer can also be prepared ahead of
+ * time, e.g. on a server, and stored; the format is described in core/src/util/featureBuffer.h.
+ *
+ * Property values may be Strings or Numbers; integral numbers are stored as integers. Null values
+ * are skipped.
+ */
+public class FeatureBufferEncoder {
+
+    private static final int VERSION = 1;
+
+    private static final int TYPE_POINT = 0;
+    private static final int TYPE_POLYLINE = 1;
+    private static final int TYPE_POLYGON = 2;
+
+    private static final int VALUE_STRING = 0;
+    private static final int VALUE_NUMBER = 1;
+    private static final int VALUE_INTEGER = 2;
+
+    private static final double COORDINATE_SCALE = 1e7;
+    // Largest integer that is exactly representable as a double
+    private static final double MAX_EXACT_INTEGER = 9007199254740992.0;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] features = new byte[1024];
+    private int size = 0;
+    private int featureCount = 0;
+    private long lastX = 0;
+    private long lastY = 0;
+    private final List<byte[]> keys = new ArrayList<>();
+    private final Map<String, Integer> keyIndices = new HashMap<>();
+
+    /**
+     * Add a point feature
+     * @param point The coordinates of the feature
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBufferEncoder addPoint(LngLat point, Map<String, ?> properties) {
+        return addPoint(point.longitude, point.latitude, properties);
+    }
+
+    /**
+     * Add a point feature
+     * @param longitude The longitude of the feature
+     * @param latitude The latitude of the feature
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBufferEncoder addPoint(double longitude, double latitude, Map<String, ?> properties) {
+        writeVarint(TYPE_POINT);
+        writeVarint(1);
+        writeVarint(1);
+        writeCoordinate(longitude, latitude);
+        writeProperties(properties);
+        return this;
+    }
+
+    /**
+     * Add a polyline feature
+     * @param polyline A list of coordinates that define the line segments of the feature
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBufferEncoder addPolyline(List<LngLat> polyline, Map<String, ?> properties) {
+        writeVarint(TYPE_POLYLINE);
+        writeVarint(1);
+        writeRing(polyline);
+        writeProperties(properties);
+        return this;
+    }
+
+    /**
+     * Add a polyline feature
+     * @param coordinates Longitudes and latitudes of the points of the line, alternating
+     * @param offset Index in coordinates of the longitude of the first point
+     * @param length Number of points of the line
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBufferEncoder addPolyline(double[] coordinates, int offset, int length, Map<String, ?> properties) {
+        MapController.checkCoordinates(coordinates, offset, length);
+        writeVarint(TYPE_POLYLINE);
+        writeVarint(1);
+        writeRing(coordinates, offset, length);
+        writeProperties(properties);
+        return this;
+    }
+
+    /**
+     * Add a polygon feature
+     * @param polygon A list of rings describing the shape of the feature, as for
+     * {@link MapData#addPolygon(List, Map)}
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBufferEncoder addPolygon(List<List<LngLat>> polygon, Map<String, ?> properties) {
+        writeVarint(TYPE_POLYGON);
+        writeVarint(polygon.size());
+        for (List<LngLat> ring : polygon) {
+            writeRing(ring);
+        }
+        writeProperties(properties);
+        return this;
+    }
+
+    /**
+     * Add a polygon feature
+     * @param coordinates Longitudes and latitudes of the points of the rings, alternating
+     * @param offset Index in coordinates of the longitude of the first point
+     * @param rings Number of points in each ring, as for {@link MapData#addPolygon(double[], int, int[], Map)}
+     * @param properties The properties of the feature; may be null
+     * @return This object, for chaining
+     */
+    public FeatureBufferEncoder addPolygon(double[] coordinates, int offset, int[] rings, Map<String, ?> properties) {
+        MapController.checkCoordinates(coordinates, offset, MapController.countPoints(rings));
+        writeVarint(TYPE_POLYGON);
+        writeVarint(rings.length);
+        for (int points : rings) {
+            writeRing(coordinates, offset, points);
+            offset += 2 * points;
+        }
+        writeProperties(properties);
+        return this;
+    }
+
+    /**
+     * Get the number of features added since this encoder was created or cleared
+     * @return The number of features
+     */
+    public int size() {
+        return featureCount;
+    }
+
+    /**
+     * Encode the features added so far into a new direct buffer
+     * @return The encoded features, from position 0 to the limit of the buffer
+     */
+    public ByteBuffer toByteBuffer() {
+        int headerSize = varintSize(VERSION) + varintSize(keys.size()) + varintSize(featureCount);
+        for (byte[] key : keys) {
+            headerSize += varintSize(key.length) + key.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(headerSize + size);
+        putVarint(buffer, VERSION);
+        putVarint(buffer, keys.size());
+        for (byte[] key : keys) {
+            putVarint(buffer, key.length);
+            buffer.put(key);
+        }
+        putVarint(buffer, featureCount);
+        buffer.put(features, 0, size);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Remove all features from this encoder, keeping its memory for reuse
+     */
+    public void clear() {
+        size = 0;
+        featureCount = 0;
+        lastX = 0;
+        lastY = 0;
+        keys.clear();
+        keyIndices.clear();
+    }
+
+    private void writeRing(List<LngLat> ring) {
+        writeVarint(ring.size());
+        for (LngLat point : ring) {
+            writeCoordinate(point.longitude, point.latitude);
+        }
+    }
+
+    private void writeRing(double[] coordinates, int offset, int points) {
+        writeVarint(points);
+        for (int i = 0; i < points; i++) {
+            writeCoordinate(coordinates[offset + 2 * i], coordinates[offset + 2 * i + 1]);
+        }
+    }
+
+    private void writeCoordinate(double longitude, double latitude) {
+        long x = Math.round(longitude * COORDINATE_SCALE);
+        long y = Math.round(latitude * COORDINATE_SCALE);
+        writeSigned(x - lastX);
+        writeSigned(y - lastY);
+        lastX = x;
+        lastY = y;
+    }
+
+    private void writeProperties(Map<String, ?> properties) {
+        int count = 0;
+        if (properties != null) {
+            for (Object value : properties.values()) {
+                if (value != null) {
+                    count++;
+                }
+            }
+        }
+        writeVarint(count);
+        if (count > 0) {
+            for (Map.Entry<String, ?> entry : properties.entrySet()) {
+                writeProperty(entry.getKey(), entry.getValue());
+            }
+        }
+        featureCount++;
+    }
+
+    private void writeProperty(String key, Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof String) {
+            writeVarint(keyIndex(key));
+            writeVarint(VALUE_STRING);
+            byte[] bytes = ((String) value).getBytes(UTF_8);
+            writeVarint(bytes.length);
+            write(bytes);
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            writeVarint(keyIndex(key));
+            writeVarint(VALUE_INTEGER);
+            writeSigned(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            writeVarint(keyIndex(key));
+            if (number == Math.floor(number) && Math.abs(number) < MAX_EXACT_INTEGER) {
+                writeVarint(VALUE_INTEGER);
+                writeSigned((long) number);
+            } else {
+                writeVarint(VALUE_NUMBER);
+                long bits = Double.doubleToLongBits(number);
+                ensureCapacity(8);
+                for (int i = 0; i < 8; i++) {
+                    features[size++] = (byte) (bits >>> (8 * i));
+                }
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported type for property '" + key + "': "
+                    + value.getClass().getName());
+        }
+    }
+
+    private int keyIndex(String key) {
+        Integer index = keyIndices.get(key);
+        if (index == null) {
+            index = keys.size();
+            keys.add(key.getBytes(UTF_8));
+            keyIndices.put(key, index);
+        }
+        return index;
+    }
+
+    private void writeSigned(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            features[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        features[size++] = (byte) value;
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, features, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (size + bytes > features.length) {
+            features = Arrays.copyOf(features, Math.max(2 * features.length, size + bytes));
+        }
+    }
+
+    private static int varintSize(int value) {
+        int bytes = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+}
@@ -0,0 +1,417 @@
+package com.mapzen.tangram;
+
+import com.mapzen.tangram.geometry.Geometry;
+import com.mapzen.tangram.geometry.Point;
+import com.mapzen.tangram.geometry.Polygon;
+import com.mapzen.tangram.geometry.Polyline;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code FeatureIndex} keeps the features added to a {@link MapData} with their bounding boxes in
+ * web mercator coordinates, normalized to [0, 1] with y pointing south, and answers bounding box
+ * and nearest feature queries with a {@link PackedRTree}.
+ *
+ * Changes are made under the monitor of the index, which also rebuilds the tree once many
+ * features were added or removed since the last build; features added since then are scanned one
+ * by one, and removed features are skipped. Each change publishes an immutable {@link Snapshot},
+ * so queries take no lock and never build a tree.
+ *
+ * Features of a {@link FeatureBatch} are kept in a copy of the arrays of the batch, and their
+ * {@link Geometry} is only created when a query returns them.
+ */
+class FeatureIndex {
+
+    // Features added since the last build that are scanned rather than rebuilding the tree: at
+    // least MIN_PENDING, or a fraction of the tree so that the cost of building it is amortized
+    // over as many additions as it has features
+    private static final int MIN_PENDING = 256;
+    private static final int PENDING_FRACTION = 8;
+    private static final double EARTH_CIRCUMFERENCE_METERS = 40075016.686;
+    private static final double MAX_LATITUDE = 85.0511287798;
+
+    // The state of the index seen by queries; slots below count are never written again
+    private static final class Snapshot {
+        // Indexes the first tree.size() slots
+        final PackedRTree tree;
+        // Bounding box of each feature: minX, minY, maxX, maxY
+        final double[] boxes;
+        // For each slot a Geometry, or the Features of a batch with the index of the feature in
+        // features
+        final Object[] items;
+        final int[] features;
+        // Bit set of the removed slots
+        final long[] removed;
+        final int count;
+
+        Snapshot(PackedRTree tree, double[] boxes, Object[] items, int[] features, long[] removed, int count) {
+            this.tree = tree;
+            this.boxes = boxes;
+            this.items = items;
+            this.features = features;
+            this.removed = removed;
+            this.count = count;
+        }
+
+        boolean isRemoved(int slot) {
+            int word = slot >>> 6;
+            return word < removed.length && (removed[word] & (1L << slot)) != 0;
+        }
+
+        Geometry geometry(int slot) {
+            Object item = items[slot];
+            return item instanceof Geometry ? (Geometry) item : ((Features) item).geometry(features[slot]);
+        }
+
+        double distanceSquared(int slot, double x, double y) {
+            double dx = x < boxes[4 * slot] ? boxes[4 * slot] - x : x <= boxes[4 * slot + 2] ? 0 : x - boxes[4 * slot + 2];
+            double dy = y < boxes[4 * slot + 1] ? boxes[4 * slot + 1] - y : y <= boxes[4 * slot + 3] ? 0 : y - boxes[4 * slot + 3];
+            return dx * dx + dy * dy;
+        }
+    }
+
+    // The features of a batch, in copies of its arrays that the batch does not reuse
+    private static final class Features {
+        final double[] coordinates;
+        final int[] coordinatesE7;
+        final int[] rings;
+        final int[] features;
+        final int[] propertyKeys;
+        final String[] propertyValues;
+        final double[] propertyNumbers;
+        final String[] propertyKeyNames;
+        final PropertySchema schema;
+        final byte[] valueTypes;
+        final double[] valueNumbers;
+        final String[] valueStrings;
+        // Index of the first coordinate, ring and property of each feature
+        final int[] offsets;
+
+        Features(FeatureBatch batch) {
+            coordinates = batch.coordinates != null ? Arrays.copyOf(batch.coordinates, batch.coordinateCount) : null;
+            coordinatesE7 = batch.coordinatesE7 != null ? Arrays.copyOf(batch.coordinatesE7, batch.coordinateCount) : null;
+            rings = Arrays.copyOf(batch.rings, batch.ringCount);
+            features = Arrays.copyOf(batch.features, FeatureBatch.FEATURE_FIELDS * batch.featureCount);
+            propertyKeys = Arrays.copyOf(batch.propertyKeys, batch.propertyCount);
+            propertyValues = Arrays.copyOf(batch.propertyValues, batch.propertyCount);
+            propertyNumbers = Arrays.copyOf(batch.propertyNumbers, batch.propertyCount);
+            propertyKeyNames = batch.getPropertyKeyNames();
+            schema = batch.schema;
+            int values = schema != null ? schema.size() * batch.featureCount : 0;
+            valueTypes = schema != null ? Arrays.copyOf(batch.valueTypes, values) : null;
+            valueNumbers = schema != null ? Arrays.copyOf(batch.valueNumbers, values) : null;
+            valueStrings = schema != null ? Arrays.copyOf(batch.valueStrings, values) : null;
+
+            offsets = new int[3 * batch.featureCount];
+            int coordinate = 0;
+            int ring = 0;
+            int property = 0;
+            for (int i = 0; i < batch.featureCount; i++) {
+                offsets[3 * i] = coordinate;
+                offsets[3 * i + 1] = ring;
+                offsets[3 * i + 2] = property;
+                for (int end = ring + features[FeatureBatch.FEATURE_FIELDS * i + 1]; ring < end; ring++) {
+                    coordinate += 2 * rings[ring];
+                }
+                property += features[FeatureBatch.FEATURE_FIELDS * i + 2];
+            }
+        }
+
+        int size() {
+            return offsets.length / 3;
+        }
+
+        // Writes the bounding box of a feature to boxes at index
+        void bounds(int feature, double[] boxes, int index) {
+            int start = offsets[3 * feature];
+            int end = feature + 1 < size() ? offsets[3 * (feature + 1)]
+                    : coordinates != null ? coordinates.length : coordinatesE7.length;
+            FeatureIndex.bounds(coordinates, coordinatesE7, start, end, boxes, index);
+        }
+
+        Geometry geometry(int feature) {
+            int type = features[FeatureBatch.FEATURE_FIELDS * feature];
+            int featureRings = features[FeatureBatch.FEATURE_FIELDS * feature + 1];
+            int featureProperties = features[FeatureBatch.FEATURE_FIELDS * feature + 2];
+            int coordinate = offsets[3 * feature];
+            int ring = offsets[3 * feature + 1];
+            int property = offsets[3 * feature + 2];
+
+            Map<String, String> properties = new HashMap<>();
+            for (int end = property + featureProperties; property < end; property++) {
+                String value = propertyValues[property];
+                properties.put(propertyKeyNames[propertyKeys[property]], value != null ? value
+                        : PropertyValues.numberString(propertyNumbers[property]));
+            }
+            if (schema != null) {
+                for (int column = 0, value = feature * schema.size(); column < schema.size(); column++, value++) {
+                    if (valueTypes[value] == PropertyValues.TYPE_STRING) {
+                        properties.put(schema.getKey(column), valueStrings[value]);
+                    } else if (valueTypes[value] == PropertyValues.TYPE_NUMBER) {
+                        properties.put(schema.getKey(column), PropertyValues.numberString(valueNumbers[value]));
+                    }
+                }
+            }
+
+            int[] geometryRings = Arrays.copyOfRange(rings, ring, ring + featureRings);
+            int length = 2 * MapController.countPoints(geometryRings);
+            int[] e7 = coordinatesE7;
+            if (type == FeatureBatch.TYPE_POINT) {
+                return e7 != null ? Point.fromE7(e7[coordinate], e7[coordinate + 1], properties)
+                        : new Point(coordinates[coordinate], coordinates[coordinate + 1], properties);
+            } else if (type == FeatureBatch.TYPE_POLYLINE) {
+                return e7 != null ? Polyline.fromE7(e7, coordinate, length, properties)
+                        : new Polyline(coordinates, coordinate, length, properties);
+            }
+            return e7 != null ? Polygon.fromE7(e7, coordinate, geometryRings, properties)
+                    : new Polygon(coordinates, coordinate, geometryRings, properties);
+        }
+    }
+
+    // The state below is changed under the monitor of the index
+    private double[] boxes = new double[4 * 64];
+    private Object[] items = new Object[64];
+    private int[] features = new int[64];
+    // Id of the feature in each slot, 0 if it has none
+    private long[] ids = new long[64];
+    private long[] removed = new long[0];
+    private int count = 0;
+    private int removedCount = 0;
+    private final Map<Long, Integer> slots = new HashMap<>();
+    private PackedRTree tree = new PackedRTree(new double[0], 0);
+
+    private volatile Snapshot snapshot = new Snapshot(tree, boxes, items, features, removed, 0);
+
+    synchronized void add(Geometry geometry) {
+        add(0, geometry);
+    }
+
+    // Replaces the feature with the same id, if any
+    synchronized void add(long id, Geometry geometry) {
+        if (id != 0) {
+            removeSlot(id);
+        }
+        int slot = newSlot(geometry, 0);
+        // Fixed-point coordinates are read as they are, rather than converted to an array
+        int[] coordinatesE7 = geometry.getCoordinateE7Array();
+        double[] coordinates = coordinatesE7 == null ? geometry.getCoordinateArray() : null;
+        bounds(coordinates, coordinatesE7, 0, coordinates != null ? coordinates.length : coordinatesE7.length, boxes, 4 * slot);
+        ids[slot] = id;
+        if (id != 0) {
+            slots.put(id, slot);
+        }
+        publish();
+    }
+
+    synchronized void add(FeatureBatch batch) {
+        Features batchFeatures = new Features(batch);
+        for (int i = 0; i < batchFeatures.size(); i++) {
+            int slot = newSlot(batchFeatures, i);
+            batchFeatures.bounds(i, boxes, 4 * slot);
+            ids[slot] = 0;
+        }
+        publish();
+    }
+
+    synchronized boolean remove(long id) {
+        boolean found = removeSlot(id);
+        if (found) {
+            publish();
+        }
+        return found;
+    }
+
+    synchronized void clear() {
+        // New arrays, since the slots of the arrays of the last snapshot must not change
+        boxes = new double[4 * 64];
+        items = new Object[64];
+        features = new int[64];
+        ids = new long[64];
+        removed = new long[0];
+        count = 0;
+        removedCount = 0;
+        slots.clear();
+        tree = new PackedRTree(boxes, 0);
+        publish();
+    }
+
+    List<Geometry> queryBounds(LngLat southWest, LngLat northEast) {
+        final Snapshot s = snapshot;
+        double minX = projectX(southWest.longitude);
+        double maxX = projectX(northEast.longitude);
+        // y points south
+        double minY = projectY(northEast.latitude);
+        double maxY = projectY(southWest.latitude);
+
+        int[] found = s.tree.search(minX, minY, maxX, maxY, present(s));
+        List<Geometry> result = new ArrayList<>(found.length);
+        for (int slot : found) {
+            result.add(s.geometry(slot));
+        }
+        double[] boxes = s.boxes;
+        for (int slot = s.tree.size(); slot < s.count; slot++) {
+            if (!s.isRemoved(slot) && boxes[4 * slot] <= maxX && boxes[4 * slot + 1] <= maxY
+                    && boxes[4 * slot + 2] >= minX && boxes[4 * slot + 3] >= minY) {
+                result.add(s.geometry(slot));
+            }
+        }
+        return result;
+    }
+
+    List<Geometry> queryNearest(LngLat point, int maxResults, double maxDistanceMeters) {
+        final Snapshot s = snapshot;
+        final double x = projectX(point.longitude);
+        final double y = projectY(point.latitude);
+        // Meters per unit of normalized mercator at the latitude of the point
+        double scale = EARTH_CIRCUMFERENCE_METERS * Math.cos(Math.toRadians(clampLatitude(point.latitude)));
+        double maxDistance = maxDistanceMeters / scale;
+
+        int[] found = s.tree.neighbors(x, y, maxResults, maxDistance, present(s));
+        if (s.tree.size() == s.count) {
+            List<Geometry> result = new ArrayList<>(found.length);
+            for (int slot : found) {
+                result.add(s.geometry(slot));
+            }
+            return result;
+        }
+
+        // Merge the pending features that are near enough into the nearest of the tree
+        List<Integer> candidates = new ArrayList<>();
+        for (int slot : found) {
+            candidates.add(slot);
+        }
+        for (int slot = s.tree.size(); slot < s.count; slot++) {
+            if (!s.isRemoved(slot) && s.distanceSquared(slot, x, y) <= maxDistance * maxDistance) {
+                candidates.add(slot);
+            }
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(s.distanceSquared(a, x, y), s.distanceSquared(b, x, y));
+            }
+        });
+        int size = Math.min(maxResults, candidates.size());
+        List<Geometry> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(s.geometry(candidates.get(i)));
+        }
+        return result;
+    }
+
+    private static PackedRTree.Filter present(final Snapshot s) {
+        return new PackedRTree.Filter() {
+            @Override
+            public boolean accept(int item) {
+                return !s.isRemoved(item);
+            }
+        };
+    }
+
+    // Returns the slot of a new feature, whose box and id are set by the caller
+    private int newSlot(Object item, int feature) {
+        if (count == items.length) {
+            boxes = Arrays.copyOf(boxes, 8 * count);
+            items = Arrays.copyOf(items, 2 * count);
+            features = Arrays.copyOf(features, 2 * count);
+            ids = Arrays.copyOf(ids, 2 * count);
+        }
+        items[count] = item;
+        features[count] = feature;
+        return count++;
+    }
+
+    private boolean removeSlot(long id) {
+        Integer slot = slots.remove(id);
+        if (slot == null) {
+            return false;
+        }
+        // A copy, since the last snapshot shares the bit set
+        removed = Arrays.copyOf(removed, Math.max(removed.length, (slot >>> 6) + 1));
+        removed[slot >>> 6] |= 1L << slot;
+        removedCount++;
+        return true;
+    }
+
+    // Rebuilds the tree when enough features were added or removed since the last build, then
+    // makes the changes visible to queries
+    private void publish() {
+        int maxPending = Math.max(MIN_PENDING, tree.size() / PENDING_FRACTION);
+        if (count - tree.size() > maxPending || removedCount > count / 2) {
+            if (removedCount > 0) {
+                compact();
+            }
+            tree = new PackedRTree(boxes, count);
+        }
+        snapshot = new Snapshot(tree, boxes, items, features, removed, count);
+    }
+
+    // Moves the remaining features to new arrays, without gaps
+    private void compact() {
+        int capacity = Math.max(64, count - removedCount);
+        double[] keptBoxes = new double[4 * capacity];
+        Object[] keptItems = new Object[capacity];
+        int[] keptFeatures = new int[capacity];
+        long[] keptIds = new long[capacity];
+        int kept = 0;
+        slots.clear();
+        for (int slot = 0; slot < count; slot++) {
+            if ((slot >>> 6) < removed.length && (removed[slot >>> 6] & (1L << slot)) != 0) {
+                continue;
+            }
+            System.arraycopy(boxes, 4 * slot, keptBoxes, 4 * kept, 4);
+            keptItems[kept] = items[slot];
+            keptFeatures[kept] = features[slot];
+            keptIds[kept] = ids[slot];
+            if (keptIds[kept] != 0) {
+                slots.put(keptIds[kept], kept);
+            }
+            kept++;
+        }
+        boxes = keptBoxes;
+        items = keptItems;
+        features = keptFeatures;
+        ids = keptIds;
+        removed = new long[0];
+        count = kept;
+        removedCount = 0;
+    }
+
+    // Writes the bounding box of the points from start to end of either array to boxes at index
+    private static void bounds(double[] coordinates, int[] coordinatesE7, int start, int end, double[] boxes, int index) {
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = start; i + 1 < end; i += 2) {
+            double x = projectX(coordinates != null ? coordinates[i] : LngLat.fromE7(coordinatesE7[i]));
+            double y = projectY(coordinates != null ? coordinates[i + 1] : LngLat.fromE7(coordinatesE7[i + 1]));
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+        boxes[index] = minX;
+        boxes[index + 1] = minY;
+        boxes[index + 2] = maxX;
+        boxes[index + 3] = maxY;
+    }
+
+    private static double clampLatitude(double latitude) {
+        return Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+    }
+
+    private static double projectX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    private static double projectY(double latitude) {
+        double sin = Math.sin(Math.toRadians(clampLatitude(latitude)));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+}
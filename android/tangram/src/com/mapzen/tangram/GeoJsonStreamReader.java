@@ -0,0 +1,341 @@
+package com.mapzen.tangram;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@code GeoJsonStreamReader} reads a GeoJSON FeatureCollection, Feature or geometry one feature
+ * at a time and adds the features to a {@link FeatureBatch}, which is passed to a {@link Sink}
+ * and cleared each time it holds enough features. Only the current feature and the batch are
+ * kept in memory, whatever the size of the input.
+ *
+ * As when parsing GeoJSON natively, string and number properties are kept and other properties
+ * are ignored. Multi-part geometries and geometry collections are added as one feature per part,
+ * each with the properties of the GeoJSON feature.
+ */
+class GeoJsonStreamReader {
+
+    /**
+     * Receives each full batch, and the last one
+     */
+    interface Sink {
+        void addFeatures(FeatureBatch batch);
+    }
+
+    private static final int DEFAULT_BATCH_FEATURES = 1024;
+
+    private final Sink sink;
+    private final int batchFeatures;
+    private final FeatureBatch batch;
+
+    // Geometries of the current feature. Positions are read into points; each array of
+    // positions is a ring, each array of rings is a part.
+    private double[] points = new double[256];
+    private int pointCount = 0;
+    private int[] rings = new int[16];
+    private int ringCount = 0;
+    private int[] parts = new int[4];
+    private int partCount = 0;
+    // For each geometry: type, and the end of its points, rings and parts
+    private final List<Geometry> geometries = new ArrayList<>();
+    private int geometryCount = 0;
+
+    // Properties of the current feature; values are Strings or Doubles
+    private final List<String> propertyKeys = new ArrayList<>();
+    private final List<Object> propertyValues = new ArrayList<>();
+
+    private static class Geometry {
+        String type;
+        int pointEnd;
+        int ringEnd;
+        int partEnd;
+    }
+
+    GeoJsonStreamReader(Sink sink) {
+        this(sink, DEFAULT_BATCH_FEATURES);
+    }
+
+    GeoJsonStreamReader(Sink sink, int batchFeatures) {
+        this.sink = sink;
+        this.batchFeatures = batchFeatures;
+        this.batch = new FeatureBatch(batchFeatures, 16 * batchFeatures);
+    }
+
+    /**
+     * Read all features from a GeoJSON document
+     * @param in Reader of the document; it is not closed
+     * @throws IOException If reading fails or the document is not valid JSON; the features read
+     * before the error have been passed to the sink
+     */
+    void read(Reader in) throws IOException {
+        JsonReader reader = new JsonReader(in);
+        batch.clear();
+        clearFeature();
+        try {
+            readObject(reader);
+            // The document itself may be a Feature or a geometry
+            addFeature();
+        } finally {
+            // Features read completely before an error are kept
+            if (batch.size() > 0) {
+                sink.addFeatures(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    // Read a FeatureCollection, Feature or geometry object; the type member may come after
+    // the members that depend on it
+    private void readObject(JsonReader reader) throws IOException {
+        String type = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("type") && reader.peek() == JsonToken.STRING) {
+                type = reader.nextString();
+            } else if (name.equals("features") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readFeature(reader);
+                }
+                reader.endArray();
+            } else if (name.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader);
+            } else if (name.equals("properties") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader);
+            } else if (name.equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readCoordinateArray(reader);
+            } else if (name.equals("geometries") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readGeometries(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (type != null && !type.equals("Feature") && !type.equals("FeatureCollection")) {
+            endGeometry(type);
+        }
+    }
+
+    private void readFeature(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return;
+        }
+        clearFeature();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("geometry") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader);
+            } else if (name.equals("properties") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readProperties(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        addFeature();
+    }
+
+    private void readGeometry(JsonReader reader) throws IOException {
+        String type = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("type") && reader.peek() == JsonToken.STRING) {
+                type = reader.nextString();
+            } else if (name.equals("coordinates") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readCoordinateArray(reader);
+            } else if (name.equals("geometries") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                readGeometries(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (type != null) {
+            endGeometry(type);
+        }
+    }
+
+    private void readGeometries(JsonReader reader) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+                readGeometry(reader);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+    }
+
+    // Returns the nesting depth of the array: 1 for a position, 2 for an array of positions, ...
+    private int readCoordinateArray(JsonReader reader) throws IOException {
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.NUMBER) {
+            double longitude = reader.nextDouble();
+            double latitude = reader.peek() == JsonToken.NUMBER ? reader.nextDouble() : 0;
+            while (reader.hasNext()) {
+                // Altitude
+                reader.skipValue();
+            }
+            reader.endArray();
+            addPoint(longitude, latitude);
+            return 1;
+        }
+        int depth = 0;
+        int pointStart = pointCount;
+        int ringStart = ringCount;
+        while (reader.hasNext()) {
+            if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+                depth = Math.max(depth, readCoordinateArray(reader) + 1);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endArray();
+        if (depth == 2) {
+            addRing(pointCount - pointStart);
+        } else if (depth == 3) {
+            addPart(ringCount - ringStart);
+        }
+        return depth;
+    }
+
+    private void readProperties(JsonReader reader) throws IOException {
+        propertyKeys.clear();
+        propertyValues.clear();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            JsonToken token = reader.peek();
+            if (token == JsonToken.STRING) {
+                propertyKeys.add(name);
+                propertyValues.add(reader.nextString());
+            } else if (token == JsonToken.NUMBER) {
+                propertyKeys.add(name);
+                propertyValues.add(reader.nextDouble());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private void endGeometry(String type) {
+        if (geometryCount == geometries.size()) {
+            geometries.add(new Geometry());
+        }
+        Geometry geometry = geometries.get(geometryCount++);
+        geometry.type = type;
+        geometry.pointEnd = pointCount;
+        geometry.ringEnd = ringCount;
+        geometry.partEnd = partCount;
+    }
+
+    // Add the parts of the geometries of the current feature to the batch
+    private void addFeature() {
+        int point = 0, ring = 0, part = 0;
+        for (int g = 0; g < geometryCount; g++) {
+            Geometry geometry = geometries.get(g);
+            switch (geometry.type) {
+                case "Point":
+                case "MultiPoint":
+                    for (; point < geometry.pointEnd; point++) {
+                        batch.addCoordinate(points[2 * point], points[2 * point + 1]);
+                        batch.addRing(1);
+                        endFeature(FeatureBatch.TYPE_POINT, 1);
+                    }
+                    break;
+                case "LineString":
+                case "MultiLineString":
+                    for (; ring < geometry.ringEnd; ring++) {
+                        point = addRingToBatch(point, rings[ring]);
+                        endFeature(FeatureBatch.TYPE_POLYLINE, 1);
+                    }
+                    break;
+                case "Polygon":
+                case "MultiPolygon":
+                    for (; part < geometry.partEnd; part++) {
+                        for (int r = 0; r < parts[part]; r++, ring++) {
+                            point = addRingToBatch(point, rings[ring]);
+                        }
+                        endFeature(FeatureBatch.TYPE_POLYGON, parts[part]);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            // Skip what an unknown or mismatched type left unused
+            point = geometry.pointEnd;
+            ring = geometry.ringEnd;
+            part = geometry.partEnd;
+        }
+        clearFeature();
+        if (batch.size() >= batchFeatures) {
+            sink.addFeatures(batch);
+            batch.clear();
+        }
+    }
+
+    private int addRingToBatch(int point, int size) {
+        for (int end = point + size; point < end; point++) {
+            batch.addCoordinate(points[2 * point], points[2 * point + 1]);
+        }
+        batch.addRing(size);
+        return point;
+    }
+
+    private void endFeature(int type, int featureRings) {
+        for (int i = 0; i < propertyKeys.size(); i++) {
+            Object value = propertyValues.get(i);
+            if (value instanceof String) {
+                batch.addProperty(propertyKeys.get(i), (String) value);
+            } else {
+                batch.addProperty(propertyKeys.get(i), (Double) value);
+            }
+        }
+        batch.endFeature(type, featureRings);
+    }
+
+    private void clearFeature() {
+        pointCount = 0;
+        ringCount = 0;
+        partCount = 0;
+        geometryCount = 0;
+        propertyKeys.clear();
+        propertyValues.clear();
+    }
+
+    private void addPoint(double longitude, double latitude) {
+        if (2 * pointCount + 2 > points.length) {
+            points = Arrays.copyOf(points, 2 * points.length);
+        }
+        points[2 * pointCount] = longitude;
+        points[2 * pointCount + 1] = latitude;
+        pointCount++;
+    }
+
+    private void addRing(int size) {
+        if (ringCount == rings.length) {
+            rings = Arrays.copyOf(rings, 2 * rings.length);
+        }
+        rings[ringCount++] = size;
+    }
+
+    private void addPart(int size) {
+        if (partCount == parts.length) {
+            parts = Arrays.copyOf(parts, 2 * parts.length);
+        }
+        parts[partCount++] = size;
+    }
+
+}
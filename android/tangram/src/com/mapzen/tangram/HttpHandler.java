@@ -1,12 +1,34 @@
 package com.mapzen.tangram;
 
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+
 import com.squareup.okhttp.Cache;
+import com.squareup.okhttp.CacheControl;
+import com.squareup.okhttp.Call;
 import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
 import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
 import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -15,9 +37,79 @@ import java.util.concurrent.TimeUnit;
  */
 public class HttpHandler {
 
+    /**
+     * Receives notice of cached resources that were found to have changed on the server
+     */
+    public interface ResourceChangeListener {
+        /**
+         * Called on a network thread once the new content of a resource is in the cache
+         * @param url URL of the resource
+         */
+        void onResourceChanged(String url);
+    }
+
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final long CONNECTION_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    // Revalidations are sent after every other request
+    private static final double REVALIDATION_PRIORITY = Double.MAX_VALUE;
+
+    // Fraction of the application memory class used by the default memory cache
+    private static final int MEMORY_CACHE_DIVISOR = 16;
+
     private OkHttpClient okClient;
     protected Request.Builder okRequestBuilder;
 
+    // Requests that have been started but not completed, keyed by URL
+    private final Map<String, PendingRequest> pendingRequests = new HashMap<>();
+
+    // Most urgent first
+    private static final Comparator<PendingRequest> REQUEST_ORDER = new Comparator<PendingRequest>() {
+        @Override
+        public int compare(PendingRequest a, PendingRequest b) {
+            int order = Double.compare(a.priority, b.priority);
+            if (order == 0) {
+                order = a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+            return order;
+        }
+    };
+
+    // Requests waiting for a free connection
+    private final PriorityQueue<PendingRequest> queuedRequests = new PriorityQueue<>(16, REQUEST_ORDER);
+
+    // Requests set aside while their host has no free connection, by host; each connection of
+    // a host that is released moves its most urgent request back to queuedRequests, so that a
+    // busy host is not polled again for every request that is promoted
+    private final Map<String, PriorityQueue<PendingRequest>> blockedRequests = new HashMap<>();
+
+    // Priority of the request that onRequest(String, Callback, double) passes on through
+    // onRequest(String, Callback) on the same thread
+    private final ThreadLocal<Double> requestPriority = new ThreadLocal<>();
+
+    // Number of requests handed to OkHttp, in total and per host
+    private final Map<String, Integer> runningRequestsPerHost = new HashMap<>();
+    private int runningRequests = 0;
+    private long requestSequence = 0;
+
+    // Enough for four requests to each of four subdomains of a tile server
+    private int maxRequests = 16;
+    private int maxRequestsPerHost = 4;
+
+    private boolean staleWhileRevalidate = false;
+    private final MemoryCache memoryCache = new MemoryCache(0);
+    private final NetworkStatsCollector stats = new NetworkStatsCollector();
+
+    // Retries of failed requests, with exponential backoff and jitter
+    private int maxRetries = 2;
+    private long retryDelayMillis = 500;
+    private long maxRetryDelayMillis = 8000;
+    private final Random random = new Random();
+    private ScheduledExecutorService retryExecutor;
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(0.5f, 30000);
+    private ResourceChangeListener resourceChangeListener;
+
     /**
      * Construct an {@code HttpHandler} with default options.
      */
@@ -26,26 +118,394 @@ public class HttpHandler {
         okClient = new OkHttpClient();
         okClient.setConnectTimeout(10, TimeUnit.SECONDS);
         okClient.setReadTimeout(30, TimeUnit.SECONDS);
+        updateClientLimits();
     }
 
     /**
-     * Begin an HTTP request
+     * Begin an HTTP request; requests are sent in order of priority as connections become
+     * available and if a request for the same URL is already in progress, the callback is
+     * attached to that request instead of starting a new one. Every request of the map passes
+     * through this method, so it can be overridden to change the URL or the request builder;
+     * a request started from {@link #onRequest(String, Callback, double)} keeps its priority
+     * when the override calls this method on the same thread, and has the default priority 0
+     * otherwise.
      * @param url URL for the requested resource
      * @param cb Callback for handling request result
      * @return true if request was successfully started
      */
     public boolean onRequest(String url, Callback cb) {
-        Request request = okRequestBuilder.tag(url).url(url).build();
-        okClient.newCall(request).enqueue(cb);
+        Double priority = requestPriority.get();
+        return startRequest(url, cb, priority != null ? priority : 0);
+    }
+
+    /**
+     * Begin an HTTP request with a priority, through {@link #onRequest(String, Callback)}
+     * @param url URL for the requested resource
+     * @param cb Callback for handling request result
+     * @param priority Priority of the request; lower values are sent first, map tiles use
+     * their distance from the view center
+     * @return true if request was successfully started
+     */
+    public boolean onRequest(String url, Callback cb, double priority) {
+        Double previous = requestPriority.get();
+        requestPriority.set(priority);
+        try {
+            return onRequest(url, cb);
+        } finally {
+            requestPriority.set(previous);
+        }
+    }
+
+    private boolean startRequest(String url, Callback cb, double priority) {
+        Request request;
+        synchronized (okRequestBuilder) {
+            // Requests may be started from several threads when a TileStore is used
+            request = okRequestBuilder.tag(url).url(url).build();
+        }
+        // Joining a request in progress and starting a new one happen under one lock, so that
+        // concurrent callers for the same URL share a single request
+        byte[] cached;
+        PendingRequest hit = null;
+        synchronized (pendingRequests) {
+            PendingRequest pending = pendingRequests.get(url);
+            if (pending != null) {
+                pending.callbacks.add(cb);
+                if (!pending.running && pending.revalidation) {
+                    // Serve the cached response rather than waiting for the revalidation,
+                    // which is queued again if the response is still stale
+                    pending.revalidation = false;
+                    pending.cacheFirst = staleWhileRevalidate;
+                }
+                if (!pending.running && !pending.fromMemory && priority < pending.priority) {
+                    if (pending.waitingForRetry) {
+                        pending.priority = priority;
+                    } else {
+                        // Re-insert to move the request forward in the queue
+                        unqueue(pending);
+                        pending.priority = priority;
+                        queuedRequests.add(pending);
+                    }
+                }
+                return true;
+            }
+            pending = new PendingRequest(request, priority, requestSequence++);
+            pending.cacheFirst = staleWhileRevalidate;
+            pending.callbacks.add(cb);
+            pendingRequests.put(url, pending);
+            cached = memoryCache.get(url);
+            if (cached == null) {
+                queuedRequests.add(pending);
+            } else {
+                // Registered like a network request, so that it is joined and cancelled alike
+                pending.fromMemory = true;
+                hit = pending;
+            }
+        }
+        if (hit != null) {
+            deliverFromMemory(hit, cached);
+            return true;
+        }
+        promoteRequests();
         return true;
     }
 
+    // Answer a request from the memory cache; the callbacks run on a network thread like for
+    // any other response, never on the thread that made the request
+    private void deliverFromMemory(final PendingRequest pending, final byte[] data) {
+        okClient.getDispatcher().getExecutorService().execute(new Runnable() {
+            @Override
+            public void run() {
+                pending.onMemoryHit(data);
+            }
+        });
+    }
+
+    // Queue a conditional request for a resource that was served stale from the cache, unless
+    // the resource is already being requested
+    private void revalidate(Request request) {
+        synchronized (pendingRequests) {
+            if (pendingRequests.containsKey(request.urlString())) {
+                return;
+            }
+            PendingRequest pending = new PendingRequest(request, REVALIDATION_PRIORITY, requestSequence++);
+            pending.revalidation = true;
+            pendingRequests.put(pending.url, pending);
+            queuedRequests.add(pending);
+        }
+        promoteRequests();
+    }
+
     /**
-     * Cancel an HTTP request
+     * Cancel an HTTP request; requests that are still waiting for a connection are dropped
+     * without being sent and the callbacks of the request are notified of the failure
+     * immediately, without waiting for the network call to stop
      * @param url URL of the request to be cancelled
      */
     public void onCancel(String url) {
-        okClient.cancel(url);
+        PendingRequest pending;
+        Call call;
+        synchronized (pendingRequests) {
+            // Later requests for this URL must not join the cancelled call
+            pending = pendingRequests.remove(url);
+            if (pending == null) {
+                return;
+            }
+            call = pending.call;
+            pending.canceled = true;
+            if (pending.probe) {
+                pending.probe = false;
+                circuitBreaker.onProbeCanceled(pending.host);
+            }
+            if (!pending.running) {
+                unqueue(pending);
+            }
+        }
+        if (call != null) {
+            // Looked up by URL above, so OkHttp doesn't have to search its calls by tag
+            call.cancel();
+        }
+        pending.onFailure(pending.request, new IOException("Canceled"));
+    }
+
+    /**
+     * Set the maximum number of requests that are executed concurrently; further requests
+     * wait in order of priority
+     * @param maxRequests Maximum number of concurrent requests
+     */
+    public void setMaxRequests(int maxRequests) {
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        }
+        synchronized (pendingRequests) {
+            this.maxRequests = maxRequests;
+            updateClientLimits();
+        }
+        promoteRequests();
+    }
+
+    /**
+     * Set the maximum number of requests that are executed concurrently for each host
+     * @param maxRequestsPerHost Maximum number of concurrent requests per host
+     */
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        if (maxRequestsPerHost < 1) {
+            throw new IllegalArgumentException("maxRequestsPerHost < 1: " + maxRequestsPerHost);
+        }
+        synchronized (pendingRequests) {
+            this.maxRequestsPerHost = maxRequestsPerHost;
+            updateClientLimits();
+            // Hosts may have free connections now
+            for (PriorityQueue<PendingRequest> blocked : blockedRequests.values()) {
+                queuedRequests.addAll(blocked);
+            }
+            blockedRequests.clear();
+        }
+        promoteRequests();
+    }
+
+    // Requests are limited before they reach OkHttp, so its dispatcher only needs room for calls
+    // that were cancelled but have not stopped yet, and its pool keeps one idle connection for
+    // each concurrent request, so that connections to every host are reused
+    private void updateClientLimits() {
+        Dispatcher dispatcher = okClient.getDispatcher();
+        dispatcher.setMaxRequests(2 * maxRequests);
+        dispatcher.setMaxRequestsPerHost(2 * maxRequestsPerHost);
+        okClient.setConnectionPool(new ConnectionPool(maxRequests, CONNECTION_KEEP_ALIVE_MILLIS));
+    }
+
+    /**
+     * Serve resources from the cache even when they are stale, and revalidate stale resources
+     * with the server in the background; resources that changed are reported to the
+     * {@link ResourceChangeListener}. This requires a cache set with {@link #setCache}.
+     * @param enabled Whether to serve stale resources from the cache
+     */
+    public void setStaleWhileRevalidate(boolean enabled) {
+        synchronized (pendingRequests) {
+            staleWhileRevalidate = enabled;
+        }
+    }
+
+    /**
+     * Keep recently loaded resources in memory, so that they can be served again without
+     * reading the disk cache; see {@link #getDefaultMemoryCacheSize(Context)} for a size that
+     * suits the device. The memory cache is off by default: while it is on, each response body
+     * is read into a byte array on a network thread before it is delivered, rather than being
+     * streamed into the buffer of the map.
+     * @param maxSize Maximum size of the cached data in bytes, or 0 to disable the memory cache
+     */
+    public void setMemoryCacheSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize < 0: " + maxSize);
+        }
+        memoryCache.setMaxSize(maxSize);
+    }
+
+    /**
+     * Get a memory cache size for this device, based on the memory available to each application
+     * @param context A context of the application
+     * @return A size in bytes
+     */
+    public static int getDefaultMemoryCacheSize(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVISOR;
+    }
+
+    /**
+     * Release cached memory when the system is low on memory; the map calls this from
+     * {@link ComponentCallbacks2#onTrimMemory(int)}
+     * @param level The trim level passed to {@code onTrimMemory}
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            memoryCache.trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            memoryCache.trimToSize(memoryCache.getMaxSize() / 2);
+        }
+    }
+
+    /**
+     * Get the number of requests that were answered from the memory cache
+     * @return The number of hits
+     */
+    public long getMemoryCacheHitCount() {
+        return memoryCache.getHitCount();
+    }
+
+    /**
+     * Get the number of requests that were not found in the memory cache, while it was enabled
+     * @return The number of misses
+     */
+    public long getMemoryCacheMissCount() {
+        return memoryCache.getMissCount();
+    }
+
+    /**
+     * Set how failed requests are retried; requests are retried after network errors and
+     * server errors (HTTP 5xx and 429), with a delay that doubles for each attempt and is
+     * randomized by up to 50% so that clients don't retry in lockstep
+     * @param maxRetries Maximum number of retries of a request, or 0 to disable retries
+     * @param initialDelayMillis Delay before the first retry, in milliseconds
+     * @param maxDelayMillis Maximum delay between attempts, in milliseconds
+     */
+    public void setRetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry policy: " + maxRetries + ", "
+                    + initialDelayMillis + ", " + maxDelayMillis);
+        }
+        synchronized (pendingRequests) {
+            this.maxRetries = maxRetries;
+            this.retryDelayMillis = initialDelayMillis;
+            this.maxRetryDelayMillis = maxDelayMillis;
+        }
+    }
+
+    /**
+     * Configure the circuit breaker that protects unhealthy hosts; when the share of failed
+     * requests among the latest 20 requests to a host reaches the given rate, requests to that
+     * host are answered from the cache only, and fail when the resource is not cached, until a
+     * probe request succeeds after the open time
+     * @param failureRate Share of failed requests that opens the circuit of a host, between 0
+     * and 1; a value above 1 disables the circuit breaker
+     * @param openMillis Time after which a probe request is sent to the host, in milliseconds
+     */
+    public void setCircuitBreaker(float failureRate, long openMillis) {
+        if (failureRate <= 0 || openMillis < 0) {
+            throw new IllegalArgumentException("Invalid circuit breaker: " + failureRate + ", " + openMillis);
+        }
+        circuitBreaker.configure(failureRate, openMillis);
+    }
+
+    /**
+     * Get a snapshot of the metrics of the requests made by this handler
+     * @return The current metrics
+     */
+    public NetworkStats getNetworkStats() {
+        return stats.snapshot();
+    }
+
+    /**
+     * Set a listener to receive the metrics of each request as it finishes
+     * @param listener The listener, or null
+     */
+    public void setNetworkStatsListener(NetworkStats.Listener listener) {
+        stats.setListener(listener);
+    }
+
+    /**
+     * Get the moving average of the throughput of recent network responses, which is updated
+     * with each response large enough to measure it
+     * @return The estimate in bytes per second, or 0 if there is no measurement yet
+     */
+    public long getEstimatedThroughput() {
+        return stats.getThroughput();
+    }
+
+    void setThroughputListener(NetworkStatsCollector.ThroughputListener listener) {
+        stats.setThroughputListener(listener);
+    }
+
+    /**
+     * Set the listener for resources that changed on the server after they were served stale
+     * from the cache
+     * @param listener The listener, or null
+     */
+    public void setResourceChangeListener(ResourceChangeListener listener) {
+        resourceChangeListener = listener;
+    }
+
+    // Hand the most urgent queued requests to OkHttp while connections are available
+    private void promoteRequests() {
+        List<PendingRequest> ready = new ArrayList<>();
+        synchronized (pendingRequests) {
+            while (runningRequests < maxRequests && !queuedRequests.isEmpty()) {
+                PendingRequest pending = queuedRequests.poll();
+                Integer hostRequests = runningRequestsPerHost.get(pending.host);
+                int count = hostRequests == null ? 0 : hostRequests;
+                if (count >= maxRequestsPerHost) {
+                    PriorityQueue<PendingRequest> blocked = blockedRequests.get(pending.host);
+                    if (blocked == null) {
+                        blocked = new PriorityQueue<>(16, REQUEST_ORDER);
+                        blockedRequests.put(pending.host, blocked);
+                    }
+                    blocked.add(pending);
+                    continue;
+                }
+                runningRequestsPerHost.put(pending.host, count + 1);
+                runningRequests++;
+                pending.running = true;
+                pending.startedAt = System.nanoTime();
+
+                // Requests to an unhealthy host are answered from the cache only, except for
+                // one probe once the circuit of the host may close again
+                boolean open = circuitBreaker.isOpen(pending.host);
+                pending.probe = open && circuitBreaker.allowRequest(pending.host);
+                pending.cacheOnly = pending.fallBackToCache || (open && !pending.probe);
+
+                if (pending.cacheFirst || pending.cacheOnly) {
+                    // Answered from the cache without touching the network, or with a 504
+                    pending.call = okClient.newCall(pending.request.newBuilder()
+                            .cacheControl(CacheControl.FORCE_CACHE).build());
+                } else {
+                    pending.call = okClient.newCall(pending.request);
+                }
+                ready.add(pending);
+            }
+        }
+        for (PendingRequest pending : ready) {
+            pending.call.enqueue(pending);
+        }
+    }
+
+    // Remove a request from the queue that it waits in; must hold the pendingRequests lock
+    private void unqueue(PendingRequest pending) {
+        if (queuedRequests.remove(pending)) {
+            return;
+        }
+        PriorityQueue<PendingRequest> blocked = blockedRequests.get(pending.host);
+        if (blocked != null && blocked.remove(pending) && blocked.isEmpty()) {
+            blockedRequests.remove(pending.host);
+        }
     }
 
     /**
@@ -61,4 +521,327 @@ public class HttpHandler {
         return true;
     }
 
+    /**
+     * A single network call shared by every callback that requested the same URL while it
+     * was in progress.
+     */
+    private class PendingRequest implements Callback {
+
+        final Request request;
+        final String url;
+        final String host;
+        final long sequence;
+        final List<Callback> callbacks = new ArrayList<>(1);
+        double priority;
+        boolean running = false;
+        boolean finished = false;
+        boolean canceled = false;
+        Call call;
+
+        // Number of retries so far; between attempts the request is neither running nor queued
+        int attempts = 0;
+        boolean waitingForRetry = false;
+
+        // Answer from the cache only: the host is unhealthy or the network attempts failed
+        boolean cacheOnly = false;
+        boolean fallBackToCache = false;
+
+        // The request tests whether the open circuit of its host can close
+        boolean probe = false;
+
+        // Timestamps for NetworkStats, from System.nanoTime()
+        final long queuedAt = System.nanoTime();
+        long startedAt = 0;
+        long respondedAt = 0;
+
+        // Try the cache first and only go to the network on a cache miss
+        boolean cacheFirst = false;
+
+        // Conditional request for a stale cached resource
+        boolean revalidation = false;
+
+        // Answered from the memory cache; neither queued nor sent
+        boolean fromMemory = false;
+
+        PendingRequest(Request request, double priority, long sequence) {
+            this.request = request;
+            this.url = request.urlString();
+            this.host = request.httpUrl().host();
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        // Stop accepting callbacks for this request and return the ones waiting on it; a
+        // cancelled request is finished twice, once by onCancel and once by OkHttp, and only
+        // the first returns the callbacks, the second returns null
+        List<Callback> finish() {
+            synchronized (pendingRequests) {
+                if (finished) {
+                    return null;
+                }
+                finished = true;
+                if (pendingRequests.get(url) == this) {
+                    pendingRequests.remove(url);
+                }
+                releaseConnection();
+            }
+            promoteRequests();
+            return callbacks;
+        }
+
+        // Give back the connection slot of a running request; must hold the pendingRequests lock
+        private void releaseConnection() {
+            if (running) {
+                running = false;
+                runningRequests--;
+                int count = runningRequestsPerHost.get(host) - 1;
+                if (count > 0) {
+                    runningRequestsPerHost.put(host, count);
+                } else {
+                    runningRequestsPerHost.remove(host);
+                }
+                // The most urgent request set aside for this host can be sent again
+                PriorityQueue<PendingRequest> blocked = blockedRequests.get(host);
+                if (blocked != null) {
+                    queuedRequests.add(blocked.poll());
+                    if (blocked.isEmpty()) {
+                        blockedRequests.remove(host);
+                    }
+                }
+            }
+        }
+
+        // Send the request again after a failed network attempt, either after a backoff delay or,
+        // once retries are exhausted or the host is unhealthy, right away to the cache only;
+        // returns false if the failure should be delivered
+        private boolean retry() {
+            long delay;
+            synchronized (pendingRequests) {
+                if (finished || canceled || cacheOnly) {
+                    return false;
+                }
+                if (attempts < maxRetries && !circuitBreaker.isOpen(host)) {
+                    attempts++;
+                    long backoff = Math.min(maxRetryDelayMillis, retryDelayMillis << (attempts - 1));
+                    delay = backoff / 2 + (long) (random.nextDouble() * backoff);
+                } else if (okClient.getCache() != null && !fallBackToCache) {
+                    fallBackToCache = true;
+                    delay = 0;
+                } else {
+                    return false;
+                }
+                releaseConnection();
+                call = null;
+                if (delay == 0) {
+                    queuedRequests.add(this);
+                } else {
+                    waitingForRetry = true;
+                    if (retryExecutor == null) {
+                        retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "HttpHandler retry");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                    }
+                    retryExecutor.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            synchronized (pendingRequests) {
+                                if (finished) {
+                                    return;
+                                }
+                                waitingForRetry = false;
+                                queuedRequests.add(PendingRequest.this);
+                            }
+                            promoteRequests();
+                        }
+                    }, delay, TimeUnit.MILLISECONDS);
+                }
+            }
+            promoteRequests();
+            return true;
+        }
+
+        @Override
+        public void onFailure(Request request, IOException e) {
+            if (!canceled && !cacheOnly) {
+                circuitBreaker.onFailure(host);
+                probe = false;
+                if (retry()) {
+                    return;
+                }
+            }
+            List<Callback> waiting = finish();
+            if (waiting == null) {
+                return;
+            }
+            for (Callback cb : waiting) {
+                cb.onFailure(request, e);
+            }
+            stats.record(url, host, canceled ? NetworkStats.RESULT_CANCELED : NetworkStats.RESULT_FAILED,
+                    queuedAt, startedAt, 0, System.nanoTime(), -1);
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+            respondedAt = System.nanoTime();
+            boolean stale = false;
+            if (cacheOnly) {
+                // Deliver the cached response, or the 504 for a resource that is not cached
+                cacheFirst = false;
+            } else if (cacheFirst) {
+                cacheFirst = false;
+                if (response.cacheResponse() == null) {
+                    // Not cached; keep the connection slot and send the request to the network
+                    response.body().close();
+                    Call networkCall;
+                    synchronized (pendingRequests) {
+                        if (finished) {
+                            return;
+                        }
+                        networkCall = call = okClient.newCall(request);
+                    }
+                    networkCall.enqueue(this);
+                    return;
+                }
+                String warning = response.header("Warning");
+                stale = warning != null && warning.startsWith("110");
+            }
+
+            Response networkResponse = response.networkResponse();
+            if (networkResponse != null) {
+                int code = networkResponse.code();
+                if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS) {
+                    circuitBreaker.onFailure(host);
+                    if (retry()) {
+                        response.body().close();
+                        return;
+                    }
+                } else {
+                    circuitBreaker.onSuccess(host);
+                }
+            } else if (probe) {
+                // Answered by the cache, so the probe tells nothing about the host
+                circuitBreaker.onProbeCanceled(host);
+            }
+            probe = false;
+
+            List<Callback> waiting = finish();
+            if (waiting == null) {
+                response.body().close();
+                return;
+            }
+
+            if (stale) {
+                // Deliver the cached response now and ask the server whether it changed
+                revalidate(request);
+            }
+
+            if (revalidation) {
+                boolean changed = response.isSuccessful() && networkResponse != null
+                        && networkResponse.code() != HttpURLConnection.HTTP_NOT_MODIFIED;
+                // Read a changed body through so that the new content is written to the cache
+                long bytes = -1;
+                try {
+                    bytes = deliver(response, waiting, changed);
+                } finally {
+                    record(response, bytes);
+                }
+                ResourceChangeListener listener = resourceChangeListener;
+                if (changed && listener != null) {
+                    listener.onResourceChanged(url);
+                }
+                return;
+            }
+
+            long bytes = -1;
+            try {
+                bytes = deliver(response, waiting, false);
+            } finally {
+                record(response, bytes);
+            }
+        }
+
+        // Deliver a response from the memory cache, unless the request was cancelled
+        void onMemoryHit(byte[] data) {
+            List<Callback> waiting = finish();
+            if (waiting == null) {
+                return;
+            }
+            for (Callback cb : waiting) {
+                Response response = new Response.Builder()
+                        .request(request)
+                        .protocol(Protocol.HTTP_1_1)
+                        .code(HttpURLConnection.HTTP_OK)
+                        .message("OK")
+                        .body(ResponseBody.create(null, data))
+                        .build();
+                try {
+                    cb.onResponse(response);
+                } catch (IOException e) {
+                    // The callback has handled the failure, as for a network response
+                }
+            }
+            stats.record(url, host, NetworkStats.RESULT_MEMORY_CACHE, queuedAt, queuedAt, 0,
+                    System.nanoTime(), data.length);
+        }
+
+        private void record(Response response, long bytes) {
+            Response networkResponse = response.networkResponse();
+            int result;
+            if (!response.isSuccessful()) {
+                result = NetworkStats.RESULT_FAILED;
+            } else if (networkResponse == null) {
+                result = NetworkStats.RESULT_DISK_CACHE;
+            } else if (networkResponse.code() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                result = NetworkStats.RESULT_REVALIDATED;
+            } else {
+                result = NetworkStats.RESULT_NETWORK;
+            }
+            stats.record(url, host, result, queuedAt, startedAt, respondedAt, System.nanoTime(), bytes);
+        }
+
+        // Hand the response to the callbacks and return the size of its body, or -1 if unknown
+        private long deliver(Response response, List<Callback> waiting, boolean readBody) throws IOException {
+            boolean keepInMemory = memoryCache.isEnabled() && response.isSuccessful();
+            if (!keepInMemory) {
+                if (waiting.isEmpty() && !readBody) {
+                    response.body().close();
+                    return -1;
+                }
+                if (waiting.size() == 1) {
+                    long length = response.body().contentLength();
+                    waiting.get(0).onResponse(response);
+                    return length;
+                }
+            }
+
+            // A response body can only be consumed once, so read it here and give each
+            // callback its own response backed by the same bytes.
+            ResponseBody body = response.body();
+            byte[] bytes = body.bytes();
+            if (keepInMemory) {
+                memoryCache.put(url, bytes);
+            }
+            IOException error = null;
+            for (Callback cb : waiting) {
+                Response copy = response.newBuilder()
+                        .body(ResponseBody.create(body.contentType(), bytes))
+                        .build();
+                try {
+                    cb.onResponse(copy);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return bytes.length;
+        }
+    }
+
 }
@@ -31,6 +31,25 @@ public class LngLat {
         return this;
     }
 
+    /**
+     * Convert degrees to the fixed-point coordinates accepted by the E7 methods of
+     * {@link MapData}, in units of 1e-7 degrees; this is about 1 cm at the equator
+     * @param degrees A longitude or latitude
+     * @return The coordinate in units of 1e-7 degrees, rounded
+     */
+    public static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    /**
+     * Convert a fixed-point coordinate in units of 1e-7 degrees to degrees
+     * @param e7 The coordinate in units of 1e-7 degrees
+     * @return The longitude or latitude
+     */
+    public static double fromE7(int e7) {
+        return e7 * 1e-7;
+    }
+
     public boolean equals(Object other) {
         if (other instanceof LngLat) {
             return longitude == ((LngLat) other).longitude
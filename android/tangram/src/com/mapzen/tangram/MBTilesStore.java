@@ -0,0 +1,193 @@
+package com.mapzen.tangram;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@code MBTilesStore} is a {@link TileStore} that reads tiles from an
+ * <a href="https://github.com/mapbox/mbtiles-spec">MBTiles</a> file.
+ *
+ * The zoom, column and row of a tile are taken from its URL; by default the URL must end in
+ * {@code /z/x/y.ext}, which matches the common {@code {z}/{x}/{y}} URL templates. Reads use a
+ * pool of read-only connections so that tiles can be loaded concurrently.
+ */
+public class MBTilesStore implements TileStore {
+
+    private static final String QUERY =
+            "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?";
+
+    private static final Pattern DEFAULT_URL_PATTERN =
+            Pattern.compile("/(\\d+)/(\\d+)/(\\d+)(?:@\\d+x)?\\.\\w+(?:\\?.*)?$");
+
+    /**
+     * A connection to an MBTiles file, used by one thread at a time
+     */
+    interface Connection {
+        // The data of the tile at zoom @z, column @x and row @row (TMS scheme), or null
+        byte[] read(int z, int x, int row) throws IOException;
+
+        void close();
+    }
+
+    private final BlockingQueue<Connection> connections;
+    private final Connection[] allConnections;
+    private Pattern urlPattern = DEFAULT_URL_PATTERN;
+
+    /**
+     * Open an MBTiles file with two connections
+     * @param file The MBTiles file
+     */
+    public MBTilesStore(File file) {
+        this(file, 2);
+    }
+
+    /**
+     * Open an MBTiles file
+     * @param file The MBTiles file
+     * @param connectionCount Number of read-only connections, i.e. the number of tiles that can
+     * be read concurrently
+     */
+    public MBTilesStore(File file, int connectionCount) {
+        this(open(file, connectionCount));
+    }
+
+    /**
+     * For package-internal use only; read tiles through the given connections
+     * @param connections Connections to one MBTiles file, which the store closes
+     */
+    MBTilesStore(Connection[] connections) {
+        this.connections = new ArrayBlockingQueue<>(connections.length);
+        this.allConnections = connections;
+        for (Connection connection : connections) {
+            this.connections.add(connection);
+        }
+    }
+
+    private static Connection[] open(File file, int connectionCount) {
+        if (connectionCount < 1) {
+            throw new IllegalArgumentException("connectionCount < 1: " + connectionCount);
+        }
+        Connection[] connections = new Connection[connectionCount];
+        for (int i = 0; i < connectionCount; i++) {
+            connections[i] = new SQLiteConnection(file);
+        }
+        return connections;
+    }
+
+    /**
+     * Set the pattern used to find the tile coordinates in a URL
+     * @param pattern A pattern with three groups matching the zoom, x and y coordinates (in the
+     * XYZ scheme used by tile URLs) of a tile, in that order
+     */
+    public void setUrlPattern(Pattern pattern) {
+        urlPattern = pattern;
+    }
+
+    @Override
+    public ByteBuffer read(String url) throws IOException {
+        Matcher matcher = urlPattern.matcher(url);
+        if (!matcher.find()) {
+            return null;
+        }
+        int z = Integer.parseInt(matcher.group(1));
+        int x = Integer.parseInt(matcher.group(2));
+        int y = Integer.parseInt(matcher.group(3));
+
+        // MBTiles rows count from the bottom (TMS scheme)
+        int row = (1 << z) - 1 - y;
+
+        byte[] data;
+        Connection connection = acquire();
+        try {
+            data = connection.read(z, x, row);
+        } finally {
+            connections.add(connection);
+        }
+
+        if (data == null) {
+            return null;
+        }
+        if (isGzipped(data)) {
+            data = gunzip(data);
+        }
+        return ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Close all connections to the MBTiles file; the store cannot be used afterwards
+     */
+    public void close() {
+        for (Connection connection : allConnections) {
+            connection.close();
+        }
+    }
+
+    private Connection acquire() throws IOException {
+        try {
+            return connections.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection");
+        }
+    }
+
+    private static class SQLiteConnection implements Connection {
+
+        private final SQLiteDatabase db;
+
+        SQLiteConnection(File file) {
+            db = SQLiteDatabase.openDatabase(file.getPath(), null,
+                    SQLiteDatabase.OPEN_READONLY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+        }
+
+        @Override
+        public byte[] read(int z, int x, int row) {
+            // The query string is constant, so the connection compiles it once and reuses the
+            // statement from its cache.
+            String[] args = { String.valueOf(z), String.valueOf(x), String.valueOf(row) };
+            Cursor cursor = db.rawQuery(QUERY, args);
+            try {
+                return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            db.close();
+        }
+    }
+
+    // Vector tiles in MBTiles files are usually stored gzip-compressed
+    private static boolean isGzipped(byte[] data) {
+        return data.length > 2 && data[0] == (byte) 0x1f && data[1] == (byte) 0x8b;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 4);
+        byte[] chunk = new byte[8192];
+        int n;
+        try {
+            while ((n = in.read(chunk)) != -1) {
+                out.write(chunk, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -1,27 +1,38 @@
 package com.mapzen.tangram;
 
+import android.content.ComponentCallbacks2;
+import android.content.Context;
 import android.content.res.AssetManager;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.PointF;
 import android.opengl.GLSurfaceView;
 import android.opengl.GLSurfaceView.Renderer;
 import android.util.DisplayMetrics;
+import android.util.Log;
 
 import com.mapzen.tangram.TouchInput.Gestures;
 import com.squareup.okhttp.Callback;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
-import okio.BufferedSource;
-
 /**
  * {@code MapController} is the main class for interacting with a Tangram map.
  */
@@ -48,6 +59,10 @@ public class MapController implements Renderer {
 
     protected static EaseType DEFAULT_EASE_TYPE = EaseType.CUBIC;
 
+    private static final int TILE_STORE_THREADS = 2;
+    private static final int INGEST_THREADS = 2;
+    private static final int DEFAULT_DELIVERY_QUEUE_DEPTH = 8;
+
     /**
      * Options for enabling debug rendering features
      */
@@ -142,8 +157,13 @@ public class MapController implements Renderer {
         view.setRenderer(this);
         view.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
 
-        // Set a default HTTPHandler
-        httpHandler = new HttpHandler();
+        // Set a default HTTPHandler; its memory cache is off, so that tile bodies are read
+        // straight into pooled native buffers
+        setHttpHandler(new HttpHandler());
+
+        // Let the HttpHandler release memory when the system asks for it
+        applicationContext = view.getContext().getApplicationContext();
+        applicationContext.registerComponentCallbacks(componentCallbacks);
 
         touchInput = new TouchInput(view.getContext());
         view.setOnTouchListener(touchInput);
@@ -194,11 +214,17 @@ public class MapController implements Renderer {
                     it.remove();
                     mapData.remove();
                 }
+                deliveryQueue.shutdown();
+                ingestExecutor.shutdown();
                 nativeDispose(mapPointer);
                 mapPointer = 0;
                 clientDataSources.clear();
+                if (tileStoreExecutor != null) {
+                    tileStoreExecutor.shutdown();
+                }
             }
         });
+        applicationContext.unregisterComponentCallbacks(componentCallbacks);
     }
 
     static MapController getInstance(GLSurfaceView view) {
@@ -218,11 +244,175 @@ public class MapController implements Renderer {
 
     /**
      * Set the {@link HttpHandler} for retrieving remote map resources; a default-constructed
-     * HttpHandler is suitable for most cases, but methods can be extended to modify resource URLs
+     * HttpHandler is suitable for most cases, but methods can be extended to modify resource URLs.
+     * The map sets itself as the {@link HttpHandler.ResourceChangeListener} of the handler, so
+     * that tiles revalidated with {@link HttpHandler#setStaleWhileRevalidate} are reloaded.
      * @param handler the HttpHandler to use
      */
     public void setHttpHandler(HttpHandler handler) {
         this.httpHandler = handler;
+        if (handler != null) {
+            handler.setResourceChangeListener(resourceChangeListener);
+            handler.setThroughputListener(tileQualityController);
+        }
+    }
+
+    /**
+     * Get a snapshot of the metrics of map resource requests made by the current
+     * {@link HttpHandler}
+     * @return The current metrics
+     */
+    public NetworkStats getNetworkStats() {
+        return httpHandler.getNetworkStats();
+    }
+
+    /**
+     * Set a listener to receive the metrics of each map resource request made by the current
+     * {@link HttpHandler} as it finishes; the listener is called on network threads
+     * @param listener The listener, or null
+     */
+    public void setNetworkStatsListener(NetworkStats.Listener listener) {
+        httpHandler.setNetworkStatsListener(listener);
+    }
+
+    /**
+     * Enable or disable adaptive tile quality; when enabled, tiles are requested at a lower zoom
+     * and overzoomed while the throughput measured by the {@link HttpHandler} is low, and at
+     * full detail again once it recovers. Raster sources follow the zoom of the sources that
+     * use them. Disabling restores full detail.
+     * @param enabled Whether tile quality adapts to the throughput
+     */
+    public void setAdaptiveTileQuality(boolean enabled) {
+        tileQualityController.setEnabled(enabled);
+    }
+
+    /**
+     * Set the thresholds of adaptive tile quality; see {@link #setAdaptiveTileQuality(boolean)}
+     * @param lowBytesPerSecond Throughput below which the tile zoom is lowered by one level
+     * @param highBytesPerSecond Throughput above which the tile zoom is raised by one level
+     * @param maxZoomReduction Maximum number of zoom levels by which tiles are lowered
+     */
+    public void setAdaptiveTileQualityThresholds(long lowBytesPerSecond, long highBytesPerSecond,
+                                                 int maxZoomReduction) {
+        if (lowBytesPerSecond > highBytesPerSecond) {
+            throw new IllegalArgumentException("lowBytesPerSecond > highBytesPerSecond");
+        }
+        if (maxZoomReduction < 0) {
+            throw new IllegalArgumentException("maxZoomReduction < 0: " + maxZoomReduction);
+        }
+        tileQualityController.configure(lowBytesPerSecond, highBytesPerSecond, maxZoomReduction);
+    }
+
+    /**
+     * Get the number of zoom levels by which adaptive tile quality currently lowers tiles
+     * @return The current reduction, 0 for full detail
+     */
+    public int getTileZoomReduction() {
+        return tileQualityController.getReduction();
+    }
+
+    /**
+     * Set the maximum number of downloaded map resources that may wait to be passed to the map;
+     * when this many are waiting, network threads stop reading responses until the map catches
+     * up, which bounds the memory used for downloads during fast map movements. The bound
+     * covers bodies streamed from the network; a response shared by several requests for the
+     * same URL, or one kept in the memory cache of the {@link HttpHandler}, is read into memory
+     * by the handler before it reaches this queue.
+     * @param maxDepth Maximum number of waiting resources, at least 1
+     */
+    public void setDeliveryQueueDepth(int maxDepth) {
+        if (maxDepth < 1) {
+            throw new IllegalArgumentException("maxDepth < 1: " + maxDepth);
+        }
+        deliveryQueue.setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Get the number of downloaded map resources waiting to be passed to the map
+     * @return The current number of waiting resources
+     */
+    public int getDeliveryQueueDepth() {
+        return deliveryQueue.getDepth();
+    }
+
+    /**
+     * Get the highest number of downloaded map resources that have waited to be passed to the
+     * map at the same time
+     * @return The peak number of waiting resources
+     */
+    public int getPeakDeliveryQueueDepth() {
+        return deliveryQueue.getPeakDepth();
+    }
+
+    /**
+     * Get the number of downloaded map resources that were discarded because their request was
+     * cancelled while they waited to be passed to the map
+     * @return The number of dropped resources
+     */
+    public long getDroppedDeliveryCount() {
+        return deliveryQueue.getDroppedCount();
+    }
+
+    /**
+     * Get the number of times a network thread waited because the delivery queue was full
+     * @return The number of waits
+     */
+    public long getDeliveryWaitCount() {
+        return deliveryQueue.getWaitCount();
+    }
+
+    /**
+     * Set a {@link TileStore} to be queried for map resources before they are requested from
+     * the network; resources that are not found in the store are requested with the
+     * {@link HttpHandler}
+     * @param store the TileStore to use, or null to load all resources from the network
+     */
+    public void setTileStore(TileStore store) {
+        synchronized (this) {
+            if (store != null && tileStoreExecutor == null) {
+                tileStoreExecutor = Executors.newFixedThreadPool(TILE_STORE_THREADS);
+            }
+        }
+        this.tileStore = store;
+    }
+
+    /**
+     * Download the tiles that cover a region from the tiled data sources of the current scene,
+     * so that they can be loaded from the cache of the {@link HttpHandler} later; a cache must
+     * be set with {@link HttpHandler#setCache} for the tiles to be kept
+     * @param southWest South-west corner of the region
+     * @param northEast North-east corner of the region
+     * @param minZoom Lowest zoom level to download
+     * @param maxZoom Highest zoom level to download
+     * @param listener Listener for progress, or null
+     * @return The started prefetch, which can be cancelled
+     */
+    public RegionPrefetch prefetchRegion(LngLat southWest, LngLat northEast, int minZoom, int maxZoom,
+                                         RegionPrefetch.Listener listener) {
+        return prefetchRegion(southWest, northEast, minZoom, maxZoom, null, listener);
+    }
+
+    /**
+     * Download the tiles that cover a region from the tiled data sources of the current scene,
+     * saving progress in a checkpoint file; if the file holds the progress of an earlier
+     * prefetch of the same region, tiles that were already downloaded are skipped. The file is
+     * deleted when the prefetch completes.
+     * @param southWest South-west corner of the region
+     * @param northEast North-east corner of the region
+     * @param minZoom Lowest zoom level to download
+     * @param maxZoom Highest zoom level to download
+     * @param checkpoint File in which progress is saved, or null
+     * @param listener Listener for progress, or null
+     * @return The started prefetch, which can be cancelled
+     */
+    public RegionPrefetch prefetchRegion(LngLat southWest, LngLat northEast, int minZoom, int maxZoom,
+                                         File checkpoint, RegionPrefetch.Listener listener) {
+        checkPointer(mapPointer);
+        String[] sourceUrls = nativeGetTileSourceUrls(mapPointer);
+        RegionPrefetch prefetch = new RegionPrefetch(httpHandler, sourceUrls, southWest, northEast,
+                minZoom, maxZoom, RegionPrefetch.DEFAULT_MAX_REQUESTS, checkpoint, listener);
+        prefetch.start();
+        return prefetch;
     }
 
     /**
@@ -748,10 +938,173 @@ public class MapController implements Renderer {
         nativeClearDataSource(mapPointer, sourcePtr);
     }
 
-    void addFeature(long sourcePtr, double[] coordinates, int[] rings, String[] properties) {
+    Executor getIngestExecutor() {
+        return ingestExecutor;
+    }
+
+    /**
+     * Report the end of an asynchronous addition to a {@link MapData}: errors are reported on the
+     * next frame, and successful additions once a frame completes the view with the new features
+     */
+    void onFeaturesAdded(final MapData data, final MapData.AddCallback callback, final Exception error) {
+        if (callback != null) {
+            Runnable result = new Runnable() {
+                @Override
+                public void run() {
+                    callback.onFeaturesAdded(data, error);
+                }
+            };
+            if (error != null) {
+                queueEvent(result);
+            } else {
+                synchronized (pendingAddCallbacks) {
+                    pendingAddCallbacks.add(result);
+                }
+            }
+        }
+        requestRender();
+    }
+
+    long createStagingSource(String name) {
+        return nativeCreateStagingSource(name);
+    }
+
+    void buildIndex(long sourcePtr) {
+        checkPointer(sourcePtr);
+        nativeBuildIndex(sourcePtr);
+    }
+
+    void swapSourceData(long sourcePtr, long stagingPtr) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        checkPointer(stagingPtr);
+        nativeSwapSourceData(mapPointer, sourcePtr, stagingPtr);
+    }
+
+    void disposeStagingSource(long stagingPtr) {
+        checkPointer(stagingPtr);
+        nativeDisposeStagingSource(stagingPtr);
+    }
+
+    void addFeature(long sourcePtr, double[] coordinates, int offset, int length, int[] rings, String[] properties) {
         checkPointer(mapPointer);
         checkPointer(sourcePtr);
-        nativeAddFeature(mapPointer, sourcePtr, coordinates, rings, properties);
+        nativeAddFeature(mapPointer, sourcePtr, coordinates, offset, length, rings, properties);
+    }
+
+    void updateFeature(long sourcePtr, long id, double[] coordinates, int[] rings, String[] properties) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        checkFeatureId(id);
+        nativeUpdateFeature(mapPointer, sourcePtr, id, coordinates, 0, coordinates.length, rings, properties);
+    }
+
+    void addFeatureE7(long sourcePtr, int[] coordinatesE7, int offset, int length, int[] rings, String[] properties) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        nativeAddFeatureE7(mapPointer, sourcePtr, coordinatesE7, offset, length, rings, properties);
+    }
+
+    void updateFeatureE7(long sourcePtr, long id, int[] coordinatesE7, int[] rings, String[] properties) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        checkFeatureId(id);
+        nativeUpdateFeatureE7(mapPointer, sourcePtr, id, coordinatesE7, 0, coordinatesE7.length, rings, properties);
+    }
+
+    boolean removeFeature(long sourcePtr, long id) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        checkFeatureId(id);
+        return nativeRemoveFeature(mapPointer, sourcePtr, id);
+    }
+
+    void addTypedFeature(long sourcePtr, double[] coordinates, int offset, int length, int[] rings, PropertyValues values) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        if (values == null) {
+            nativeAddTypedFeature(mapPointer, sourcePtr, coordinates, offset, length, rings, null, null, null);
+        } else {
+            nativeAddTypedFeature(mapPointer, sourcePtr, coordinates, offset, length, rings,
+                    values.types, values.numbers, values.strings);
+        }
+    }
+
+    void setPropertySchema(long sourcePtr, PropertySchema schema) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        nativeSetPropertySchema(mapPointer, sourcePtr, schema.keys);
+    }
+
+    void setClusterOptions(long sourcePtr, ClusterOptions options) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        if (options == null) {
+            nativeDisableClustering(mapPointer, sourcePtr);
+            return;
+        }
+        int count = options.aggregateReduce.size();
+        int[] reduce = new int[count];
+        for (int i = 0; i < count; i++) {
+            reduce[i] = options.aggregateReduce.get(i).ordinal();
+        }
+        nativeSetClusterOptions(mapPointer, sourcePtr, options.radius, options.minZoom, options.maxZoom,
+                options.minPoints, options.aggregateProperties.toArray(new String[count]),
+                options.aggregateSources.toArray(new String[count]), reduce);
+    }
+
+    int getClusterExpansionZoom(long sourcePtr, long clusterId) {
+        checkPointer(sourcePtr);
+        return nativeGetClusterExpansionZoom(sourcePtr, clusterId);
+    }
+
+    Object[] getClusterFeatures(long sourcePtr, long clusterId, boolean leaves, int limit, int offset) {
+        checkPointer(sourcePtr);
+        return nativeGetClusterFeatures(sourcePtr, clusterId, leaves, limit, offset);
+    }
+
+    static void checkCoordinates(double[] coordinates, int offset, int length) {
+        checkCoordinates(coordinates.length, offset, length);
+    }
+
+    static void checkCoordinates(int[] coordinatesE7, int offset, int length) {
+        checkCoordinates(coordinatesE7.length, offset, length);
+    }
+
+    private static void checkCoordinates(int size, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > size) {
+            throw new ArrayIndexOutOfBoundsException("offset " + offset + " and length " + length
+                    + " out of bounds for " + size + " coordinates");
+        }
+        if (length % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of coordinates: " + length);
+        }
+    }
+
+    static int countPoints(int[] rings) {
+        int points = 0;
+        for (int ring : rings) {
+            if (ring < 0) {
+                throw new IllegalArgumentException("Negative ring size: " + ring);
+            }
+            points += ring;
+        }
+        return points;
+    }
+
+    void addFeatures(long sourcePtr, FeatureBatch batch) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        nativeAddFeatures(mapPointer, sourcePtr, batch.coordinates, batch.coordinatesE7, batch.rings, batch.features,
+                batch.featureCount, batch.propertyKeys, batch.propertyValues, batch.propertyNumbers,
+                batch.getPropertyKeyNames(), batch.schema != null ? batch.schema.keys : null,
+                batch.valueTypes, batch.valueNumbers, batch.valueStrings);
+    }
+
+    boolean addFeatureBuffer(long sourcePtr, ByteBuffer buffer, int offset, int length) {
+        checkPointer(mapPointer);
+        checkPointer(sourcePtr);
+        return nativeAddFeatureBuffer(mapPointer, sourcePtr, buffer, offset, length);
     }
 
     void addGeoJson(long sourcePtr, String geoJson) {
@@ -772,6 +1125,12 @@ public class MapController implements Renderer {
         }
     }
 
+    void checkFeatureId(long id) {
+        if (id <= 0) {
+            throw new IllegalArgumentException("Feature ids must be positive, got " + id);
+        }
+    }
+
     boolean setMarkerStyling(long markerId, String styleStr) {
         checkPointer(mapPointer);
         checkId(markerId);
@@ -796,16 +1155,16 @@ public class MapController implements Renderer {
         return nativeMarkerSetPointEased(mapPointer, markerId, lng, lat, duration, ease.ordinal());
     }
 
-    boolean setMarkerPolyline(long markerId, double[] coordinates, int count) {
+    boolean setMarkerPolyline(long markerId, double[] coordinates, int offset, int count) {
         checkPointer(mapPointer);
         checkId(markerId);
-        return nativeMarkerSetPolyline(mapPointer, markerId, coordinates, count);
+        return nativeMarkerSetPolyline(mapPointer, markerId, coordinates, offset, count);
     }
 
-    boolean setMarkerPolygon(long markerId, double[] coordinates, int[] rings, int count) {
+    boolean setMarkerPolygon(long markerId, double[] coordinates, int offset, int[] rings, int count) {
         checkPointer(mapPointer);
         checkId(markerId);
-        return nativeMarkerSetPolygon(mapPointer, markerId, coordinates, rings, count);
+        return nativeMarkerSetPolygon(mapPointer, markerId, coordinates, offset, rings, count);
     }
 
     boolean setMarkerVisible(long markerId, boolean visible) {
@@ -867,8 +1226,8 @@ public class MapController implements Renderer {
     private synchronized native boolean nativeMarkerSetBitmap(long mapPtr, long markerID, int width, int height, int[] data);
     private synchronized native boolean nativeMarkerSetPoint(long mapPtr, long markerID, double lng, double lat);
     private synchronized native boolean nativeMarkerSetPointEased(long mapPtr, long markerID, double lng, double lat, float duration, int ease);
-    private synchronized native boolean nativeMarkerSetPolyline(long mapPtr, long markerID, double[] coordinates, int count);
-    private synchronized native boolean nativeMarkerSetPolygon(long mapPtr, long markerID, double[] coordinates, int[] rings, int count);
+    private synchronized native boolean nativeMarkerSetPolyline(long mapPtr, long markerID, double[] coordinates, int offset, int count);
+    private synchronized native boolean nativeMarkerSetPolygon(long mapPtr, long markerID, double[] coordinates, int offset, int[] rings, int count);
     private synchronized native boolean nativeMarkerSetVisible(long mapPtr, long markerID, boolean visible);
     private synchronized native boolean nativeMarkerSetDrawOrder(long mapPtr, long markerID, int drawOrder);
     private synchronized native void nativeMarkerRemoveAll(long mapPtr);
@@ -877,13 +1236,47 @@ public class MapController implements Renderer {
     private synchronized native void nativeCaptureSnapshot(long mapPtr, int[] buffer);
 
     private native void nativeOnUrlSuccess(byte[] rawDataBytes, long callbackPtr);
+    private native void nativeOnUrlSuccessBuffer(ByteBuffer rawDataBuffer, int offset, int length, long callbackPtr);
     private native void nativeOnUrlFailure(long callbackPtr);
 
     synchronized native long nativeAddDataSource(long mapPtr, String name);
     synchronized native void nativeRemoveDataSource(long mapPtr, long sourcePtr);
     synchronized native void nativeClearDataSource(long mapPtr, long sourcePtr);
-    synchronized native void nativeAddFeature(long mapPtr, long sourcePtr, double[] coordinates, int[] rings, String[] properties);
-    synchronized native void nativeAddGeoJson(long mapPtr, long sourcePtr, String geoJson);
+    // Natives that only use a client data source, which is thread-safe, do not hold the lock of
+    // this object, so that adding data on another thread does not block rendering
+    native void nativeAddFeature(long mapPtr, long sourcePtr, double[] coordinates, int offset, int length, int[] rings, String[] properties);
+    // Property keys are read when typed values are added, guarded by the source
+    native void nativeSetPropertySchema(long mapPtr, long sourcePtr, String[] keys);
+    native void nativeAddTypedFeature(long mapPtr, long sourcePtr, double[] coordinates, int offset, int length, int[] rings,
+                                      byte[] types, double[] numbers, String[] strings);
+    native void nativeUpdateFeature(long mapPtr, long sourcePtr, long id, double[] coordinates, int offset, int length,
+                                    int[] rings, String[] properties);
+    // Coordinates of the E7 variants are ints in units of 1e-7 degrees
+    native void nativeAddFeatureE7(long mapPtr, long sourcePtr, int[] coordinatesE7, int offset, int length, int[] rings, String[] properties);
+    native void nativeUpdateFeatureE7(long mapPtr, long sourcePtr, long id, int[] coordinatesE7, int offset, int length,
+                                      int[] rings, String[] properties);
+    native boolean nativeRemoveFeature(long mapPtr, long sourcePtr, long id);
+    // Exactly one of coordinates and coordinatesE7 is not null; schemaKeys and the value columns
+    // are null for a batch without a schema
+    native void nativeAddFeatures(long mapPtr, long sourcePtr, double[] coordinates, int[] coordinatesE7, int[] rings,
+                                  int[] features, int featureCount, int[] propertyKeys,
+                                  String[] propertyValues, double[] propertyNumbers,
+                                  String[] propertyKeyNames, String[] schemaKeys, byte[] valueTypes,
+                                  double[] valueNumbers, String[] valueStrings);
+    native boolean nativeAddFeatureBuffer(long mapPtr, long sourcePtr, ByteBuffer buffer, int offset, int length);
+    native void nativeAddGeoJson(long mapPtr, long sourcePtr, String geoJson);
+    native void nativeSetClusterOptions(long mapPtr, long sourcePtr, float radius, int minZoom, int maxZoom, int minPoints,
+                                        String[] aggregateProperties, String[] aggregateSources, int[] reduce);
+    native void nativeDisableClustering(long mapPtr, long sourcePtr);
+    native int nativeGetClusterExpansionZoom(long sourcePtr, long clusterId);
+    native Object[] nativeGetClusterFeatures(long sourcePtr, long clusterId, boolean leaves, int limit, int offset);
+    native long nativeCreateStagingSource(String name);
+    native void nativeBuildIndex(long sourcePtr);
+    native void nativeSwapSourceData(long mapPtr, long sourcePtr, long stagingPtr);
+    native void nativeDisposeStagingSource(long stagingPtr);
+    synchronized native String[] nativeGetTileSourceUrls(long mapPtr);
+    synchronized native void nativeReloadTiles(long mapPtr, String url);
+    synchronized native void nativeSetTileZoomReduction(long mapPtr, int levels);
 
     native void nativeSetDebugFlag(int flag, boolean on);
 
@@ -899,11 +1292,72 @@ public class MapController implements Renderer {
     private FontFileParser fontFileParser;
     private DisplayMetrics displayMetrics = new DisplayMetrics();
     private HttpHandler httpHandler;
+    private Context applicationContext;
+    private final ComponentCallbacks2 componentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            HttpHandler handler = httpHandler;
+            if (handler != null) {
+                handler.onTrimMemory(level);
+            }
+        }
+
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+    };
+    private final HttpHandler.ResourceChangeListener resourceChangeListener = new HttpHandler.ResourceChangeListener() {
+        @Override
+        public void onResourceChanged(String url) {
+            synchronized (MapController.this) {
+                if (mapPointer != 0) {
+                    nativeReloadTiles(mapPointer, url);
+                }
+            }
+        }
+    };
+    private final TileQualityController tileQualityController = new TileQualityController(new TileQualityController.Target() {
+        @Override
+        public void setTileZoomReduction(int levels) {
+            synchronized (MapController.this) {
+                if (mapPointer != 0) {
+                    nativeSetTileZoomReduction(mapPointer, levels);
+                }
+            }
+        }
+    });
+    private volatile TileStore tileStore;
+    private ExecutorService tileStoreExecutor;
+    private final ExecutorService ingestExecutor = Executors.newFixedThreadPool(INGEST_THREADS, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "TangramIngest");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    // Callbacks of asynchronous additions to MapData that are waiting for the next frame; then
+    // they wait for a frame that completes the view, on the render thread only
+    private final List<Runnable> pendingAddCallbacks = new ArrayList<>();
+    private final List<Runnable> viewCompleteAddCallbacks = new ArrayList<>();
     private FeaturePickListener featurePickListener;
     private ViewCompleteListener viewCompleteListener;
     private FrameCaptureCallback frameCaptureCallback;
     private boolean frameCaptureAwaitCompleteView;
     private Map<String, MapData> clientDataSources = new HashMap<>();
+    private BufferPool bufferPool = new BufferPool(DEFAULT_DELIVERY_QUEUE_DEPTH, 1024 * 1024);
+    private final DeliveryQueue deliveryQueue = new DeliveryQueue(DEFAULT_DELIVERY_QUEUE_DEPTH);
+    // TileStore lookups in progress by URL, so that cancelling a URL reaches them as well
+    private final Map<String, List<StoreLookup>> storeLookups = new HashMap<>();
+
+    private static class StoreLookup {
+        // Set under the lock of storeLookups
+        boolean canceled;
+    }
 
     // GLSurfaceView.Renderer methods
     // ==============================
@@ -920,9 +1374,21 @@ public class MapController implements Renderer {
             return;
         }
 
+        synchronized (pendingAddCallbacks) {
+            // Features added before this update are drawn when it completes the view
+            viewCompleteAddCallbacks.addAll(pendingAddCallbacks);
+            pendingAddCallbacks.clear();
+        }
+
         boolean viewComplete = nativeUpdate(mapPointer, delta);
         nativeRender(mapPointer);
 
+        if (viewComplete && !viewCompleteAddCallbacks.isEmpty()) {
+            for (Runnable callback : viewCompleteAddCallbacks) {
+                callback.run();
+            }
+            viewCompleteAddCallbacks.clear();
+        }
         if (viewComplete && viewCompleteListener != null) {
             viewCompleteListener.onViewComplete();
         }
@@ -949,20 +1415,87 @@ public class MapController implements Renderer {
     // ==================
 
     void cancelUrlRequest(String url) {
+        synchronized (storeLookups) {
+            // Lookups mark themselves done before requesting the URL, under this lock
+            List<StoreLookup> lookups = storeLookups.remove(url);
+            if (lookups != null) {
+                for (StoreLookup lookup : lookups) {
+                    lookup.canceled = true;
+                }
+            }
+        }
         if (httpHandler == null) {
             return;
         }
         httpHandler.onCancel(url);
+        deliveryQueue.cancel(url);
+    }
+
+    boolean startUrlRequest(final String url, final long callbackPtr, final double priority) throws Exception {
+        final TileStore store = tileStore;
+        if (store != null) {
+            final StoreLookup lookup = new StoreLookup();
+            synchronized (storeLookups) {
+                List<StoreLookup> lookups = storeLookups.get(url);
+                if (lookups == null) {
+                    lookups = new ArrayList<>(1);
+                    storeLookups.put(url, lookups);
+                }
+                lookups.add(lookup);
+            }
+            tileStoreExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ByteBuffer data = null;
+                    try {
+                        data = store.read(url);
+                    } catch (IOException e) {
+                        Log.e("Tangram", "Failed to read " + url + " from TileStore", e);
+                    }
+                    boolean canceled;
+                    boolean requested;
+                    synchronized (storeLookups) {
+                        canceled = lookup.canceled;
+                        if (!canceled) {
+                            List<StoreLookup> lookups = storeLookups.get(url);
+                            lookups.remove(lookup);
+                            if (lookups.isEmpty()) {
+                                storeLookups.remove(url);
+                            }
+                        }
+                        // The network request is registered before a cancellation can look
+                        // for it in the HttpHandler
+                        requested = !canceled && data == null && requestUrl(url, callbackPtr, priority);
+                    }
+                    if (canceled) {
+                        // As for a cancelled network request, native code is told of the failure
+                        nativeOnUrlFailure(callbackPtr);
+                    } else if (data != null) {
+                        deliverUrlData(data, callbackPtr);
+                    } else if (!requested) {
+                        nativeOnUrlFailure(callbackPtr);
+                    }
+                }
+            });
+            return true;
+        }
+        return requestUrl(url, callbackPtr, priority);
     }
 
-    boolean startUrlRequest(String url, final long callbackPtr) throws Exception {
+    private boolean requestUrl(final String url, final long callbackPtr, double priority) {
         if (httpHandler == null) {
             return false;
         }
         httpHandler.onRequest(url, new Callback() {
             @Override
             public void onFailure(Request request, IOException e) {
-                nativeOnUrlFailure(callbackPtr);
+                // A cancelled request fails on the thread that cancels it, which is in native code
+                deliveryQueue.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        nativeOnUrlFailure(callbackPtr);
+                    }
+                });
             }
 
             @Override
@@ -971,14 +1504,60 @@ public class MapController implements Renderer {
                     nativeOnUrlFailure(callbackPtr);
                     throw new IOException("Unexpected response code: " + response);
                 }
-                BufferedSource source = response.body().source();
-                byte[] bytes = source.readByteArray();
-                nativeOnUrlSuccess(bytes, callbackPtr);
+                // Wait for a free slot before reading the body, so that no more responses are
+                // held in memory than the delivery queue allows
+                if (!deliveryQueue.acquire()) {
+                    nativeOnUrlFailure(callbackPtr);
+                    return;
+                }
+                final ByteBuffer buffer;
+                try {
+                    ResponseBody body = response.body();
+                    buffer = bufferPool.read(body.byteStream(), body.contentLength());
+                } catch (IOException | RuntimeException e) {
+                    deliveryQueue.release();
+                    nativeOnUrlFailure(callbackPtr);
+                    throw e;
+                }
+                deliveryQueue.execute(url, new DeliveryQueue.Delivery() {
+                    @Override
+                    public void deliver() {
+                        try {
+                            nativeOnUrlSuccessBuffer(buffer, 0, buffer.limit(), callbackPtr);
+                        } finally {
+                            bufferPool.release(buffer);
+                        }
+                    }
+
+                    @Override
+                    public void drop() {
+                        bufferPool.release(buffer);
+                        nativeOnUrlFailure(callbackPtr);
+                    }
+                });
             }
-        });
+        }, priority);
         return true;
     }
 
+    // Pass data to native code, using the cheapest entry point for the given buffer
+    private void deliverUrlData(ByteBuffer data, long callbackPtr) {
+        if (data.isDirect()) {
+            nativeOnUrlSuccessBuffer(data, data.position(), data.remaining(), callbackPtr);
+        } else if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0
+                && data.remaining() == data.array().length) {
+            nativeOnUrlSuccess(data.array(), callbackPtr);
+        } else {
+            ByteBuffer buffer = bufferPool.acquire(data.remaining());
+            buffer.put(data).flip();
+            try {
+                nativeOnUrlSuccessBuffer(buffer, 0, buffer.limit(), callbackPtr);
+            } finally {
+                bufferPool.release(buffer);
+            }
+        }
+    }
+
     // Font Fetching
     // =============
     String getFontFilePath(String key) {
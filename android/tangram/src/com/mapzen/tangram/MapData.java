@@ -5,17 +5,54 @@ import com.mapzen.tangram.geometry.Point;
 import com.mapzen.tangram.geometry.Polygon;
 import com.mapzen.tangram.geometry.Polyline;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * {@code MapData} is a named collection of drawable map features.
  */
 public class MapData {
 
+    /**
+     * Receives the result of adding features asynchronously
+     */
+    public interface AddCallback {
+        /**
+         * Called on the render thread when the map first completes its view with the added
+         * features, or on the next frame if adding them failed
+         * @param data The collection to which the features were added
+         * @param error Why the features could not be added, e.g. an {@link IOException} reading
+         * a file; null if they were added. Features read before an error are kept.
+         */
+        void onFeaturesAdded(MapData data, Exception error);
+    }
+
     String name;
     long pointer = 0;
     MapController map;
+    PropertySchema schema;
+    // Held while any thread uses the native data source in native code, since remove() frees it
+    // and the natives that use it do not hold the monitor of the MapController
+    private final Object sourceLock = new Object();
+    private final SerialExecutor ingestQueue;
+    // Set while a build of the native index of the features is queued, see indexLater()
+    private final AtomicBoolean indexQueued = new AtomicBoolean();
+    // Features added while querying is enabled, for queryBounds() and queryNearest(); null if not
+    private volatile FeatureIndex index;
 
     /**
      * For package-internal use only; create a new {@code MapData}
@@ -27,6 +64,7 @@ public class MapData {
         this.name = name;
         this.pointer = pointer;
         this.map = map;
+        this.ingestQueue = new SerialExecutor(map.getIngestExecutor());
     }
 
     /**
@@ -34,10 +72,69 @@ public class MapData {
      * @param geometry The feature to add
      */
     protected void addFeature(Geometry geometry) {
-        map.addFeature(pointer,
-                geometry.getCoordinateArray(),
-                geometry.getRingArray(),
-                geometry.getPropertyArray());
+        int[] coordinatesE7 = geometry.getCoordinateE7Array();
+        synchronized (sourceLock) {
+            if (coordinatesE7 != null) {
+                map.addFeatureE7(pointer, coordinatesE7, 0, coordinatesE7.length,
+                        geometry.getRingArray(), geometry.getPropertyArray());
+            } else {
+                double[] coordinates = geometry.getCoordinateArray();
+                map.addFeature(pointer,
+                        coordinates, 0, coordinates.length,
+                        geometry.getRingArray(),
+                        geometry.getPropertyArray());
+            }
+        }
+        indexLater();
+        index(geometry);
+    }
+
+    /**
+     * Add a feature with an id to this data collection, or replace the feature that was added
+     * with the same id. Only the parts of the map where the feature was and is are redrawn, so
+     * this is suited to features that change often, e.g. the positions of vehicles.
+     * @param id The id of the feature, chosen by the caller; must be positive
+     * @param geometry The feature, e.g. a {@link com.mapzen.tangram.geometry.Point}
+     * @return This object, for chaining.
+     */
+    public MapData updateFeature(long id, Geometry geometry) {
+        int[] coordinatesE7 = geometry.getCoordinateE7Array();
+        synchronized (sourceLock) {
+            if (coordinatesE7 != null) {
+                map.updateFeatureE7(pointer, id, coordinatesE7, geometry.getRingArray(),
+                        geometry.getPropertyArray());
+            } else {
+                map.updateFeature(pointer, id, geometry.getCoordinateArray(), geometry.getRingArray(),
+                        geometry.getPropertyArray());
+            }
+        }
+        indexLater();
+        FeatureIndex index = this.index;
+        if (index != null) {
+            index.add(id, geometry);
+        }
+        return this;
+    }
+
+    /**
+     * Remove the feature added with {@link #updateFeature(long, Geometry)} with an id; only the
+     * part of the map where it was is redrawn.
+     * @param id The id of the feature
+     * @return True if a feature with this id was removed.
+     */
+    public boolean removeFeature(long id) {
+        FeatureIndex index = this.index;
+        if (index != null) {
+            index.remove(id);
+        }
+        boolean removed;
+        synchronized (sourceLock) {
+            removed = map.removeFeature(pointer, id);
+        }
+        if (removed) {
+            indexLater();
+        }
+        return removed;
     }
 
     /**
@@ -54,9 +151,12 @@ public class MapData {
      * on every {@code MapData} associated with a map when its {@code MapController} is destroyed.
      */
     public void remove() {
-        map.removeDataLayer(this);
-        pointer = 0;
-        map = null;
+        // Waits for an asynchronous addition that is in native code
+        synchronized (sourceLock) {
+            map.removeDataLayer(this);
+            pointer = 0;
+            map = null;
+        }
     }
 
     /**
@@ -71,6 +171,26 @@ public class MapData {
         return this;
     }
 
+    /**
+     * Add a point feature to this collection.
+     * @param longitude The longitude of the feature.
+     * @param latitude The latitude of the feature.
+     * @param properties The properties of the feature, used for filtering and styling according to
+     * the scene file used by the map; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPoint(double longitude, double latitude, Map<String, String> properties) {
+        synchronized (sourceLock) {
+            map.addFeature(pointer, new double[] { longitude, latitude }, 0, 2, null,
+                    propertyArray(properties));
+        }
+        indexLater();
+        if (index != null) {
+            index(new Point(longitude, latitude, properties));
+        }
+        return this;
+    }
+
     /**
      * Add a polyline feature to this collection.
      * @param polyline A list of coordinates that define the line segments of the feature.
@@ -83,6 +203,28 @@ public class MapData {
         return this;
     }
 
+    /**
+     * Add a polyline feature to this collection from a range of an array, without copying its
+     * points into {@link LngLat} objects first.
+     * @param coordinates Interleaved longitudes and latitudes of the points of the line.
+     * @param offset Index of the longitude of the first point in the array.
+     * @param length Number of values to use, twice the number of points.
+     * @param properties The properties of the feature, used for filtering and styling according to
+     * the scene file used by the map; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPolyline(double[] coordinates, int offset, int length, Map<String, String> properties) {
+        MapController.checkCoordinates(coordinates, offset, length);
+        synchronized (sourceLock) {
+            map.addFeature(pointer, coordinates, offset, length, null, propertyArray(properties));
+        }
+        indexLater();
+        if (index != null) {
+            index(new Polyline(coordinates, offset, length, properties));
+        }
+        return this;
+    }
+
     /**
      * Add a polygon feature to this collection.
      * @param polygon A list of rings describing the shape of the feature. Each
@@ -97,22 +239,728 @@ public class MapData {
         return this;
     }
 
+    /**
+     * Add a polygon feature to this collection from a range of an array, without copying its
+     * points into {@link LngLat} objects first.
+     * @param coordinates Interleaved longitudes and latitudes of the points of all rings.
+     * @param offset Index of the longitude of the first point in the array.
+     * @param rings Number of points in each ring; the first ring is taken as the "exterior" of
+     * the polygon and rings with opposite winding are considered "holes".
+     * @param properties The properties of the feature, used for filtering and styling according to
+     * the scene file used by the map; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPolygon(double[] coordinates, int offset, int[] rings, Map<String, String> properties) {
+        int length = 2 * MapController.countPoints(rings);
+        MapController.checkCoordinates(coordinates, offset, length);
+        synchronized (sourceLock) {
+            map.addFeature(pointer, coordinates, offset, length, rings, propertyArray(properties));
+        }
+        indexLater();
+        if (index != null) {
+            index(new Polygon(coordinates, offset, rings, properties));
+        }
+        return this;
+    }
+
+    /**
+     * Add a polyline feature to this collection from a range of an array of fixed-point
+     * coordinates, which take half of the memory of degrees and half of the time to pass to the map.
+     * @param coordinatesE7 Interleaved longitudes and latitudes of the points of the line, in units
+     * of 1e-7 degrees, see {@link LngLat#toE7(double)}.
+     * @param offset Index of the longitude of the first point in the array.
+     * @param length Number of values to use, twice the number of points.
+     * @param properties The properties of the feature, used for filtering and styling according to
+     * the scene file used by the map; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPolylineE7(int[] coordinatesE7, int offset, int length, Map<String, String> properties) {
+        MapController.checkCoordinates(coordinatesE7, offset, length);
+        synchronized (sourceLock) {
+            map.addFeatureE7(pointer, coordinatesE7, offset, length, null, propertyArray(properties));
+        }
+        indexLater();
+        if (index != null) {
+            index(Polyline.fromE7(coordinatesE7, offset, length, properties));
+        }
+        return this;
+    }
+
+    /**
+     * Add a polygon feature to this collection from a range of an array of fixed-point
+     * coordinates, as with {@link #addPolylineE7(int[], int, int, Map)}.
+     * @param coordinatesE7 Interleaved longitudes and latitudes of the points of all rings, in
+     * units of 1e-7 degrees.
+     * @param offset Index of the longitude of the first point in the array.
+     * @param rings Number of points in each ring, as for {@link #addPolygon(double[], int, int[], Map)}.
+     * @param properties The properties of the feature, used for filtering and styling according to
+     * the scene file used by the map; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPolygonE7(int[] coordinatesE7, int offset, int[] rings, Map<String, String> properties) {
+        int length = 2 * MapController.countPoints(rings);
+        MapController.checkCoordinates(coordinatesE7, offset, length);
+        synchronized (sourceLock) {
+            map.addFeatureE7(pointer, coordinatesE7, offset, length, rings, propertyArray(properties));
+        }
+        indexLater();
+        if (index != null) {
+            index(Polygon.fromE7(coordinatesE7, offset, rings, properties));
+        }
+        return this;
+    }
+
+    /**
+     * Add all features of a batch to this collection at once; this is much faster than adding
+     * many features one at a time. The batch can be cleared and reused afterwards.
+     * @param batch The features to add
+     * @return This object, for chaining.
+     */
+    public MapData addFeatures(FeatureBatch batch) {
+        if (batch.size() > 0) {
+            synchronized (sourceLock) {
+                map.addFeatures(pointer, batch);
+            }
+            indexLater();
+            FeatureIndex index = this.index;
+            if (index != null) {
+                index.add(batch);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Add features encoded with a {@link FeatureBufferEncoder} to this collection. The features
+     * are decoded natively, without creating an object per feature or property; for that reason
+     * they are not found by {@link #queryBounds(LngLat, LngLat)} and
+     * {@link #queryNearest(LngLat, int, double)}.
+     * @param encoded The encoded features, from its position to its limit; a buffer that is not
+     * direct is copied first. The position of the buffer is not changed.
+     * @return This object, for chaining.
+     * @throws IllegalArgumentException If the buffer is not a valid feature buffer; features that
+     * precede the error remain in the collection.
+     */
+    public MapData addFeatures(ByteBuffer encoded) {
+        synchronized (sourceLock) {
+            addFeatureBuffer(pointer, encoded);
+        }
+        indexLater();
+        return this;
+    }
+
+    private void addFeatureBuffer(long target, ByteBuffer encoded) {
+        ByteBuffer buffer = encoded;
+        if (!buffer.isDirect()) {
+            buffer = ByteBuffer.allocateDirect(encoded.remaining());
+            buffer.put(encoded.duplicate());
+            buffer.flip();
+        }
+        if (!map.addFeatureBuffer(target, buffer, buffer.position(), buffer.remaining())) {
+            throw new IllegalArgumentException("Malformed feature buffer");
+        }
+    }
+
+    /**
+     * Register the schema of the {@link PropertyValues} of features added after this call. Its
+     * keys are passed to the map once instead of with each feature.
+     * @param schema The schema
+     * @return This object, for chaining.
+     */
+    public MapData setPropertySchema(PropertySchema schema) {
+        synchronized (sourceLock) {
+            map.setPropertySchema(pointer, schema);
+        }
+        this.schema = schema;
+        return this;
+    }
+
+    /**
+     * Draw the points of this collection as clusters at low zooms, or draw all points again.
+     * Picked cluster features have the properties described in {@link ClusterOptions}; their
+     * {@code cluster_id} identifies them in the cluster queries of this class.
+     * @param options How the points are clustered; null to stop clustering them
+     * @return This object, for chaining.
+     */
+    public MapData setClusterOptions(ClusterOptions options) {
+        synchronized (sourceLock) {
+            map.setClusterOptions(pointer, options);
+        }
+        indexLater();
+        return this;
+    }
+
+    /**
+     * Get the zoom at which a cluster splits into smaller clusters or points, e.g. to zoom the
+     * map to it when the cluster is tapped
+     * @param clusterId The {@code cluster_id} property of the cluster
+     * @return The zoom, or -1 if this collection has no such cluster.
+     */
+    public int getClusterExpansionZoom(long clusterId) {
+        synchronized (sourceLock) {
+            return map.getClusterExpansionZoom(pointer, clusterId);
+        }
+    }
+
+    /**
+     * Get the clusters and points that a cluster splits into at its expansion zoom
+     * @param clusterId The {@code cluster_id} property of the cluster
+     * @return The features, with their properties; empty if this collection has no such cluster.
+     */
+    public List<Point> getClusterChildren(long clusterId) {
+        Object[] features;
+        synchronized (sourceLock) {
+            features = map.getClusterFeatures(pointer, clusterId, false, 0, 0);
+        }
+        return clusterFeatures(features);
+    }
+
+    /**
+     * Get the points of a cluster, e.g. to list them
+     * @param clusterId The {@code cluster_id} property of the cluster
+     * @param limit The most points to return
+     * @param offset The number of points to skip, for paging through a large cluster
+     * @return The points, with their properties; empty if this collection has no such cluster.
+     */
+    public List<Point> getClusterLeaves(long clusterId, int limit, int offset) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must not be negative");
+        }
+        Object[] features;
+        synchronized (sourceLock) {
+            features = map.getClusterFeatures(pointer, clusterId, true, limit, offset);
+        }
+        return clusterFeatures(features);
+    }
+
+    private static List<Point> clusterFeatures(Object[] features) {
+        double[] coordinates = (double[]) features[0];
+        List<Point> points = new ArrayList<>(features.length - 1);
+        for (int i = 1; i < features.length; i++) {
+            String[] properties = (String[]) features[i];
+            Map<String, String> values = new HashMap<>();
+            for (int j = 0; j < properties.length; j += 2) {
+                values.put(properties[j], properties[j + 1]);
+            }
+            LngLat position = new LngLat(coordinates[2 * (i - 1)], coordinates[2 * (i - 1) + 1]);
+            points.add(new Point(position, values));
+        }
+        return points;
+    }
+
+    /**
+     * Add a point feature with typed property values to this collection.
+     * @param longitude The longitude of the feature.
+     * @param latitude The latitude of the feature.
+     * @param values The properties of the feature, for the schema registered with
+     * {@link #setPropertySchema(PropertySchema)}; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPoint(double longitude, double latitude, PropertyValues values) {
+        checkSchema(values);
+        synchronized (sourceLock) {
+            map.addTypedFeature(pointer, new double[] { longitude, latitude }, 0, 2, null, values);
+        }
+        indexLater();
+        if (index != null) {
+            index(new Point(longitude, latitude, values != null ? values.toMap() : null));
+        }
+        return this;
+    }
+
+    /**
+     * Add a polyline feature with typed property values to this collection.
+     * @param coordinates Interleaved longitudes and latitudes of the points of the line.
+     * @param offset Index of the longitude of the first point in the array.
+     * @param length Number of values to use, twice the number of points.
+     * @param values The properties of the feature, for the schema registered with
+     * {@link #setPropertySchema(PropertySchema)}; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPolyline(double[] coordinates, int offset, int length, PropertyValues values) {
+        MapController.checkCoordinates(coordinates, offset, length);
+        checkSchema(values);
+        synchronized (sourceLock) {
+            map.addTypedFeature(pointer, coordinates, offset, length, null, values);
+        }
+        indexLater();
+        if (index != null) {
+            index(new Polyline(coordinates, offset, length, values != null ? values.toMap() : null));
+        }
+        return this;
+    }
+
+    /**
+     * Add a polygon feature with typed property values to this collection.
+     * @param coordinates Interleaved longitudes and latitudes of the points of all rings.
+     * @param offset Index of the longitude of the first point in the array.
+     * @param rings Number of points in each ring, as for {@link #addPolygon(double[], int, int[], Map)}.
+     * @param values The properties of the feature, for the schema registered with
+     * {@link #setPropertySchema(PropertySchema)}; may be null.
+     * @return This object, for chaining.
+     */
+    public MapData addPolygon(double[] coordinates, int offset, int[] rings, PropertyValues values) {
+        int length = 2 * MapController.countPoints(rings);
+        MapController.checkCoordinates(coordinates, offset, length);
+        checkSchema(values);
+        synchronized (sourceLock) {
+            map.addTypedFeature(pointer, coordinates, offset, length, rings, values);
+        }
+        indexLater();
+        if (index != null) {
+            index(new Polygon(coordinates, offset, rings, values != null ? values.toMap() : null));
+        }
+        return this;
+    }
+
+    private void checkSchema(PropertyValues values) {
+        if (values != null && values.schema != schema) {
+            throw new IllegalArgumentException("The schema of the values is not registered with this MapData");
+        }
+    }
+
     /**
      * Add features described in a GeoJSON string to this collection.
      * @param data A string containing a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection
      * @return This object, for chaining.
+     * @throws IllegalArgumentException If queries are enabled and the string is not valid JSON;
+     * features read before the error remain in the collection.
      */
     public MapData addGeoJson(String data) {
-        map.addGeoJson(pointer, data);
+        if (index == null) {
+            synchronized (sourceLock) {
+                map.addGeoJson(pointer, data);
+            }
+            indexLater();
+            return this;
+        }
+        // Parsed here, so that the features can also be indexed
+        try {
+            addGeoJson(new StringReader(data), pointer, index);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed GeoJSON", e);
+        } finally {
+            indexLater();
+        }
         return this;
     }
 
+    private static String[] propertyArray(Map<String, String> properties) {
+        if (properties == null) {
+            return null;
+        }
+        String[] out = new String[properties.size() * 2];
+        int i = 0;
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            out[i++] = entry.getKey();
+            out[i++] = entry.getValue();
+        }
+        return out;
+    }
+
+    /**
+     * Add features from a GeoJSON file to this collection. The file is parsed one feature at a
+     * time and the features are added in batches, so the whole file is never held in memory.
+     * @param file A file containing a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection,
+     * Feature or geometry, encoded in UTF-8
+     * @return This object, for chaining.
+     * @throws IOException If the file cannot be read or is not valid JSON; features read before
+     * the error remain in the collection.
+     */
+    public MapData addGeoJson(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return addGeoJson(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Add features from a stream of GeoJSON to this collection. The stream is parsed one feature
+     * at a time and the features are added in batches, so the whole document is never held in
+     * memory.
+     * @param in A stream of a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection,
+     * Feature or geometry, encoded in UTF-8; it is read to the end but not closed
+     * @return This object, for chaining.
+     * @throws IOException If the stream cannot be read or is not valid JSON; features read before
+     * the error remain in the collection.
+     */
+    public MapData addGeoJson(InputStream in) throws IOException {
+        GeoJsonStreamReader reader = new GeoJsonStreamReader(new GeoJsonStreamReader.Sink() {
+            @Override
+            public void addFeatures(FeatureBatch batch) {
+                MapData.this.addFeatures(batch);
+            }
+        });
+        reader.read(new InputStreamReader(in, Charset.forName("UTF-8")));
+        return this;
+    }
+
+    // Parse GeoJSON into the native source @target and @index, which may be null, batch by batch
+    private void addGeoJson(Reader in, final long target, final FeatureIndex index) throws IOException {
+        GeoJsonStreamReader reader = new GeoJsonStreamReader(new GeoJsonStreamReader.Sink() {
+            @Override
+            public void addFeatures(FeatureBatch batch) {
+                synchronized (sourceLock) {
+                    checkSource();
+                    map.addFeatures(target, batch);
+                }
+                if (index != null) {
+                    index.add(batch);
+                }
+            }
+        });
+        reader.read(in);
+    }
+
+    /**
+     * Keep the features added to this collection from now on in a spatial index, so that they
+     * can be found with {@link #queryBounds(LngLat, LngLat)} and
+     * {@link #queryNearest(LngLat, int, double)} instead of in a separate list. The index holds the
+     * features as {@link Geometry} objects; GeoJSON strings are parsed in Java rather than natively
+     * while it is enabled, and features added with {@link #addFeatures(ByteBuffer)} are not indexed.
+     * @param enabled True to index the features added from now on; false to drop the index
+     * @return This object, for chaining.
+     */
+    public MapData setQueryEnabled(boolean enabled) {
+        if (!enabled) {
+            index = null;
+        } else if (index == null) {
+            index = new FeatureIndex();
+        }
+        return this;
+    }
+
+    /**
+     * Find the features of this collection whose bounding boxes intersect a box; may be called
+     * from any thread
+     * @param southWest The south-west corner of the box
+     * @param northEast The north-east corner of the box
+     * @return The features, in no particular order; empty if queries are not enabled with
+     * {@link #setQueryEnabled(boolean)}.
+     */
+    public List<Geometry> queryBounds(LngLat southWest, LngLat northEast) {
+        FeatureIndex index = this.index;
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        return index.queryBounds(southWest, northEast);
+    }
+
+    /**
+     * Find the features of this collection nearest to a point, e.g. one that was tapped, by the
+     * distance to their bounding boxes; may be called from any thread
+     * @param point The point
+     * @param maxResults The most features to return
+     * @param maxDistance The greatest distance of the features in meters
+     * @return The features, nearest first; empty if queries are not enabled with
+     * {@link #setQueryEnabled(boolean)}.
+     */
+    public List<Geometry> queryNearest(LngLat point, int maxResults, double maxDistance) {
+        FeatureIndex index = this.index;
+        if (index == null) {
+            return new ArrayList<>();
+        }
+        return index.queryNearest(point, maxResults, maxDistance);
+    }
+
+    private void index(Geometry geometry) {
+        FeatureIndex index = this.index;
+        if (index != null) {
+            index.add(geometry);
+        }
+    }
+
+    /**
+     * Add features described in a GeoJSON string to this collection on a background thread.
+     * Additions to a collection are made in the order they were requested; rendering goes on
+     * while the features are parsed and tiled.
+     * @param data A string containing a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection
+     * @param callback Called when the features are drawn; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData addGeoJsonAsync(String data, AddCallback callback) {
+        return addAsync(geoJson(data), callback);
+    }
+
+    /**
+     * Add features from a GeoJSON file to this collection on a background thread, as with
+     * {@link #addGeoJson(File)}; the features are drawn batch by batch as they are read.
+     * @param file A file containing a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection,
+     * Feature or geometry, encoded in UTF-8
+     * @param callback Called when all features are drawn, or with the error that stopped reading
+     * the file; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData addGeoJsonAsync(File file, AddCallback callback) {
+        return addAsync(geoJson(file), callback);
+    }
+
+    /**
+     * Add all features of a batch to this collection on a background thread.
+     * @param batch The features to add; it must not be changed until the callback is called
+     * @param callback Called when the features are drawn; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData addFeaturesAsync(FeatureBatch batch, AddCallback callback) {
+        return addAsync(features(batch), callback);
+    }
+
+    /**
+     * Add features encoded with a {@link FeatureBufferEncoder} to this collection on a background
+     * thread, as with {@link #addFeatures(ByteBuffer)}.
+     * @param encoded The encoded features; it must not be changed until the callback is called
+     * @param callback Called when the features are drawn, or with an
+     * {@link IllegalArgumentException} if the buffer is malformed; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData addFeaturesAsync(ByteBuffer encoded, AddCallback callback) {
+        return addAsync(features(encoded), callback);
+    }
+
+    /**
+     * Replace all features of this collection with those of a GeoJSON string. The new version
+     * of the collection is parsed and indexed on a background thread, then swapped in at once;
+     * the map keeps drawing the previous features until the tiles with the new ones are built,
+     * rather than going blank as after {@link #clear()}.
+     * @param data A string containing a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection
+     * @param callback Called when the new features are drawn; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData replaceGeoJsonAsync(String data, AddCallback callback) {
+        return replaceAsync(geoJson(data), callback);
+    }
+
+    /**
+     * Replace all features of this collection with those of a GeoJSON file, as with
+     * {@link #replaceGeoJsonAsync(String, AddCallback)}.
+     * @param file A file containing a <a href="http://geojson.org/">GeoJSON</a> FeatureCollection,
+     * Feature or geometry, encoded in UTF-8
+     * @param callback Called when the new features are drawn, or with the error that stopped
+     * reading the file, in which case the collection is unchanged; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData replaceGeoJsonAsync(File file, AddCallback callback) {
+        return replaceAsync(geoJson(file), callback);
+    }
+
+    /**
+     * Replace all features of this collection with those of a batch, as with
+     * {@link #replaceGeoJsonAsync(String, AddCallback)}.
+     * @param batch The new features; it must not be changed until the callback is called
+     * @param callback Called when the new features are drawn; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData replaceFeaturesAsync(FeatureBatch batch, AddCallback callback) {
+        return replaceAsync(features(batch), callback);
+    }
+
+    /**
+     * Replace all features of this collection with features encoded with a
+     * {@link FeatureBufferEncoder}, as with {@link #replaceGeoJsonAsync(String, AddCallback)}.
+     * @param encoded The new features; it must not be changed until the callback is called
+     * @param callback Called when the new features are drawn, or with an
+     * {@link IllegalArgumentException} if the buffer is malformed, in which case the collection
+     * is unchanged; may be null
+     * @return This object, for chaining.
+     * @throws CancellationException If this collection was removed.
+     */
+    public MapData replaceFeaturesAsync(ByteBuffer encoded, AddCallback callback) {
+        return replaceAsync(features(encoded), callback);
+    }
+
+    // Adds features to a native data source on an ingestion thread, holding sourceLock while in
+    // native code, and to a feature index unless it is null
+    private interface Ingestion {
+        void run(long target, FeatureIndex index) throws Exception;
+    }
+
+    private Ingestion geoJson(final String data) {
+        return new Ingestion() {
+            @Override
+            public void run(long target, FeatureIndex index) throws IOException {
+                if (index != null) {
+                    addGeoJson(new StringReader(data), target, index);
+                    return;
+                }
+                synchronized (sourceLock) {
+                    checkSource();
+                    map.addGeoJson(target, data);
+                }
+            }
+        };
+    }
+
+    private Ingestion geoJson(final File file) {
+        return new Ingestion() {
+            @Override
+            public void run(long target, FeatureIndex index) throws IOException {
+                InputStream in = new FileInputStream(file);
+                try {
+                    addGeoJson(new InputStreamReader(in, Charset.forName("UTF-8")), target, index);
+                } finally {
+                    in.close();
+                }
+            }
+        };
+    }
+
+    private Ingestion features(final FeatureBatch batch) {
+        return new Ingestion() {
+            @Override
+            public void run(long target, FeatureIndex index) {
+                synchronized (sourceLock) {
+                    checkSource();
+                    if (batch.size() > 0) {
+                        map.addFeatures(target, batch);
+                    }
+                }
+                if (index != null) {
+                    index.add(batch);
+                }
+            }
+        };
+    }
+
+    private Ingestion features(final ByteBuffer encoded) {
+        return new Ingestion() {
+            @Override
+            public void run(long target, FeatureIndex index) {
+                synchronized (sourceLock) {
+                    checkSource();
+                    addFeatureBuffer(target, encoded);
+                }
+            }
+        };
+    }
+
+    private MapData addAsync(final Ingestion ingestion, final AddCallback callback) {
+        final MapController controller = currentMap();
+        ingestQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                try {
+                    ingestion.run(pointer, index);
+                } catch (CancellationException e) {
+                    // This collection was removed
+                    return;
+                } catch (Exception e) {
+                    error = e;
+                }
+                // Features read before an error are indexed as well
+                indexLater();
+                controller.onFeaturesAdded(MapData.this, callback, error);
+            }
+        });
+        return this;
+    }
+
+    private MapData replaceAsync(final Ingestion ingestion, final AddCallback callback) {
+        final MapController controller = currentMap();
+        ingestQueue.execute(new Runnable() {
+            @Override
+            public void run() {
+                Exception error = null;
+                synchronized (sourceLock) {
+                    if (pointer == 0) {
+                        // This collection was removed before the replacement started
+                        return;
+                    }
+                }
+                // The new version is built in a source that is not part of the map
+                long staging = controller.createStagingSource(name);
+                // and so is its feature index, if queries are enabled
+                FeatureIndex stagingIndex = index != null ? new FeatureIndex() : null;
+                try {
+                    ingestion.run(staging, stagingIndex);
+                    controller.buildIndex(staging);
+                    synchronized (sourceLock) {
+                        checkSource();
+                        map.swapSourceData(pointer, staging);
+                        if (stagingIndex != null && index != null) {
+                            index = stagingIndex;
+                        }
+                    }
+                } catch (CancellationException e) {
+                    // This collection was removed
+                    return;
+                } catch (Exception e) {
+                    error = e;
+                } finally {
+                    // Frees the previous features, off the render thread
+                    controller.disposeStagingSource(staging);
+                }
+                controller.onFeaturesAdded(MapData.this, callback, error);
+            }
+        });
+        return this;
+    }
+
+    // Index the features of the native source on the ingestion thread once changes are made, so
+    // that tile workers do not rebuild the whole index when they parse a changed tile; changes
+    // made until the queued build starts are indexed with it
+    private void indexLater() {
+        if (!indexQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            ingestQueue.execute(new Runnable() {
+                @Override
+                public void run() {
+                    indexQueued.set(false);
+                    MapController controller;
+                    synchronized (sourceLock) {
+                        if (pointer == 0) {
+                            // This collection was removed
+                            return;
+                        }
+                        controller = map;
+                        controller.buildIndex(pointer);
+                    }
+                    controller.requestRender();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The map is being destroyed; a tile that is still parsed builds the index itself
+            indexQueued.set(false);
+        }
+    }
+
+    // The map of this collection, for an asynchronous operation that uses it on another thread
+    private MapController currentMap() {
+        synchronized (sourceLock) {
+            checkSource();
+            return map;
+        }
+    }
+
+    private void checkSource() {
+        if (pointer == 0) {
+            throw new CancellationException();
+        }
+    }
+
     /**
      * Remove all features from this collection.
      * @return This object, for chaining.
      */
     public MapData clear() {
-        map.clearDataSource(pointer);
+        synchronized (sourceLock) {
+            map.clearDataSource(pointer);
+        }
+        FeatureIndex index = this.index;
+        if (index != null) {
+            index.clear();
+        }
         return this;
     }
 
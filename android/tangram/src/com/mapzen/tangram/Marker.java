@@ -120,10 +120,27 @@ public class Marker {
         if (polyline == null) {
             return false;
         }
-        return map.setMarkerPolyline(markerId, polyline.getCoordinateArray(),
+        return map.setMarkerPolyline(markerId, polyline.getCoordinateArray(), 0,
                 polyline.getCoordinateArray().length/2);
     }
 
+    /**
+     * Sets the polyline to be displayed from a range of an array, without copying it into
+     * {@link LngLat} objects first. When using this method, a 'polyline' style must also be
+     * set. See {@link Marker#setStyling(String)}.
+     * @param coordinates interleaved longitudes and latitudes of the points
+     * @param offset index of the longitude of the first point in the array
+     * @param length number of values to use, twice the number of points
+     * @return whether the polyline was successfully set
+     */
+    public boolean setPolyline(double[] coordinates, int offset, int length) {
+        if (coordinates == null) {
+            return false;
+        }
+        MapController.checkCoordinates(coordinates, offset, length);
+        return map.setMarkerPolyline(markerId, coordinates, offset, length/2);
+    }
+
     /**
      * Sets the polygon to be displayed. When using this method, a 'polygon' style must also be
      * set. See {@link Marker#setStyling(String)}.
@@ -134,10 +151,27 @@ public class Marker {
         if (polygon == null) {
             return false;
         }
-        return map.setMarkerPolygon(markerId, polygon.getCoordinateArray(),
+        return map.setMarkerPolygon(markerId, polygon.getCoordinateArray(), 0,
                 polygon.getRingArray(), polygon.getRingArray().length);
     }
 
+    /**
+     * Sets the polygon to be displayed from a range of an array, without copying it into
+     * {@link LngLat} objects first. When using this method, a 'polygon' style must also be
+     * set. See {@link Marker#setStyling(String)}.
+     * @param coordinates interleaved longitudes and latitudes of the points of all rings
+     * @param offset index of the longitude of the first point in the array
+     * @param rings number of points in each ring, starting with the exterior ring
+     * @return whether the polygon was successfully set
+     */
+    public boolean setPolygon(double[] coordinates, int offset, int[] rings) {
+        if (coordinates == null || rings == null) {
+            return false;
+        }
+        MapController.checkCoordinates(coordinates, offset, 2 * MapController.countPoints(rings));
+        return map.setMarkerPolygon(markerId, coordinates, offset, rings, rings.length);
+    }
+
     /**
      * Changes the marker's visibility on the map.
      * @param visible whether or not the marker should be visible
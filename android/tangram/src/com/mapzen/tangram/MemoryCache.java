@@ -0,0 +1,113 @@
+package com.mapzen.tangram;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code MemoryCache} is a size-bounded, least-recently-used cache of raw resource data keyed
+ * by URL, used by {@link HttpHandler} to serve recently loaded tiles without disk I/O.
+ */
+class MemoryCache {
+
+    // Entries larger than this fraction of the cache would evict too much to be worth keeping
+    private static final int MAX_ENTRY_FRACTION = 8;
+
+    // Iterates from least to most recently used
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private int maxSize;
+    private int size = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * Create a cache
+     * @param maxSize Maximum total size of the cached data in bytes; 0 disables the cache
+     */
+    MemoryCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Get the data for a URL and mark it as most recently used
+     * @param url URL of the resource
+     * @return The data, or null if the URL is not cached
+     */
+    synchronized byte[] get(String url) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        byte[] data = entries.get(url);
+        if (data != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return data;
+    }
+
+    /**
+     * Add or replace the data for a URL, evicting the least recently used entries as needed;
+     * the data must not be modified afterwards
+     * @param url URL of the resource
+     * @param data Data of the resource
+     */
+    synchronized void put(String url, byte[] data) {
+        if (data.length > maxSize / MAX_ENTRY_FRACTION) {
+            // Don't keep an outdated entry either
+            remove(url);
+            return;
+        }
+        byte[] previous = entries.put(url, data);
+        size += data.length;
+        if (previous != null) {
+            size -= previous.length;
+        }
+        trimToSize(maxSize);
+    }
+
+    synchronized void remove(String url) {
+        byte[] previous = entries.remove(url);
+        if (previous != null) {
+            size -= previous.length;
+        }
+    }
+
+    /**
+     * Evict least recently used entries until the cached data fits in the given size
+     * @param targetSize Size in bytes
+     */
+    synchronized void trimToSize(int targetSize) {
+        Iterator<Map.Entry<String, byte[]>> it = entries.entrySet().iterator();
+        while (size > targetSize && it.hasNext()) {
+            size -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    synchronized void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        trimToSize(maxSize);
+    }
+
+    synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    synchronized int getSize() {
+        return size;
+    }
+
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.mapzen.tangram;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * {@code NetworkStats} is a snapshot of the requests made by an {@link HttpHandler}, obtained with
+ * {@link MapController#getNetworkStats()}. Counts cover every request since the handler was
+ * created; timings cover a rolling window of the most recent requests.
+ */
+public class NetworkStats {
+
+    /**
+     * Receives the metrics of each finished request; called on a network thread, so
+     * implementations should return quickly
+     */
+    public interface Listener {
+        /**
+         * Called when a request has finished
+         * @param url URL of the request
+         * @param host Host of the request
+         * @param result One of the {@code RESULT_} constants
+         * @param queueTimeMs Time spent waiting for a connection, in milliseconds
+         * @param firstByteMs Time from sending the request to receiving the response headers,
+         * in milliseconds, or -1 if no response was received
+         * @param totalMs Time from the request to the delivery of the response, in milliseconds
+         * @param bytes Size of the response body in bytes, or -1 if unknown
+         */
+        void onRequestFinished(String url, String host, int result, long queueTimeMs,
+                               long firstByteMs, long totalMs, long bytes);
+    }
+
+    /** The response came from the network */
+    public static final int RESULT_NETWORK = 0;
+    /** The response came from the disk cache */
+    public static final int RESULT_DISK_CACHE = 1;
+    /** The response came from the memory cache */
+    public static final int RESULT_MEMORY_CACHE = 2;
+    /** The cached response was confirmed by the server with a conditional request */
+    public static final int RESULT_REVALIDATED = 3;
+    /** The request was cancelled */
+    public static final int RESULT_CANCELED = 4;
+    /** The request failed or the server answered with an error status */
+    public static final int RESULT_FAILED = 5;
+
+    static final int RESULT_COUNT = 6;
+
+    /**
+     * Percentiles of a timing over the rolling window, in milliseconds
+     */
+    public static class Percentiles {
+        public final long p50;
+        public final long p90;
+        public final long p99;
+        public final long max;
+
+        Percentiles(long[] sortedSamples, int count) {
+            p50 = percentile(sortedSamples, count, 0.50);
+            p90 = percentile(sortedSamples, count, 0.90);
+            p99 = percentile(sortedSamples, count, 0.99);
+            max = count > 0 ? sortedSamples[count - 1] : 0;
+        }
+
+        private static long percentile(long[] sortedSamples, int count, double fraction) {
+            if (count == 0) {
+                return 0;
+            }
+            return sortedSamples[Math.min(count - 1, (int) (fraction * count))];
+        }
+    }
+
+    /**
+     * Counts of the requests made to one host
+     */
+    public static class HostStats {
+        public final long requests;
+        public final long failures;
+        public final long cancellations;
+        public final long bytes;
+
+        HostStats(long[] counts) {
+            requests = counts[0];
+            failures = counts[1];
+            cancellations = counts[2];
+            bytes = counts[3];
+        }
+    }
+
+    private final long[] resultCounts;
+
+    /** Total size of the response bodies, in bytes */
+    public final long bytes;
+
+    /**
+     * Moving average of the throughput of recent network responses, in bytes per second, or 0
+     * if no response was large enough to measure it
+     */
+    public final long throughput;
+
+    /** Time spent waiting for a connection */
+    public final Percentiles queueTime;
+
+    /** Time from sending a request to receiving the response headers, for network responses */
+    public final Percentiles firstByteTime;
+
+    /** Time from a request to the delivery of its response */
+    public final Percentiles totalTime;
+
+    /** Counts for each host, keyed by host name */
+    public final Map<String, HostStats> hosts;
+
+    NetworkStats(long[] resultCounts, long bytes, long throughput, Percentiles queueTime,
+                 Percentiles firstByteTime, Percentiles totalTime, Map<String, HostStats> hosts) {
+        this.resultCounts = resultCounts;
+        this.bytes = bytes;
+        this.throughput = throughput;
+        this.queueTime = queueTime;
+        this.firstByteTime = firstByteTime;
+        this.totalTime = totalTime;
+        this.hosts = Collections.unmodifiableMap(hosts);
+    }
+
+    /**
+     * Get the number of finished requests with a given result
+     * @param result One of the {@code RESULT_} constants
+     * @return The number of requests
+     */
+    public long getCount(int result) {
+        return resultCounts[result];
+    }
+
+    /**
+     * Get the number of finished requests
+     * @return The number of requests with any result
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (long count : resultCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.mapzen.tangram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code NetworkStatsCollector} aggregates request metrics for {@link NetworkStats}. Recording a
+ * request only updates counters and preallocated ring buffers; the first request to a host
+ * allocates its counters.
+ */
+class NetworkStatsCollector {
+
+    /**
+     * Receives the throughput estimate after each network response that updated it
+     */
+    interface ThroughputListener {
+        void onThroughputChanged(long bytesPerSecond);
+    }
+
+    private static final int WINDOW = 1024;
+
+    // Smaller responses are dominated by latency rather than bandwidth
+    private static final long MIN_THROUGHPUT_SAMPLE_BYTES = 4 * 1024;
+    // Weight of the latest sample in the moving average
+    private static final double THROUGHPUT_SMOOTHING = 0.2;
+
+    private static final int HOST_REQUESTS = 0;
+    private static final int HOST_FAILURES = 1;
+    private static final int HOST_CANCELLATIONS = 2;
+    private static final int HOST_BYTES = 3;
+
+    private final long[] resultCounts = new long[NetworkStats.RESULT_COUNT];
+    private long bytes = 0;
+
+    // Rolling windows of the latest timings, in milliseconds
+    private final long[] queueTimes = new long[WINDOW];
+    private final long[] firstByteTimes = new long[WINDOW];
+    private final long[] totalTimes = new long[WINDOW];
+    private long sampleCount = 0;
+    private long firstByteCount = 0;
+
+    // Exponentially weighted moving average, in bytes per second
+    private double throughput = 0;
+
+    private final Map<String, long[]> hosts = new HashMap<>();
+
+    private volatile NetworkStats.Listener listener;
+    private volatile ThroughputListener throughputListener;
+
+    void setListener(NetworkStats.Listener listener) {
+        this.listener = listener;
+    }
+
+    void setThroughputListener(ThroughputListener listener) {
+        this.throughputListener = listener;
+    }
+
+    /**
+     * Record a finished request; times are from {@link System#nanoTime()}, with 0 for events that
+     * did not happen
+     */
+    void record(String url, String host, int result, long queuedAt, long startedAt,
+                long respondedAt, long finishedAt, long responseBytes) {
+        long queueTime = startedAt > 0 ? toMillis(startedAt - queuedAt) : toMillis(finishedAt - queuedAt);
+        long firstByteTime = startedAt > 0 && respondedAt > 0 ? toMillis(respondedAt - startedAt) : -1;
+        long totalTime = toMillis(finishedAt - queuedAt);
+        long throughputEstimate = -1;
+
+        synchronized (this) {
+            resultCounts[result]++;
+            if (responseBytes > 0) {
+                bytes += responseBytes;
+            }
+
+            if (result != NetworkStats.RESULT_CANCELED) {
+                int slot = (int) (sampleCount++ % WINDOW);
+                queueTimes[slot] = queueTime;
+                totalTimes[slot] = totalTime;
+                if (firstByteTime >= 0) {
+                    firstByteTimes[(int) (firstByteCount++ % WINDOW)] = firstByteTime;
+                }
+            }
+
+            // Measure from sending the request to the end of the body, which is what the
+            // loading time of a tile depends on
+            if (result == NetworkStats.RESULT_NETWORK && responseBytes >= MIN_THROUGHPUT_SAMPLE_BYTES
+                    && startedAt > 0 && finishedAt > startedAt) {
+                double sample = responseBytes * 1e9 / (finishedAt - startedAt);
+                throughput = throughput == 0 ? sample
+                        : throughput + THROUGHPUT_SMOOTHING * (sample - throughput);
+                throughputEstimate = (long) throughput;
+            }
+
+            long[] counts = hosts.get(host);
+            if (counts == null) {
+                counts = new long[4];
+                hosts.put(host, counts);
+            }
+            counts[HOST_REQUESTS]++;
+            if (result == NetworkStats.RESULT_FAILED) {
+                counts[HOST_FAILURES]++;
+            } else if (result == NetworkStats.RESULT_CANCELED) {
+                counts[HOST_CANCELLATIONS]++;
+            }
+            if (responseBytes > 0) {
+                counts[HOST_BYTES] += responseBytes;
+            }
+        }
+
+        NetworkStats.Listener listener = this.listener;
+        if (listener != null) {
+            listener.onRequestFinished(url, host, result, queueTime, firstByteTime, totalTime, responseBytes);
+        }
+        ThroughputListener throughputListener = this.throughputListener;
+        if (throughputListener != null && throughputEstimate >= 0) {
+            throughputListener.onThroughputChanged(throughputEstimate);
+        }
+    }
+
+    synchronized long getThroughput() {
+        return (long) throughput;
+    }
+
+    synchronized NetworkStats snapshot() {
+        Map<String, NetworkStats.HostStats> hostStats = new HashMap<>();
+        for (Map.Entry<String, long[]> entry : hosts.entrySet()) {
+            hostStats.put(entry.getKey(), new NetworkStats.HostStats(entry.getValue()));
+        }
+        return new NetworkStats(resultCounts.clone(), bytes, (long) throughput,
+                percentiles(queueTimes, sampleCount),
+                percentiles(firstByteTimes, firstByteCount),
+                percentiles(totalTimes, sampleCount),
+                hostStats);
+    }
+
+    private static NetworkStats.Percentiles percentiles(long[] window, long samples) {
+        int count = (int) Math.min(samples, WINDOW);
+        long[] sorted = Arrays.copyOf(window, count);
+        Arrays.sort(sorted);
+        return new NetworkStats.Percentiles(sorted, count);
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1000000;
+    }
+
+}
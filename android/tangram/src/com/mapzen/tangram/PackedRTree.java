@@ -0,0 +1,358 @@
+package com.mapzen.tangram;
+
+import java.util.Arrays;
+
+/**
+ * {@code PackedRTree} is a static spatial index of rectangles. The rectangles are sorted along a
+ * Hilbert curve through their centers and packed into full nodes, level by level, so that the tree
+ * is stored in a few primitive arrays with no object per node and is searched without allocating
+ * more than the result. It is immutable once built and may be searched from any thread.
+ *
+ * Coordinates can be in any planar space; distances are Euclidean.
+ */
+public class PackedRTree {
+
+    /**
+     * Selects the items that a search may return
+     */
+    public interface Filter {
+        /**
+         * @param item The index of an item, in the order it was given to the tree
+         * @return True if the item may be returned.
+         */
+        boolean accept(int item);
+    }
+
+    private static final int NODE_SIZE = 16;
+    private static final int HILBERT_MAX = (1 << 16) - 1;
+
+    private final int itemCount;
+    // minX, minY, maxX, maxY of each node: the items in Hilbert order, then each level above
+    private final double[] boxes;
+    // For an item, its index in the input; for a node, the index of its first child
+    private final int[] indices;
+    // Index of the end of each level, from the items up to the root
+    private final int[] levelEnds;
+
+    /**
+     * Build a tree
+     * @param itemBoxes minX, minY, maxX and maxY of each item, consecutively; it is not kept
+     * @param count The number of items
+     */
+    public PackedRTree(double[] itemBoxes, int count) {
+        if (count < 0 || 4 * count > itemBoxes.length) {
+            throw new IllegalArgumentException("count " + count + " does not match " + itemBoxes.length + " values");
+        }
+        itemCount = count;
+
+        // Number of nodes on each level
+        int levels = 1;
+        for (int n = count; n > 1; n = (n + NODE_SIZE - 1) / NODE_SIZE) {
+            levels++;
+        }
+        levelEnds = new int[levels];
+        int nodes = 0;
+        int n = count;
+        for (int level = 0; level < levels; level++) {
+            nodes += n;
+            levelEnds[level] = nodes;
+            n = (n + NODE_SIZE - 1) / NODE_SIZE;
+        }
+        boxes = new double[4 * nodes];
+        indices = new int[nodes];
+
+        if (count == 0) {
+            return;
+        }
+
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, itemBoxes[4 * i]);
+            minY = Math.min(minY, itemBoxes[4 * i + 1]);
+            maxX = Math.max(maxX, itemBoxes[4 * i + 2]);
+            maxY = Math.max(maxY, itemBoxes[4 * i + 3]);
+        }
+        double width = maxX - minX > 0 ? maxX - minX : 1;
+        double height = maxY - minY > 0 ? maxY - minY : 1;
+
+        // Sort the items by the Hilbert value of their centers, kept in the high bits
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            double x = (itemBoxes[4 * i] + itemBoxes[4 * i + 2]) / 2;
+            double y = (itemBoxes[4 * i + 1] + itemBoxes[4 * i + 3]) / 2;
+            int hx = (int) (HILBERT_MAX * (x - minX) / width);
+            int hy = (int) (HILBERT_MAX * (y - minY) / height);
+            order[i] = ((long) hilbert(hx, hy) << 32) | i;
+        }
+        Arrays.sort(order);
+
+        for (int i = 0; i < count; i++) {
+            int item = (int) order[i];
+            System.arraycopy(itemBoxes, 4 * item, boxes, 4 * i, 4);
+            indices[i] = item;
+        }
+
+        // Each node of a level bounds up to NODE_SIZE consecutive nodes of the level below
+        int child = 0;
+        int node = count;
+        for (int level = 1; level < levels; level++) {
+            int childEnd = levelEnds[level - 1];
+            while (child < childEnd) {
+                int end = Math.min(child + NODE_SIZE, childEnd);
+                double nodeMinX = Double.POSITIVE_INFINITY, nodeMinY = Double.POSITIVE_INFINITY;
+                double nodeMaxX = Double.NEGATIVE_INFINITY, nodeMaxY = Double.NEGATIVE_INFINITY;
+                indices[node] = child;
+                for (; child < end; child++) {
+                    nodeMinX = Math.min(nodeMinX, boxes[4 * child]);
+                    nodeMinY = Math.min(nodeMinY, boxes[4 * child + 1]);
+                    nodeMaxX = Math.max(nodeMaxX, boxes[4 * child + 2]);
+                    nodeMaxY = Math.max(nodeMaxY, boxes[4 * child + 3]);
+                }
+                boxes[4 * node] = nodeMinX;
+                boxes[4 * node + 1] = nodeMinY;
+                boxes[4 * node + 2] = nodeMaxX;
+                boxes[4 * node + 3] = nodeMaxY;
+                node++;
+            }
+        }
+    }
+
+    /**
+     * Get the number of items of this tree
+     * @return The number of items
+     */
+    public int size() {
+        return itemCount;
+    }
+
+    /**
+     * Find the items that intersect a rectangle
+     * @param minX The left of the rectangle
+     * @param minY The bottom of the rectangle
+     * @param maxX The right of the rectangle
+     * @param maxY The top of the rectangle
+     * @param filter Selects the items to return; may be null
+     * @return The indices of the items, in no particular order.
+     */
+    public int[] search(double minX, double minY, double maxX, double maxY, Filter filter) {
+        int[] result = new int[16];
+        int size = 0;
+        if (itemCount == 0) {
+            return result.length == size ? result : Arrays.copyOf(result, size);
+        }
+
+        // Pairs of the first child and the level of the nodes left to visit
+        int[] stack = new int[2 * NODE_SIZE * levelEnds.length];
+        int stackSize = 0;
+        int first = indices.length - 1;
+        int level = levelEnds.length - 1;
+
+        while (true) {
+            int end = Math.min(first + NODE_SIZE, levelEnds[level]);
+            if (level == levelEnds.length - 1) {
+                end = first + 1;
+            }
+            for (int node = first; node < end; node++) {
+                if (maxX < boxes[4 * node] || maxY < boxes[4 * node + 1]
+                        || minX > boxes[4 * node + 2] || minY > boxes[4 * node + 3]) {
+                    continue;
+                }
+                if (level == 0) {
+                    int item = indices[node];
+                    if (filter == null || filter.accept(item)) {
+                        if (size == result.length) {
+                            result = Arrays.copyOf(result, 2 * size);
+                        }
+                        result[size++] = item;
+                    }
+                } else {
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * stackSize);
+                    }
+                    stack[stackSize++] = indices[node];
+                    stack[stackSize++] = level - 1;
+                }
+            }
+            if (stackSize == 0) {
+                break;
+            }
+            level = stack[--stackSize];
+            first = stack[--stackSize];
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Find the items nearest to a point, by the distance from the point to their rectangles
+     * @param x The x coordinate of the point
+     * @param y The y coordinate of the point
+     * @param maxResults The most items to return
+     * @param maxDistance The greatest distance of the items to return
+     * @param filter Selects the items to return; may be null
+     * @return The indices of the items, nearest first.
+     */
+    public int[] neighbors(double x, double y, int maxResults, double maxDistance, Filter filter) {
+        int[] result = new int[Math.max(0, Math.min(maxResults, itemCount))];
+        int size = 0;
+        if (result.length == 0) {
+            return result;
+        }
+
+        double maxDistanceSquared = maxDistance * maxDistance;
+        // Nodes and items by distance; a node is queued as its index, an item as -1 - its index
+        Queue queue = new Queue();
+        int first = indices.length - 1;
+        int level = levelEnds.length - 1;
+        int end = first + 1;
+
+        while (true) {
+            for (int node = first; node < end; node++) {
+                double dx = axisDistance(x, boxes[4 * node], boxes[4 * node + 2]);
+                double dy = axisDistance(y, boxes[4 * node + 1], boxes[4 * node + 3]);
+                double distance = dx * dx + dy * dy;
+                if (distance > maxDistanceSquared) {
+                    continue;
+                }
+                if (level == 0) {
+                    int item = indices[node];
+                    if (filter == null || filter.accept(item)) {
+                        queue.push(-1 - item, distance);
+                    }
+                } else {
+                    queue.push(node, distance);
+                }
+            }
+
+            // Items that are nearer than any node left are final
+            while (queue.size > 0 && queue.peek() < 0) {
+                result[size++] = -1 - queue.pop();
+                if (size == result.length) {
+                    return result;
+                }
+            }
+            if (queue.size == 0) {
+                break;
+            }
+            int node = queue.pop();
+            level = levelOf(node) - 1;
+            first = indices[node];
+            end = Math.min(first + NODE_SIZE, levelEnds[level]);
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private int levelOf(int node) {
+        int level = 0;
+        while (node >= levelEnds[level]) {
+            level++;
+        }
+        return level;
+    }
+
+    private static double axisDistance(double value, double min, double max) {
+        return value < min ? min - value : value <= max ? 0 : value - max;
+    }
+
+    // Binary min-heap of ints by distance
+    private static class Queue {
+        int[] ids = new int[64];
+        double[] distances = new double[64];
+        int size = 0;
+
+        void push(int id, double distance) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                distances = Arrays.copyOf(distances, 2 * size);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >> 1;
+                if (distances[parent] <= distance) {
+                    break;
+                }
+                ids[i] = ids[parent];
+                distances[i] = distances[parent];
+                i = parent;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+        }
+
+        int peek() {
+            return ids[0];
+        }
+
+        int pop() {
+            int top = ids[0];
+            int id = ids[--size];
+            double distance = distances[size];
+            int i = 0;
+            int half = size >> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && distances[child + 1] < distances[child]) {
+                    child++;
+                }
+                if (distances[child] >= distance) {
+                    break;
+                }
+                ids[i] = ids[child];
+                distances[i] = distances[child];
+                i = child;
+            }
+            ids[i] = id;
+            distances[i] = distance;
+            return top;
+        }
+    }
+
+    // Position of (x, y) along a Hilbert curve through a 2^16 by 2^16 grid, computed with
+    // branch-free bit interleaving rather than a loop over the 16 levels of the curve
+    static int hilbert(int x, int y) {
+        int a = x ^ y;
+        int b = 0xFFFF ^ a;
+        int c = 0xFFFF ^ (x | y);
+        int d = x & (y ^ 0xFFFF);
+
+        int A = a | (b >>> 1);
+        int B = (a >>> 1) ^ a;
+        int C = ((c >>> 1) ^ (b & (d >>> 1))) ^ c;
+        int D = ((a & (c >>> 1)) ^ (d >>> 1)) ^ d;
+
+        a = A; b = B; c = C; d = D;
+        A = (a & (a >>> 2)) ^ (b & (b >>> 2));
+        B = (a & (b >>> 2)) ^ (b & ((a ^ b) >>> 2));
+        C ^= (a & (c >>> 2)) ^ (b & (d >>> 2));
+        D ^= (b & (c >>> 2)) ^ ((a ^ b) & (d >>> 2));
+
+        a = A; b = B; c = C; d = D;
+        A = (a & (a >>> 4)) ^ (b & (b >>> 4));
+        B = (a & (b >>> 4)) ^ (b & ((a ^ b) >>> 4));
+        C ^= (a & (c >>> 4)) ^ (b & (d >>> 4));
+        D ^= (b & (c >>> 4)) ^ ((a ^ b) & (d >>> 4));
+
+        a = A; b = B; c = C; d = D;
+        C ^= (a & (c >>> 8)) ^ (b & (d >>> 8));
+        D ^= (b & (c >>> 8)) ^ ((a ^ b) & (d >>> 8));
+
+        a = C ^ (C >>> 1);
+        b = D ^ (D >>> 1);
+
+        int i0 = x ^ y;
+        int i1 = b | (0xFFFF ^ (i0 | a));
+
+        i0 = (i0 | (i0 << 8)) & 0x00FF00FF;
+        i0 = (i0 | (i0 << 4)) & 0x0F0F0F0F;
+        i0 = (i0 | (i0 << 2)) & 0x33333333;
+        i0 = (i0 | (i0 << 1)) & 0x55555555;
+
+        i1 = (i1 | (i1 << 8)) & 0x00FF00FF;
+        i1 = (i1 | (i1 << 4)) & 0x0F0F0F0F;
+        i1 = (i1 | (i1 << 2)) & 0x33333333;
+        i1 = (i1 | (i1 << 1)) & 0x55555555;
+
+        return (i1 << 1) | i0;
+    }
+
+}
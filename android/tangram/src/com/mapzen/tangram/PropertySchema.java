@@ -0,0 +1,69 @@
+package com.mapzen.tangram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code PropertySchema} is a fixed list of property keys shared by many features. A schema is
+ * registered once with {@link MapData#setPropertySchema(PropertySchema)}, after which features
+ * are added with {@link PropertyValues} that hold one typed value per key, so that neither the
+ * keys nor numeric values are passed to the map as strings for each feature.
+ */
+public class PropertySchema {
+
+    final String[] keys;
+    private final Map<String, Integer> indices = new HashMap<>();
+
+    /**
+     * Create a schema
+     * @param keys The property keys, in the order of the columns of its {@link PropertyValues}
+     * @throws IllegalArgumentException If a key is null or repeated
+     */
+    public PropertySchema(String... keys) {
+        this.keys = keys.clone();
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] == null) {
+                throw new IllegalArgumentException("Property keys must not be null");
+            }
+            if (indices.put(this.keys[i], i) != null) {
+                throw new IllegalArgumentException("Repeated property key '" + this.keys[i] + "'");
+            }
+        }
+    }
+
+    /**
+     * Get the number of keys of this schema
+     * @return The number of keys
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Get a key of this schema
+     * @param column Index of the key
+     * @return The key
+     */
+    public String getKey(int column) {
+        return keys[column];
+    }
+
+    /**
+     * Get the column of a key
+     * @param key The key
+     * @return The index of the key, or -1 if it is not in this schema
+     */
+    public int indexOf(String key) {
+        Integer index = indices.get(key);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Create an empty set of values for this schema; it can be reused for many features
+     * @return The values
+     */
+    public PropertyValues newValues() {
+        return new PropertyValues(this);
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.mapzen.tangram;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * {@code PropertyValues} holds the property values of a feature for the keys of a
+ * {@link PropertySchema}, in typed columns. Values are reused by clearing or overwriting them
+ * between features.
+ *
+ * As in tile data, the map stores strings and numbers: long values are stored as doubles, and a
+ * boolean is stored as the number 1 when true and 0 when false, so that a false value is kept. A
+ * scene filter such as {@code open: true} only tests that a feature has the property, so it also
+ * matches false values; filter on {@code open: 1} or {@code open: 0} instead.
+ */
+public class PropertyValues {
+
+    static final byte TYPE_NONE = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_NUMBER = 2;
+
+    final PropertySchema schema;
+    final byte[] types;
+    final double[] numbers;
+    final String[] strings;
+
+    PropertyValues(PropertySchema schema) {
+        this.schema = schema;
+        types = new byte[schema.size()];
+        numbers = new double[schema.size()];
+        strings = new String[schema.size()];
+    }
+
+    /**
+     * Get the schema of these values
+     * @return The schema
+     */
+    public PropertySchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Set a string value
+     * @param column Index of the key in the schema
+     * @param value The value; null removes the value
+     * @return This object, for chaining
+     */
+    public PropertyValues set(int column, String value) {
+        if (value == null) {
+            return remove(column);
+        }
+        types[column] = TYPE_STRING;
+        strings[column] = value;
+        return this;
+    }
+
+    /**
+     * Set a number value
+     * @param column Index of the key in the schema
+     * @param value The value
+     * @return This object, for chaining
+     */
+    public PropertyValues set(int column, double value) {
+        types[column] = TYPE_NUMBER;
+        numbers[column] = value;
+        strings[column] = null;
+        return this;
+    }
+
+    /**
+     * Set an integer value; it is stored as a double
+     * @param column Index of the key in the schema
+     * @param value The value
+     * @return This object, for chaining
+     */
+    public PropertyValues set(int column, long value) {
+        return set(column, (double) value);
+    }
+
+    /**
+     * Set a boolean value; it is stored as the number 1 or 0
+     * @param column Index of the key in the schema
+     * @param value The value
+     * @return This object, for chaining
+     */
+    public PropertyValues set(int column, boolean value) {
+        return set(column, value ? 1.0 : 0.0);
+    }
+
+    /**
+     * Set a string value
+     * @param key A key of the schema
+     * @param value The value; null removes the value
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the key is not in the schema
+     */
+    public PropertyValues set(String key, String value) {
+        return set(column(key), value);
+    }
+
+    /**
+     * Set a number value
+     * @param key A key of the schema
+     * @param value The value
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the key is not in the schema
+     */
+    public PropertyValues set(String key, double value) {
+        return set(column(key), value);
+    }
+
+    /**
+     * Set an integer value; it is stored as a double
+     * @param key A key of the schema
+     * @param value The value
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the key is not in the schema
+     */
+    public PropertyValues set(String key, long value) {
+        return set(column(key), value);
+    }
+
+    /**
+     * Set a boolean value; it is stored as the number 1 or 0
+     * @param key A key of the schema
+     * @param value The value
+     * @return This object, for chaining
+     * @throws IllegalArgumentException If the key is not in the schema
+     */
+    public PropertyValues set(String key, boolean value) {
+        return set(column(key), value);
+    }
+
+    /**
+     * Remove a value
+     * @param column Index of the key in the schema
+     * @return This object, for chaining
+     */
+    public PropertyValues remove(int column) {
+        types[column] = TYPE_NONE;
+        strings[column] = null;
+        return this;
+    }
+
+    /**
+     * Remove all values
+     * @return This object, for chaining
+     */
+    public PropertyValues clear() {
+        Arrays.fill(types, TYPE_NONE);
+        Arrays.fill(strings, null);
+        return this;
+    }
+
+    // The values as strings by key, as the map stores them
+    Map<String, String> toMap() {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] == TYPE_STRING) {
+                map.put(schema.getKey(i), strings[i]);
+            } else if (types[i] == TYPE_NUMBER) {
+                map.put(schema.getKey(i), numberString(numbers[i]));
+            }
+        }
+        return map;
+    }
+
+    // Integral numbers without a fraction, e.g. "42" rather than "42.0"
+    static String numberString(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    private int column(String key) {
+        int column = schema.indexOf(key);
+        if (column < 0) {
+            throw new IllegalArgumentException("Property key '" + key + "' is not in the schema");
+        }
+        return column;
+    }
+
+}
@@ -0,0 +1,439 @@
+package com.mapzen.tangram;
+
+import android.util.Log;
+
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import com.squareup.okhttp.ResponseBody;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * {@code RegionPrefetch} downloads every tile of a region, over a range of zoom levels, through
+ * an {@link HttpHandler} so that the tiles are available from its cache when the region is
+ * viewed later. Create one with {@link MapController#prefetchRegion}.
+ *
+ * Tiles are requested with the lowest priority and a bounded number of requests in flight, so
+ * that tiles needed by the map view are sent first. If a checkpoint file is given, progress is
+ * saved to it periodically and a new prefetch of the same region with the same file continues
+ * where the previous one stopped, e.g. after the process was killed.
+ */
+public class RegionPrefetch {
+
+    /**
+     * Receives the progress of a {@code RegionPrefetch}; methods are called from network threads
+     */
+    public interface Listener {
+        /**
+         * Called after each tile has been downloaded or has failed
+         * @param completedTiles Number of tiles downloaded successfully
+         * @param failedTiles Number of tiles that could not be downloaded
+         * @param totalTiles Number of tiles in the region
+         * @param bytes Number of bytes downloaded
+         */
+        void onProgress(long completedTiles, long failedTiles, long totalTiles, long bytes);
+
+        /**
+         * Called once every tile has been requested and answered; not called if the prefetch
+         * is cancelled
+         * @param completedTiles Number of tiles downloaded successfully
+         * @param failedTiles Number of tiles that could not be downloaded
+         * @param bytes Number of bytes downloaded
+         */
+        void onComplete(long completedTiles, long failedTiles, long bytes);
+    }
+
+    static final int DEFAULT_MAX_REQUESTS = 4;
+
+    private static final String TAG = "Tangram";
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final int CHECKPOINT_INTERVAL = 64;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    // Prefetched tiles are only sent when no tile of the map view is waiting
+    private static final double PRIORITY = Double.MAX_VALUE;
+
+    /**
+     * A rectangle of tiles at one zoom level of one data source
+     */
+    private static class TileRange {
+        final String urlTemplate;
+        final String[] subdomains;
+        final int z, minX, minY, width, height;
+
+        TileRange(String urlTemplate, String[] subdomains, int z, int minX, int minY, int maxX, int maxY) {
+            this.urlTemplate = urlTemplate;
+            this.subdomains = subdomains;
+            this.z = z;
+            this.minX = minX;
+            this.minY = minY;
+            this.width = maxX - minX + 1;
+            this.height = maxY - minY + 1;
+        }
+
+        long count() {
+            return (long) width * height;
+        }
+
+        String url(long index) {
+            int x = minX + (int) (index / height);
+            int y = minY + (int) (index % height);
+            String url = urlTemplate.replace("{x}", String.valueOf(x))
+                    .replace("{y}", String.valueOf(y))
+                    .replace("{z}", String.valueOf(z));
+            if (subdomains.length > 0) {
+                // Same host as the map requests the tile from, see DataSource::constructURL
+                url = url.replace("{s}", subdomains[(x + y) % subdomains.length]);
+            }
+            return url;
+        }
+    }
+
+    private final HttpHandler httpHandler;
+    private final Listener listener;
+    private final File checkpoint;
+    private final String regionKey;
+    private final TileRange[] ranges;
+    private final long totalTiles;
+    private final int maxRequests;
+
+    // Index of the next tile to request, in the order of ranges
+    private long nextTile = 0;
+    private int inFlight = 0;
+    private boolean cancelled = false;
+
+    // Every tile below this index is finished; tiles finished out of order wait in finishedTiles
+    // (mapped to their size in bytes, or -1 for failures) until the tiles before them are done
+    private long finishedPrefix = 0;
+    private final Map<Long, Long> finishedTiles = new HashMap<>();
+
+    // Totals of the tiles below finishedPrefix, which are saved in the checkpoint
+    private long prefixCompleted = 0;
+    private long prefixFailed = 0;
+    private long prefixBytes = 0;
+
+    // Totals of every finished tile
+    private long completedTiles = 0;
+    private long failedTiles = 0;
+    private long bytes = 0;
+
+    private final Object checkpointLock = new Object();
+    private long checkpointedPrefix = 0;
+
+    /**
+     * For package-internal use only; create a prefetch, which starts with {@link #start()}
+     * @param httpHandler Handler used to request the tiles
+     * @param sourceUrls Triples of URL template, maximum zoom level and comma-separated URL
+     * subdomains of the tiled data sources
+     * @param southWest South-west corner of the region
+     * @param northEast North-east corner of the region
+     * @param minZoom Lowest zoom level to download
+     * @param maxZoom Highest zoom level to download; each data source is limited to its own
+     * maximum zoom level
+     * @param maxRequests Maximum number of tile requests in flight
+     * @param checkpoint File in which progress is saved, or null
+     * @param listener Listener for progress, or null
+     */
+    RegionPrefetch(HttpHandler httpHandler, String[] sourceUrls, LngLat southWest, LngLat northEast,
+                   int minZoom, int maxZoom, int maxRequests, File checkpoint, Listener listener) {
+        if (minZoom < 0 || maxZoom < minZoom) {
+            throw new IllegalArgumentException("Invalid zoom range: " + minZoom + " - " + maxZoom);
+        }
+        if (maxRequests < 1) {
+            throw new IllegalArgumentException("maxRequests < 1: " + maxRequests);
+        }
+        this.httpHandler = httpHandler;
+        this.maxRequests = maxRequests;
+        this.checkpoint = checkpoint;
+        this.listener = listener;
+
+        double west = Math.min(southWest.longitude, northEast.longitude);
+        double east = Math.max(southWest.longitude, northEast.longitude);
+        double south = Math.min(southWest.latitude, northEast.latitude);
+        double north = Math.max(southWest.latitude, northEast.latitude);
+
+        StringBuilder key = new StringBuilder();
+        key.append(west).append(',').append(south).append(',').append(east).append(',').append(north)
+                .append(',').append(minZoom).append(',').append(maxZoom);
+
+        int rangeCount = 0;
+        TileRange[] allRanges = new TileRange[(sourceUrls.length / 3) * (maxZoom - minZoom + 1)];
+        long total = 0;
+        for (int i = 0; i + 2 < sourceUrls.length; i += 3) {
+            String urlTemplate = sourceUrls[i];
+            int sourceMaxZoom = Integer.parseInt(sourceUrls[i + 1]);
+            String[] subdomains = sourceUrls[i + 2].isEmpty() ? new String[0] : sourceUrls[i + 2].split(",");
+            key.append('\n').append(urlTemplate);
+
+            // Tiles beyond the maximum zoom of a source are drawn from its tiles at that zoom
+            int fromZoom = Math.min(minZoom, sourceMaxZoom);
+            int toZoom = Math.min(maxZoom, sourceMaxZoom);
+            for (int z = fromZoom; z <= toZoom; z++) {
+                TileRange range = new TileRange(urlTemplate, subdomains, z,
+                        lngToTileX(west, z), latToTileY(north, z),
+                        lngToTileX(east, z), latToTileY(south, z));
+                allRanges[rangeCount++] = range;
+                total += range.count();
+            }
+        }
+        ranges = new TileRange[rangeCount];
+        System.arraycopy(allRanges, 0, ranges, 0, rangeCount);
+        totalTiles = total;
+        regionKey = key.toString();
+    }
+
+    /**
+     * Get the number of tiles in the region, over all data sources and zoom levels
+     * @return The number of tiles
+     */
+    public long getTotalTiles() {
+        return totalTiles;
+    }
+
+    /**
+     * Stop requesting tiles; requests already in flight are completed and saved in the
+     * checkpoint, so that the prefetch can be resumed later
+     */
+    public void cancel() {
+        synchronized (this) {
+            cancelled = true;
+        }
+        saveCheckpoint();
+    }
+
+    /**
+     * For package-internal use only; resume from the checkpoint and begin requesting tiles
+     */
+    void start() {
+        loadCheckpoint();
+        synchronized (this) {
+            nextTile = finishedPrefix;
+            completedTiles = prefixCompleted;
+            failedTiles = prefixFailed;
+            bytes = prefixBytes;
+        }
+        if (finishedPrefix >= totalTiles) {
+            finish();
+            return;
+        }
+        startRequests();
+    }
+
+    private void startRequests() {
+        while (true) {
+            final long index;
+            String url;
+            synchronized (this) {
+                if (cancelled || inFlight >= maxRequests || nextTile >= totalTiles) {
+                    return;
+                }
+                index = nextTile++;
+                inFlight++;
+                url = urlForTile(index);
+            }
+            Callback callback = new Callback() {
+                @Override
+                public void onFailure(Request request, IOException e) {
+                    onTileFinished(index, -1);
+                }
+
+                @Override
+                public void onResponse(Response response) throws IOException {
+                    ResponseBody body = response.body();
+                    long length = -1;
+                    try {
+                        if (response.isSuccessful()) {
+                            // Reading the body through is what stores it in the cache
+                            BufferedSource source = body.source();
+                            Buffer sink = new Buffer();
+                            long n;
+                            length = 0;
+                            while ((n = source.read(sink, 8192)) != -1) {
+                                length += n;
+                                sink.clear();
+                            }
+                        }
+                    } catch (IOException e) {
+                        length = -1;
+                    } finally {
+                        body.close();
+                        onTileFinished(index, length);
+                    }
+                }
+            };
+            if (!httpHandler.onRequest(url, callback, PRIORITY)) {
+                onTileFinished(index, -1);
+            }
+        }
+    }
+
+    private String urlForTile(long index) {
+        for (TileRange range : ranges) {
+            long count = range.count();
+            if (index < count) {
+                return range.url(index);
+            }
+            index -= count;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    private void onTileFinished(long index, long length) {
+        boolean checkpointDue;
+        boolean done;
+        long completed, failed, total;
+        synchronized (this) {
+            inFlight--;
+            long previousPrefix = finishedPrefix;
+            finishTile(index, length);
+            checkpointDue = finishedPrefix / CHECKPOINT_INTERVAL != previousPrefix / CHECKPOINT_INTERVAL;
+            done = finishedPrefix >= totalTiles;
+            completed = completedTiles;
+            failed = failedTiles;
+            total = bytes;
+        }
+        if (listener != null) {
+            listener.onProgress(completed, failed, totalTiles, total);
+        }
+        if (done) {
+            finish();
+        } else {
+            if (checkpointDue) {
+                saveCheckpoint();
+            }
+            startRequests();
+        }
+    }
+
+    // Record a finished tile and advance the finished prefix; must hold the lock on this
+    private void finishTile(long index, long length) {
+        if (length >= 0) {
+            completedTiles++;
+            bytes += length;
+        } else {
+            failedTiles++;
+        }
+        finishedTiles.put(index, length);
+        Long next;
+        while ((next = finishedTiles.remove(finishedPrefix)) != null) {
+            if (next >= 0) {
+                prefixCompleted++;
+                prefixBytes += next;
+            } else {
+                prefixFailed++;
+            }
+            finishedPrefix++;
+        }
+    }
+
+    private void finish() {
+        if (checkpoint != null && !checkpoint.delete() && checkpoint.exists()) {
+            Log.w(TAG, "Unable to delete prefetch checkpoint " + checkpoint);
+        }
+        if (listener != null) {
+            long completed, failed, total;
+            synchronized (this) {
+                completed = completedTiles;
+                failed = failedTiles;
+                total = bytes;
+            }
+            listener.onComplete(completed, failed, total);
+        }
+    }
+
+    private void loadCheckpoint() {
+        if (checkpoint == null || !checkpoint.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(checkpoint));
+            try {
+                if (in.readInt() != CHECKPOINT_VERSION || !regionKey.equals(in.readUTF())) {
+                    // Saved for another region or scene; start over
+                    return;
+                }
+                long prefix = in.readLong();
+                long completed = in.readLong();
+                long failed = in.readLong();
+                long loadedBytes = in.readLong();
+                synchronized (this) {
+                    finishedPrefix = Math.min(prefix, totalTiles);
+                    prefixCompleted = completed;
+                    prefixFailed = failed;
+                    prefixBytes = loadedBytes;
+                }
+                synchronized (checkpointLock) {
+                    checkpointedPrefix = prefix;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read prefetch checkpoint " + checkpoint + ": " + e.getMessage());
+        }
+    }
+
+    private void saveCheckpoint() {
+        if (checkpoint == null) {
+            return;
+        }
+        long prefix, completed, failed, savedBytes;
+        synchronized (this) {
+            prefix = finishedPrefix;
+            completed = prefixCompleted;
+            failed = prefixFailed;
+            savedBytes = prefixBytes;
+        }
+        synchronized (checkpointLock) {
+            if (prefix <= checkpointedPrefix || prefix >= totalTiles) {
+                return;
+            }
+            // Write a new file and rename it, so that a crash cannot leave a partial checkpoint
+            File temp = new File(checkpoint.getPath() + ".tmp");
+            try {
+                DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+                try {
+                    out.writeInt(CHECKPOINT_VERSION);
+                    out.writeUTF(regionKey);
+                    out.writeLong(prefix);
+                    out.writeLong(completed);
+                    out.writeLong(failed);
+                    out.writeLong(savedBytes);
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(checkpoint)) {
+                    throw new IOException("Unable to rename " + temp);
+                }
+                checkpointedPrefix = prefix;
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to save prefetch checkpoint " + checkpoint + ": " + e.getMessage());
+            }
+        }
+    }
+
+    static int lngToTileX(double lng, int z) {
+        int n = 1 << z;
+        int x = (int) Math.floor((lng + 180.0) / 360.0 * n);
+        return Math.max(0, Math.min(n - 1, x));
+    }
+
+    static int latToTileY(double lat, int z) {
+        int n = 1 << z;
+        double rad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+        double y = (1.0 - Math.log(Math.tan(rad) + 1.0 / Math.cos(rad)) / Math.PI) / 2.0 * n;
+        return Math.max(0, Math.min(n - 1, (int) Math.floor(y)));
+    }
+
+}
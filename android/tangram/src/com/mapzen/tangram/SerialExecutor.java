@@ -0,0 +1,53 @@
+package com.mapzen.tangram;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@code SerialExecutor} runs tasks one at a time in the order they were submitted, on the threads
+ * of another executor; several serial executors can share a pool while each keeps its own order.
+ */
+class SerialExecutor implements Executor {
+
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private Runnable active;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (active == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        active = tasks.poll();
+        if (active != null) {
+            try {
+                executor.execute(active);
+            } catch (RejectedExecutionException e) {
+                // The executor was shut down, so no task will run: drop them, and let a later
+                // call fail the same way rather than queue behind a task that never ends
+                tasks.clear();
+                active = null;
+                throw e;
+            }
+        }
+    }
+
+}
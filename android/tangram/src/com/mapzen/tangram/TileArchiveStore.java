@@ -0,0 +1,148 @@
+package com.mapzen.tangram;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@code TileArchiveStore} is a {@link TileStore} that serves tiles from a memory-mapped tile
+ * archive, as written by {@code scripts/tilepack.py}.
+ *
+ * An archive is a little-endian file made of a 16-byte header ({@code "TPAK"}, format version,
+ * tile count and a reserved word), a directory of 20-byte entries sorted by tile key (a 64-bit
+ * key packing z, x and y, followed by a 64-bit data offset and a 32-bit data length) and the
+ * contiguous tile data. A lookup is a binary search over the mapped directory and returns a view
+ * of the mapped tile data, so tiles are never copied into the Java heap.
+ *
+ * Tile coordinates are taken from the URL in the same way as {@link MBTilesStore}.
+ */
+public class TileArchiveStore implements TileStore {
+
+    static final int MAGIC = 0x4b415054; // "TPAK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 20;
+
+    private static final Pattern DEFAULT_URL_PATTERN =
+            Pattern.compile("/(\\d+)/(\\d+)/(\\d+)(?:@\\d+x)?\\.\\w+(?:\\?.*)?$");
+
+    private final MappedByteBuffer archive;
+    private final int tileCount;
+    private Pattern urlPattern = DEFAULT_URL_PATTERN;
+
+    /**
+     * Open a tile archive
+     * @param file The archive file; it must be smaller than 2 GB
+     * @throws IOException If the file cannot be mapped or is not a tile archive
+     */
+    public TileArchiveStore(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Tile archive too large: " + file);
+            }
+            archive = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+        archive.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (archive.limit() < HEADER_SIZE || archive.getInt(0) != MAGIC) {
+            throw new IOException("Not a tile archive: " + file);
+        }
+        if (archive.getInt(4) != VERSION) {
+            throw new IOException("Unsupported tile archive version " + archive.getInt(4) + ": " + file);
+        }
+        tileCount = archive.getInt(8);
+        if (tileCount < 0 || HEADER_SIZE + (long) tileCount * ENTRY_SIZE > archive.limit()) {
+            throw new IOException("Corrupt tile archive directory: " + file);
+        }
+    }
+
+    /**
+     * Set the pattern used to find the tile coordinates in a URL
+     * @param pattern A pattern with three groups matching the zoom, x and y coordinates of a
+     * tile, in that order
+     */
+    public void setUrlPattern(Pattern pattern) {
+        urlPattern = pattern;
+    }
+
+    /**
+     * Get the number of tiles in this archive
+     * @return The number of tiles
+     */
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    @Override
+    public ByteBuffer read(String url) throws IOException {
+        Matcher matcher = urlPattern.matcher(url);
+        if (!matcher.find()) {
+            return null;
+        }
+        return read(Integer.parseInt(matcher.group(1)),
+                    Integer.parseInt(matcher.group(2)),
+                    Integer.parseInt(matcher.group(3)));
+    }
+
+    /**
+     * Read a tile by its coordinates
+     * @param z Zoom level
+     * @param x Column, counting from the left
+     * @param y Row, counting from the top
+     * @return A read-only view of the tile data, or null if the archive does not contain the tile
+     * @throws IOException If the directory entry points outside of the archive
+     */
+    public ByteBuffer read(int z, int x, int y) throws IOException {
+        int index = find(key(z, x, y));
+        if (index < 0) {
+            return null;
+        }
+        int entry = HEADER_SIZE + index * ENTRY_SIZE;
+        long offset = archive.getLong(entry + 8);
+        int length = archive.getInt(entry + 16);
+        if (offset < 0 || length < 0 || offset + length > archive.limit()) {
+            throw new IOException("Corrupt tile archive entry for " + z + "/" + x + "/" + y);
+        }
+        ByteBuffer tile = archive.asReadOnlyBuffer();
+        tile.limit((int) offset + length);
+        tile.position((int) offset);
+        return tile;
+    }
+
+    /**
+     * Pack tile coordinates into the key used to sort the directory
+     */
+    static long key(int z, int x, int y) {
+        return ((long) z << 58) | ((long) x << 29) | (long) y;
+    }
+
+    // Binary search over the directory; returns the entry index or -1
+    private int find(long key) {
+        int low = 0;
+        int high = tileCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midKey = archive.getLong(HEADER_SIZE + mid * ENTRY_SIZE);
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.mapzen.tangram;
+
+/**
+ * {@code TileQualityController} lowers the zoom of the tiles requested by the map when the
+ * throughput measured by {@link HttpHandler} is low, so that fewer and smaller tiles are loaded
+ * and overzoomed, and raises it again when the throughput recovers. Changes are one zoom level at
+ * a time and at most one per {@link #MIN_CHANGE_INTERVAL_MILLIS}, so that the estimate can
+ * settle at the new level before the next change.
+ */
+class TileQualityController implements NetworkStatsCollector.ThroughputListener {
+
+    /**
+     * Applies a zoom reduction to the tile sources of the map
+     */
+    interface Target {
+        void setTileZoomReduction(int levels);
+    }
+
+    static final long DEFAULT_LOW_THROUGHPUT = 48 * 1024;
+    static final long DEFAULT_HIGH_THROUGHPUT = 128 * 1024;
+    static final int DEFAULT_MAX_REDUCTION = 2;
+
+    private static final long MIN_CHANGE_INTERVAL_MILLIS = 10000;
+
+    private final Target target;
+    private boolean enabled = false;
+    private long lowThroughput = DEFAULT_LOW_THROUGHPUT;
+    private long highThroughput = DEFAULT_HIGH_THROUGHPUT;
+    private int maxReduction = DEFAULT_MAX_REDUCTION;
+    private int reduction = 0;
+    private long lastChange = 0;
+
+    TileQualityController(Target target) {
+        this.target = target;
+    }
+
+    synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            setReduction(0);
+        }
+    }
+
+    synchronized void configure(long lowThroughput, long highThroughput, int maxReduction) {
+        this.lowThroughput = lowThroughput;
+        this.highThroughput = highThroughput;
+        this.maxReduction = maxReduction;
+        if (reduction > maxReduction) {
+            setReduction(maxReduction);
+        }
+    }
+
+    synchronized int getReduction() {
+        return reduction;
+    }
+
+    @Override
+    public synchronized void onThroughputChanged(long bytesPerSecond) {
+        if (!enabled || now() - lastChange < MIN_CHANGE_INTERVAL_MILLIS) {
+            return;
+        }
+        if (bytesPerSecond < lowThroughput && reduction < maxReduction) {
+            setReduction(reduction + 1);
+        } else if (bytesPerSecond > highThroughput && reduction > 0) {
+            setReduction(reduction - 1);
+        }
+    }
+
+    private void setReduction(int reduction) {
+        if (reduction == this.reduction) {
+            return;
+        }
+        this.reduction = reduction;
+        lastChange = now();
+        target.setTileZoomReduction(reduction);
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.mapzen.tangram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@code TileStore} is an interface for providing map resources from local storage; a store set
+ * with {@link MapController#setTileStore(TileStore)} is queried before any network request is
+ * made. Methods are called from background threads and may be called concurrently.
+ */
+public interface TileStore {
+
+    /**
+     * Read the data for a resource from this store
+     * @param url URL of the requested resource
+     * @return A buffer holding the data between its position and limit, or null if the store
+     * does not contain the resource. Direct buffers are passed to native code without copying
+     * into the Java heap.
+     * @throws IOException If the store contains the resource but it could not be read
+     */
+    ByteBuffer read(String url) throws IOException;
+
+}
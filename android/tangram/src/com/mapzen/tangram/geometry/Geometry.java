@@ -1,22 +1,49 @@
 package com.mapzen.tangram.geometry;
 
+import com.mapzen.tangram.LngLat;
+
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * {@code Geometry} is an abstract container of LngLat points and associated properties.
  *
- * Users of Tangram do not need to use this class.
+ * Users of Tangram only need its subclasses to add features with an id, see
+ * {@link com.mapzen.tangram.MapData#updateFeature(long, Geometry)}.
  */
 public abstract class Geometry {
 
     protected double[] coordinates;
+    // Set instead of coordinates for features created from fixed-point coordinates
+    protected int[] coordinatesE7;
     protected int[] rings;
     protected String[] properties;
 
+    /**
+     * Get the interleaved longitudes and latitudes of this feature; they are converted each time
+     * for a feature created from fixed-point coordinates
+     * @return The coordinates in degrees
+     */
     public double[] getCoordinateArray() {
+        if (coordinates == null && coordinatesE7 != null) {
+            double[] degrees = new double[coordinatesE7.length];
+            for (int i = 0; i < degrees.length; i++) {
+                degrees[i] = LngLat.fromE7(coordinatesE7[i]);
+            }
+            return degrees;
+        }
         return coordinates;
     }
 
+    /**
+     * Get the fixed-point coordinates of this feature
+     * @return Interleaved longitudes and latitudes in units of 1e-7 degrees, or null if this
+     * feature was not created from fixed-point coordinates
+     */
+    public int[] getCoordinateE7Array() {
+        return coordinatesE7;
+    }
+
     public int[] getRingArray() {
         return rings;
     }
@@ -25,6 +52,20 @@ public abstract class Geometry {
         return properties;
     }
 
+    /**
+     * Get the properties of this feature
+     * @return The properties; empty if it has none
+     */
+    public Map<String, String> getProperties() {
+        Map<String, String> map = new HashMap<>();
+        if (properties != null) {
+            for (int i = 0; i < properties.length; i += 2) {
+                map.put(properties[i], properties[i + 1]);
+            }
+        }
+        return map;
+    }
+
     protected String[] getStringMapAsArray(Map<String, String> properties) {
         String[] out = new String[properties.size() * 2];
         int i = 0;
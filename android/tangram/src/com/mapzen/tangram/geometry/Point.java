@@ -2,14 +2,12 @@ package com.mapzen.tangram.geometry;
 
 import com.mapzen.tangram.LngLat;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
- * {@code Point} is a single LngLat and its properties.
- *
- * Users of Tangram do not need to use this class.
+ * {@code Point} is a single LngLat and its properties, e.g. a point of a cluster, see
+ * {@link com.mapzen.tangram.MapData#getClusterLeaves(long, int, int)}, or a feature found with
+ * {@link com.mapzen.tangram.MapData#queryBounds(LngLat, LngLat)}.
  */
 public class Point extends Geometry {
 
@@ -22,4 +20,37 @@ public class Point extends Geometry {
         }
 
     }
+
+    public Point(double longitude, double latitude, Map<String, String> properties) {
+        this(new LngLat(longitude, latitude), properties);
+    }
+
+    private Point() {}
+
+    /**
+     * Create a point from fixed-point coordinates, which take half of the memory of degrees
+     * @param longitudeE7 The longitude in units of 1e-7 degrees, see {@link LngLat#toE7(double)}
+     * @param latitudeE7 The latitude in units of 1e-7 degrees
+     * @param properties The properties of the point; may be null
+     * @return The point
+     */
+    public static Point fromE7(int longitudeE7, int latitudeE7, Map<String, String> properties) {
+        Point point = new Point();
+        point.coordinatesE7 = new int[] { longitudeE7, latitudeE7 };
+        if (properties != null) {
+            point.properties = point.getStringMapAsArray(properties);
+        }
+        return point;
+    }
+
+    /**
+     * Get the coordinates of this point
+     * @return The coordinates
+     */
+    public LngLat getLngLat() {
+        if (coordinates == null) {
+            return new LngLat(LngLat.fromE7(coordinatesE7[0]), LngLat.fromE7(coordinatesE7[1]));
+        }
+        return new LngLat(coordinates[0], coordinates[1]);
+    }
 }
@@ -2,13 +2,15 @@ package com.mapzen.tangram.geometry;
 
 import com.mapzen.tangram.LngLat;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
  * {@code Polygon} is a sequence of rings of LngLat points and its properties.
  *
- * Users of Tangram do not need to use this class.
+ * Users of Tangram get it from feature queries such as
+ * {@link com.mapzen.tangram.MapData#queryBounds(LngLat, LngLat)}.
  */
 public class Polygon extends Geometry {
 
@@ -33,4 +35,41 @@ public class Polygon extends Geometry {
         }
     }
 
+    public Polygon(double[] coordinates, int offset, int[] rings, Map<String, String> properties) {
+        this.rings = rings.clone();
+        int n_points = 0;
+        for (int ring : rings) {
+            n_points += ring;
+        }
+        this.coordinates = Arrays.copyOfRange(coordinates, offset, offset + 2 * n_points);
+        if (properties != null) {
+            this.properties = getStringMapAsArray(properties);
+        }
+    }
+
+    private Polygon() {}
+
+    /**
+     * Create a polygon from fixed-point coordinates, which take half of the memory of degrees
+     * @param coordinatesE7 Interleaved longitudes and latitudes of the points of all rings, in
+     * units of 1e-7 degrees, see {@link LngLat#toE7(double)}
+     * @param offset Index of the longitude of the first point in the array
+     * @param rings Number of points in each ring
+     * @param properties The properties of the polygon; may be null
+     * @return The polygon
+     */
+    public static Polygon fromE7(int[] coordinatesE7, int offset, int[] rings, Map<String, String> properties) {
+        Polygon polygon = new Polygon();
+        polygon.rings = rings.clone();
+        int n_points = 0;
+        for (int ring : rings) {
+            n_points += ring;
+        }
+        polygon.coordinatesE7 = Arrays.copyOfRange(coordinatesE7, offset, offset + 2 * n_points);
+        if (properties != null) {
+            polygon.properties = polygon.getStringMapAsArray(properties);
+        }
+        return polygon;
+    }
+
 }
@@ -2,13 +2,15 @@ package com.mapzen.tangram.geometry;
 
 import com.mapzen.tangram.LngLat;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
 /**
  * {@code Polyline} is a sequence of LngLat points and its properties.
  *
- * Users of Tangram do not need to use this class.
+ * Users of Tangram get it from feature queries such as
+ * {@link com.mapzen.tangram.MapData#queryBounds(LngLat, LngLat)}.
  */
 public class Polyline extends Geometry {
 
@@ -23,5 +25,32 @@ public class Polyline extends Geometry {
             this.properties = getStringMapAsArray(properties);
         }
     }
-    
+
+    public Polyline(double[] coordinates, int offset, int length, Map<String, String> properties) {
+        this.coordinates = Arrays.copyOfRange(coordinates, offset, offset + length);
+        if (properties != null) {
+            this.properties = getStringMapAsArray(properties);
+        }
+    }
+
+    private Polyline() {}
+
+    /**
+     * Create a polyline from fixed-point coordinates, which take half of the memory of degrees
+     * @param coordinatesE7 Interleaved longitudes and latitudes in units of 1e-7 degrees, see
+     * {@link LngLat#toE7(double)}
+     * @param offset Index of the longitude of the first point in the array
+     * @param length Number of values to use, twice the number of points
+     * @param properties The properties of the line; may be null
+     * @return The polyline
+     */
+    public static Polyline fromE7(int[] coordinatesE7, int offset, int length, Map<String, String> properties) {
+        Polyline polyline = new Polyline();
+        polyline.coordinatesE7 = Arrays.copyOfRange(coordinatesE7, offset, offset + length);
+        if (properties != null) {
+            polyline.properties = polyline.getStringMapAsArray(properties);
+        }
+        return polyline;
+    }
+
 }
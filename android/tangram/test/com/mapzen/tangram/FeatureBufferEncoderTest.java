@@ -0,0 +1,89 @@
+package com.mapzen.tangram;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the output of {@link FeatureBufferEncoder} with the buffers that the native decoder is
+ * tested with in tests/unit/featureBufferTests.cpp.
+ */
+public class FeatureBufferEncoderTest {
+
+    // The buffer of "Decode a feature buffer written by hand"
+    private static final byte[] HAND_WRITTEN = bytes(
+            1,                          // version
+            1, 4, 'k', 'i', 'n', 'd',   // key table
+            2,                          // feature count
+            0, 1, 1,                    // point, one ring of one point
+            0x80, 0xad, 0xe2, 0x04,     // dx = 5000000 (0.5 degrees)
+            0x01,                       // dy = -1
+            1, 0, 0, 3, 'b', 'u', 's',  // kind = "bus"
+            0, 1, 1, 4, 4,              // point at dx = 2, dy = 2 from the previous point
+            1, 0, 2, 0x0d);             // kind = -7
+
+    @Test
+    public void encodesNativeFixture() {
+        FeatureBufferEncoder encoder = new FeatureBufferEncoder();
+        addFixture(encoder);
+
+        assertEquals(2, encoder.size());
+        assertArrayEquals(HAND_WRITTEN, toArray(encoder.toByteBuffer()));
+    }
+
+    @Test
+    public void clearStartsNewBuffer() {
+        FeatureBufferEncoder encoder = new FeatureBufferEncoder();
+        encoder.addPoint(10, 10, Collections.singletonMap("name", "other"));
+        encoder.clear();
+        addFixture(encoder);
+
+        assertArrayEquals(HAND_WRITTEN, toArray(encoder.toByteBuffer()));
+    }
+
+    @Test
+    public void encodesNumbersByValue() {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("ratio", 0.25);
+        properties.put("skipped", null);
+        FeatureBufferEncoder encoder = new FeatureBufferEncoder();
+        encoder.addPoint(0, 0, properties);
+        encoder.addPoint(0, 0, Collections.singletonMap("ratio", 12.0));
+
+        byte[] expected = bytes(
+                1,
+                1, 5, 'r', 'a', 't', 'i', 'o',
+                2,
+                0, 1, 1, 0, 0,
+                1, 0, 1, 0, 0, 0, 0, 0, 0, 0xd0, 0x3f,  // ratio = 0.25, little-endian double
+                0, 1, 1, 0, 0,
+                1, 0, 2, 24);                           // ratio = 12, integral
+        assertArrayEquals(expected, toArray(encoder.toByteBuffer()));
+    }
+
+    private static void addFixture(FeatureBufferEncoder encoder) {
+        encoder.addPoint(new LngLat(0.5, -1e-7), Collections.singletonMap("kind", "bus"));
+        encoder.addPoint(0.5000002, 1e-7, Collections.singletonMap("kind", -7));
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] out = new byte[buffer.remaining()];
+        buffer.get(out);
+        return out;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] out = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            out[i] = (byte) values[i];
+        }
+        return out;
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.mapzen.tangram;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Reads tiles from an MBTiles file generated for each test, through JDBC instead of the
+ * android.database connections of {@link MBTilesStore}.
+ */
+public class MBTilesStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Test
+    public void flipsRowsFromTms() throws Exception {
+        File file = createFixture();
+        MBTilesStore store = open(file);
+        try {
+            // Row 3 of zoom 2 is the top row, y = 0 in tile URLs
+            assertEquals("2/1/0", string(store.read("https://tiles.example.com/2/1/0.mvt")));
+            assertEquals("2/1/3", string(store.read("https://tiles.example.com/2/1/3.mvt")));
+            assertEquals("0/0/0", string(store.read("https://tiles.example.com/0/0/0.mvt?key=abc")));
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void returnsNullForMissingTiles() throws Exception {
+        File file = createFixture();
+        MBTilesStore store = open(file);
+        try {
+            assertNull(store.read("https://tiles.example.com/2/2/0.mvt"));
+            assertNull(store.read("https://tiles.example.com/5/1/0.mvt"));
+            // Not a tile URL
+            assertNull(store.read("https://tiles.example.com/style.yaml"));
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void inflatesGzippedTiles() throws Exception {
+        File file = createFixture();
+        MBTilesStore store = open(file);
+        try {
+            assertEquals("2/3/2", string(store.read("https://tiles.example.com/2/3/2@2x.mvt")));
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void usesUrlPattern() throws Exception {
+        File file = createFixture();
+        MBTilesStore store = open(file);
+        try {
+            store.setUrlPattern(Pattern.compile("z=(\\d+)&x=(\\d+)&y=(\\d+)"));
+            assertEquals("2/1/3", string(store.read("https://tiles.example.com/tile?z=2&x=1&y=3")));
+            assertNull(store.read("https://tiles.example.com/2/1/3.mvt"));
+        } finally {
+            store.close();
+            file.delete();
+        }
+    }
+
+    // An MBTiles file with the tiles 0/0/0, 2/1/0 and 2/1/3, and 2/3/2 gzip-compressed, whose
+    // data is their z/x/y coordinates in the XYZ scheme
+    private static File createFixture() throws Exception {
+        File file = File.createTempFile("fixture", ".mbtiles");
+        java.sql.Connection db = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        try {
+            Statement statement = db.createStatement();
+            statement.execute("CREATE TABLE metadata (name TEXT, value TEXT)");
+            statement.execute("CREATE TABLE tiles (zoom_level INTEGER, tile_column INTEGER, "
+                    + "tile_row INTEGER, tile_data BLOB)");
+            statement.execute("CREATE UNIQUE INDEX tile_index ON tiles (zoom_level, tile_column, tile_row)");
+            statement.execute("INSERT INTO metadata VALUES ('format', 'pbf')");
+            statement.close();
+
+            PreparedStatement insert = db.prepareStatement("INSERT INTO tiles VALUES (?, ?, ?, ?)");
+            insertTile(insert, 0, 0, 0, false);
+            insertTile(insert, 2, 1, 0, false);
+            insertTile(insert, 2, 1, 3, false);
+            insertTile(insert, 2, 3, 2, true);
+            insert.close();
+        } finally {
+            db.close();
+        }
+        return file;
+    }
+
+    private static void insertTile(PreparedStatement insert, int z, int x, int y, boolean gzip)
+            throws SQLException, IOException {
+        byte[] data = (z + "/" + x + "/" + y).getBytes(UTF_8);
+        if (gzip) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GZIPOutputStream gzipOut = new GZIPOutputStream(out);
+            gzipOut.write(data);
+            gzipOut.close();
+            data = out.toByteArray();
+        }
+        insert.setInt(1, z);
+        insert.setInt(2, x);
+        insert.setInt(3, (1 << z) - 1 - y);
+        insert.setBytes(4, data);
+        insert.executeUpdate();
+    }
+
+    private static MBTilesStore open(File file) throws SQLException {
+        return new MBTilesStore(new MBTilesStore.Connection[] {
+                new JdbcConnection(file), new JdbcConnection(file) });
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static class JdbcConnection implements MBTilesStore.Connection {
+
+        private final java.sql.Connection db;
+
+        JdbcConnection(File file) throws SQLException {
+            db = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        }
+
+        @Override
+        public byte[] read(int z, int x, int row) throws IOException {
+            try {
+                PreparedStatement query = db.prepareStatement(
+                        "SELECT tile_data FROM tiles WHERE zoom_level = ? AND tile_column = ? AND tile_row = ?");
+                try {
+                    query.setInt(1, z);
+                    query.setInt(2, x);
+                    query.setInt(3, row);
+                    ResultSet result = query.executeQuery();
+                    return result.next() ? result.getBytes(1) : null;
+                } finally {
+                    query.close();
+                }
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                db.close();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+}
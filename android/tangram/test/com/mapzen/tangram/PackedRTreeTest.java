@@ -0,0 +1,173 @@
+package com.mapzen.tangram;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the searches of {@link PackedRTree} with a scan of all items.
+ */
+public class PackedRTreeTest {
+
+    private static final int ITEMS = 5000;
+    private static final int QUERIES = 200;
+
+    @Test
+    public void searchMatchesScan() {
+        Random random = new Random(1);
+        double[] boxes = randomBoxes(random, ITEMS);
+        PackedRTree tree = new PackedRTree(boxes, ITEMS);
+        PackedRTree.Filter even = evenItems();
+
+        for (int q = 0; q < QUERIES; q++) {
+            double minX = random.nextDouble(), minY = random.nextDouble();
+            double maxX = minX + 0.2 * random.nextDouble(), maxY = minY + 0.2 * random.nextDouble();
+
+            int[] expected = scan(boxes, ITEMS, minX, minY, maxX, maxY, null);
+            int[] found = tree.search(minX, minY, maxX, maxY, null);
+            Arrays.sort(found);
+            assertArrayEquals(expected, found);
+
+            expected = scan(boxes, ITEMS, minX, minY, maxX, maxY, even);
+            found = tree.search(minX, minY, maxX, maxY, even);
+            Arrays.sort(found);
+            assertArrayEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void neighborsMatchScan() {
+        Random random = new Random(2);
+        double[] boxes = randomBoxes(random, ITEMS);
+        PackedRTree tree = new PackedRTree(boxes, ITEMS);
+        PackedRTree.Filter even = evenItems();
+
+        for (int q = 0; q < QUERIES; q++) {
+            double x = random.nextDouble(), y = random.nextDouble();
+            int maxResults = 1 + random.nextInt(50);
+            double maxDistance = q % 2 == 0 ? Double.POSITIVE_INFINITY : 0.05 * random.nextDouble();
+            PackedRTree.Filter filter = q % 3 == 0 ? even : null;
+
+            int[] found = tree.neighbors(x, y, maxResults, maxDistance, filter);
+            double[] expected = nearestDistances(boxes, ITEMS, x, y, maxResults, maxDistance, filter);
+            // Items at the same distance may come in any order, so their distances are compared
+            assertEquals(expected.length, found.length);
+            for (int i = 0; i < found.length; i++) {
+                assertTrue(filter == null || filter.accept(found[i]));
+                assertEquals(expected[i], distanceSquared(boxes, found[i], x, y), 0);
+            }
+        }
+    }
+
+    @Test
+    public void emptyTree() {
+        PackedRTree tree = new PackedRTree(new double[0], 0);
+        assertEquals(0, tree.size());
+        assertEquals(0, tree.search(0, 0, 1, 1, null).length);
+        assertEquals(0, tree.neighbors(0, 0, 10, Double.POSITIVE_INFINITY, null).length);
+    }
+
+    @Test
+    public void hilbertMatchesCurve() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100000; i++) {
+            int x = random.nextInt(1 << 16), y = random.nextInt(1 << 16);
+            assertEquals(hilbert(1 << 16, x, y), PackedRTree.hilbert(x, y) & 0xFFFFFFFFL);
+        }
+        // Consecutive positions along the curve are neighboring cells
+        int n = 1 << 6;
+        int[] cells = new int[n * n];
+        for (int x = 0; x < n; x++) {
+            for (int y = 0; y < n; y++) {
+                cells[PackedRTree.hilbert(x, y)] = x * n + y;
+            }
+        }
+        for (int i = 1; i < cells.length; i++) {
+            int dx = Math.abs(cells[i] / n - cells[i - 1] / n);
+            int dy = Math.abs(cells[i] % n - cells[i - 1] % n);
+            assertEquals(1, dx + dy);
+        }
+    }
+
+    private static PackedRTree.Filter evenItems() {
+        return new PackedRTree.Filter() {
+            @Override
+            public boolean accept(int item) {
+                return item % 2 == 0;
+            }
+        };
+    }
+
+    // Mostly small boxes, with some points and a few large boxes
+    private static double[] randomBoxes(Random random, int count) {
+        double[] boxes = new double[4 * count];
+        for (int i = 0; i < count; i++) {
+            double size = i % 10 == 0 ? 0 : i % 100 == 1 ? 0.3 : 0.01;
+            double x = random.nextDouble(), y = random.nextDouble();
+            boxes[4 * i] = x;
+            boxes[4 * i + 1] = y;
+            boxes[4 * i + 2] = x + size * random.nextDouble();
+            boxes[4 * i + 3] = y + size * random.nextDouble();
+        }
+        return boxes;
+    }
+
+    private static int[] scan(double[] boxes, int count, double minX, double minY, double maxX, double maxY,
+                              PackedRTree.Filter filter) {
+        int[] result = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (boxes[4 * i] <= maxX && boxes[4 * i + 1] <= maxY && boxes[4 * i + 2] >= minX
+                    && boxes[4 * i + 3] >= minY && (filter == null || filter.accept(i))) {
+                result[size++] = i;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static double[] nearestDistances(double[] boxes, int count, double x, double y, int maxResults,
+                                             double maxDistance, PackedRTree.Filter filter) {
+        double[] distances = new double[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            double distance = distanceSquared(boxes, i, x, y);
+            if (distance <= maxDistance * maxDistance && (filter == null || filter.accept(i))) {
+                distances[size++] = distance;
+            }
+        }
+        Arrays.sort(distances, 0, size);
+        return Arrays.copyOf(distances, Math.min(size, maxResults));
+    }
+
+    private static double distanceSquared(double[] boxes, int item, double x, double y) {
+        double dx = x < boxes[4 * item] ? boxes[4 * item] - x : x <= boxes[4 * item + 2] ? 0 : x - boxes[4 * item + 2];
+        double dy = y < boxes[4 * item + 1] ? boxes[4 * item + 1] - y : y <= boxes[4 * item + 3] ? 0 : y - boxes[4 * item + 3];
+        return dx * dx + dy * dy;
+    }
+
+    // The usual loop over the levels of a Hilbert curve through an n by n grid
+    private static long hilbert(int n, int x, int y) {
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int t = x;
+                x = y;
+                y = t;
+            }
+        }
+        return d;
+    }
+
+}
@@ -0,0 +1,151 @@
+#include "tangram.h"
+#include "data/clientGeoJsonSource.h"
+#include "data/properties.h"
+#include "data/tileData.h"
+#include "tile/tileTask.h"
+#include "util/featureBuffer.h"
+#include "util/mapProjection.h"
+
+#include <memory>
+#include <string>
+
+#include "benchmark/benchmark_api.h"
+#include "benchmark/benchmark.h"
+
+using namespace Tangram;
+
+static MercatorProjection s_projection;
+
+static LngLat pointAt(int i) {
+    return { -180.0 + (i * 7919 % 36000) / 100.0, -80.0 + (i * 104729 % 16000) / 100.0 };
+}
+
+// Add many features, then build the first tile, as for a batch added from MapData
+static void BM_ClientGeoJson_AddPoints(benchmark::State& state) {
+    Properties properties;
+    properties.set("kind", "poi");
+
+    while (state.KeepRunning()) {
+        auto source = std::make_shared<ClientGeoJsonSource>("bench", "");
+        for (int i = 0; i < state.range_x(); ++i) {
+            source->addPoint(properties, pointAt(i));
+        }
+        auto task = source->createTask(TileID(0, 0, 0), 0);
+        auto data = static_cast<DataSource&>(*source).parse(*task, s_projection);
+        benchmark::DoNotOptimize(data);
+    }
+    state.SetItemsProcessed(state.iterations() * state.range_x());
+}
+BENCHMARK(BM_ClientGeoJson_AddPoints)->Arg(1000)->Arg(10000)->Arg(50000);
+
+// Build a tile after each added feature, as when features trickle in while the map renders
+static void BM_ClientGeoJson_AddPointsInterleaved(benchmark::State& state) {
+    Properties properties;
+    properties.set("kind", "poi");
+
+    while (state.KeepRunning()) {
+        auto source = std::make_shared<ClientGeoJsonSource>("bench", "");
+        for (int i = 0; i < state.range_x(); ++i) {
+            source->addPoint(properties, pointAt(i));
+            auto task = source->createTask(TileID(0, 0, 0), 0);
+            auto data = static_cast<DataSource&>(*source).parse(*task, s_projection);
+            benchmark::DoNotOptimize(data);
+        }
+    }
+    state.SetItemsProcessed(state.iterations() * state.range_x());
+}
+BENCHMARK(BM_ClientGeoJson_AddPointsInterleaved)->Arg(1000);
+
+static Coordinates lineAt(int i) {
+    LngLat start = pointAt(i);
+    Coordinates line;
+    for (int j = 0; j < 8; ++j) {
+        line.push_back({ start.longitude + j * 0.001, start.latitude + (j % 2) * 0.001 });
+    }
+    return line;
+}
+
+static std::string geoJsonLines(int count) {
+    std::string json = "{\"type\":\"FeatureCollection\",\"features\":[";
+    for (int i = 0; i < count; ++i) {
+        if (i > 0) { json += ","; }
+        json += "{\"type\":\"Feature\",\"properties\":{\"kind\":\"path\",\"id\":" + std::to_string(i) +
+            "},\"geometry\":{\"type\":\"LineString\",\"coordinates\":[";
+        auto line = lineAt(i);
+        for (size_t j = 0; j < line.size(); ++j) {
+            if (j > 0) { json += ","; }
+            json += "[" + std::to_string(line[j].longitude) + "," + std::to_string(line[j].latitude) + "]";
+        }
+        json += "]}}";
+    }
+    return json + "]}";
+}
+
+static std::vector<uint8_t> featureBufferLines(int count) {
+    FeatureBuffer::Writer writer;
+    for (int i = 0; i < count; ++i) {
+        Properties properties;
+        properties.set("kind", "path");
+        properties.set("id", double(i));
+        writer.add(FeatureBuffer::FeatureType::line, { lineAt(i) }, properties);
+    }
+    return writer.finish();
+}
+
+// Add the same lines as GeoJSON and as a feature buffer; the inputs are encoded beforehand
+static void BM_ClientGeoJson_AddGeoJson(benchmark::State& state) {
+    auto json = geoJsonLines(state.range_x());
+
+    while (state.KeepRunning()) {
+        auto source = std::make_shared<ClientGeoJsonSource>("bench", "");
+        source->addData(json);
+        benchmark::DoNotOptimize(source);
+    }
+    state.SetItemsProcessed(state.iterations() * state.range_x());
+    state.SetBytesProcessed(state.iterations() * json.size());
+}
+BENCHMARK(BM_ClientGeoJson_AddGeoJson)->Arg(1000)->Arg(10000);
+
+static void BM_ClientGeoJson_AddFeatureBuffer(benchmark::State& state) {
+    auto buffer = featureBufferLines(state.range_x());
+
+    while (state.KeepRunning()) {
+        auto source = std::make_shared<ClientGeoJsonSource>("bench", "");
+        source->addFeatureBuffer(buffer.data(), buffer.size());
+        benchmark::DoNotOptimize(source);
+    }
+    state.SetItemsProcessed(state.iterations() * state.range_x());
+    state.SetBytesProcessed(state.iterations() * buffer.size());
+}
+BENCHMARK(BM_ClientGeoJson_AddFeatureBuffer)->Arg(1000)->Arg(10000);
+
+// Build the low-zoom tiles of many points, with and without clustering; the index is built
+// before timing
+static void BM_ClientGeoJson_LowZoomTiles(benchmark::State& state) {
+    Properties properties;
+    properties.set("kind", "poi");
+
+    auto source = std::make_shared<ClientGeoJsonSource>("bench", "");
+    if (state.range_y()) {
+        source->setClusterOptions(PointClusterer::Options());
+    }
+    for (int i = 0; i < state.range_x(); ++i) {
+        source->addPoint(properties, pointAt(i));
+    }
+    source->buildIndex();
+
+    while (state.KeepRunning()) {
+        for (int z = 0; z <= 2; ++z) {
+            for (int x = 0; x < (1 << z); ++x) {
+                for (int y = 0; y < (1 << z); ++y) {
+                    auto task = source->createTask(TileID(x, y, z), 0);
+                    auto data = static_cast<DataSource&>(*source).parse(*task, s_projection);
+                    benchmark::DoNotOptimize(data);
+                }
+            }
+        }
+    }
+}
+BENCHMARK(BM_ClientGeoJson_LowZoomTiles)->ArgPair(200000, 0)->ArgPair(200000, 1);
+
+BENCHMARK_MAIN();
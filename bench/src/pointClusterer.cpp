@@ -0,0 +1,110 @@
+#include "tangram.h"
+#include "data/properties.h"
+#include "util/pointClusterer.h"
+
+#include <cmath>
+#include <random>
+#include <vector>
+
+#include "benchmark/benchmark_api.h"
+#include "benchmark/benchmark.h"
+
+using namespace Tangram;
+
+// Synthetic points in normalized web mercator coordinates, gathered around a few hundred
+// centers as points of interest are around cities, with a uniform background
+static std::vector<PointClusterer::Input> syntheticPoints(int count) {
+    std::mt19937 random(42);
+    std::uniform_real_distribution<double> uniform(0, 1);
+    std::normal_distribution<double> spread(0, 0.002);
+
+    std::vector<std::pair<double, double>> centers;
+    for (int i = 0; i < 300; ++i) {
+        centers.emplace_back(uniform(random), 0.25 + 0.5 * uniform(random));
+    }
+
+    std::vector<PointClusterer::Input> points;
+    points.reserve(count);
+    for (int i = 0; i < count; ++i) {
+        if (i % 10 == 0) {
+            points.push_back({ uniform(random), uniform(random), nullptr });
+        } else {
+            const auto& c = centers[i % centers.size()];
+            double x = std::fmin(1, std::fmax(0, c.first + spread(random)));
+            double y = std::fmin(1, std::fmax(0, c.second + spread(random)));
+            points.push_back({ x, y, nullptr });
+        }
+    }
+    return points;
+}
+
+static void BM_PointClusterer_Build(benchmark::State& state) {
+    auto points = syntheticPoints(state.range_x());
+
+    while (state.KeepRunning()) {
+        PointClusterer clusterer;
+        clusterer.build(points);
+        benchmark::DoNotOptimize(clusterer);
+    }
+    state.SetItemsProcessed(state.iterations() * state.range_x());
+}
+BENCHMARK(BM_PointClusterer_Build)->Arg(200000)->Arg(1000000);
+
+static void BM_PointClusterer_BuildWithAggregate(benchmark::State& state) {
+    auto points = syntheticPoints(state.range_x());
+    std::vector<Properties> properties(points.size());
+    for (size_t i = 0; i < points.size(); ++i) {
+        properties[i].set("capacity", double(i % 100));
+        points[i].properties = &properties[i];
+    }
+
+    PointClusterer::Options options;
+    options.aggregates.push_back({ "capacity", "capacity", PointClusterer::Reduce::sum });
+
+    while (state.KeepRunning()) {
+        PointClusterer clusterer(options);
+        clusterer.build(points);
+        benchmark::DoNotOptimize(clusterer);
+    }
+    state.SetItemsProcessed(state.iterations() * state.range_x());
+}
+BENCHMARK(BM_PointClusterer_BuildWithAggregate)->Arg(1000000);
+
+// All tiles of a zoom level, as while drawing the map at that zoom
+static void BM_PointClusterer_GetTiles(benchmark::State& state) {
+    PointClusterer clusterer;
+    clusterer.build(syntheticPoints(1000000));
+    int zoom = state.range_x();
+    int tiles = 1 << zoom;
+    size_t items = 0;
+
+    while (state.KeepRunning()) {
+        for (int x = 0; x < tiles; ++x) {
+            for (int y = 0; y < tiles; ++y) {
+                auto tile = clusterer.getTile(zoom, x, y, 64.0 / 4096);
+                items += tile.size();
+                benchmark::DoNotOptimize(tile);
+            }
+        }
+    }
+    state.SetItemsProcessed(items);
+}
+BENCHMARK(BM_PointClusterer_GetTiles)->Arg(0)->Arg(2)->Arg(4);
+
+static void BM_PointClusterer_GetLeaves(benchmark::State& state) {
+    PointClusterer clusterer;
+    clusterer.build(syntheticPoints(1000000));
+    auto world = clusterer.getTile(0, 0, 0);
+
+    while (state.KeepRunning()) {
+        for (const auto& item : world) {
+            if (item.count > 1) {
+                auto leaves = clusterer.getLeaves(item.id, 100, 0);
+                benchmark::DoNotOptimize(leaves);
+            }
+        }
+    }
+}
+BENCHMARK(BM_PointClusterer_GetLeaves);
+
+BENCHMARK_MAIN();
@@ -6,12 +6,15 @@
 #include "platform.h"
 #include "tangram.h"
 #include "tile/tileTask.h"
+#include "util/featureBuffer.h"
 #include "util/geom.h"
 #include "data/propertyItem.h"
 #include "data/tileData.h"
 #include "tile/tile.h"
 #include "view/view.h"
 
+#include <algorithm>
+#include <cmath>
 #include <regex>
 
 using namespace mapbox::util;
@@ -21,6 +24,10 @@ namespace Tangram {
 const double extent = 4096;
 const uint32_t indexMaxPoints = 100000;
 double tolerance = 1E-8;
+// Features within this fraction of a tile outside of it are included in the tile,
+// as by the default buffer of GeoJSONVT
+const double tileBuffer = 64 / extent;
+const size_t maxChanges = 1024;
 
 std::shared_ptr<TileTask> ClientGeoJsonSource::createTask(TileID _tileId, int _subTask) {
     return std::make_shared<TileTask>(_tileId, shared_from_this(), _subTask);
@@ -60,18 +67,133 @@ ClientGeoJsonSource::ClientGeoJsonSource(const std::string& _name, const std::st
 
 ClientGeoJsonSource::~ClientGeoJsonSource() {}
 
+const ClientGeoJsonSource::Bounds ClientGeoJsonSource::emptyBounds = { 2, 2, -1, -1 };
+const ClientGeoJsonSource::Bounds ClientGeoJsonSource::worldBounds = { 0, 0, 1, 1 };
+
+void ClientGeoJsonSource::expand(Bounds& _bounds, LngLat _point) {
+    const double maxLatitude = 85.05112878;
+    double latitude = std::max(-maxLatitude, std::min(maxLatitude, _point.latitude));
+
+    double x = _point.longitude / 360 + 0.5;
+    double y = 0.5 - std::log(std::tan(M_PI / 4 + latitude * M_PI / 360)) / (2 * M_PI);
+
+    if (x < 0 || x > 1) {
+        // Wrapped around the antimeridian
+        _bounds.minX = 0;
+        _bounds.maxX = 1;
+    } else {
+        _bounds.minX = std::min(_bounds.minX, x);
+        _bounds.maxX = std::max(_bounds.maxX, x);
+    }
+    _bounds.minY = std::min(_bounds.minY, y);
+    _bounds.maxY = std::max(_bounds.maxY, y);
+}
+
 void ClientGeoJsonSource::addData(const std::string& _data) {
 
     auto features = geojsonvt::GeoJSONVT::convertFeatures(_data);
 
+    std::lock_guard<std::mutex> lock(m_mutexStore);
     for (auto& f : features) {
         m_features.push_back(std::move(f));
+        m_featureIds.push_back(0);
+    }
+    m_storeDirty = true;
+    logChange(worldBounds);
+
+}
+
+void ClientGeoJsonSource::logChange(const Bounds& _bounds, const Bounds& _other) {
+
+    std::lock_guard<std::mutex> lock(m_mutexChanges);
+    int64_t generation = m_generation + 1;
+    m_changes.push_back({ generation, _bounds });
+    if (_other.minX <= _other.maxX) {
+        m_changes.push_back({ generation, _other });
+    }
+    // Published only now, so that a tile found up to date for this generation is
+    // checked against its changes
+    m_generation = generation;
+
+    while (m_changes.size() > maxChanges) {
+        // Tiles older than the dropped changes can no longer be checked
+        m_changesSince = m_changes.front().generation;
+        m_changes.pop_front();
+    }
+}
+
+bool ClientGeoJsonSource::isTileOutdated(const TileID& _tileId, int64_t _generation) const {
+
+    // Not guarded by m_mutexStore, which is held while the index is built
+    std::lock_guard<std::mutex> lock(m_mutexChanges);
+
+    if (_generation < m_changesSince) { return true; }
+
+    double scale = std::ldexp(1.0, -_tileId.z);
+    // Clusters may move or merge anywhere after any change
+    bool clustered = _tileId.z <= m_clusterMaxZoom;
+    double minX = (_tileId.x - tileBuffer) * scale;
+    double maxX = (_tileId.x + 1 + tileBuffer) * scale;
+    double minY = (_tileId.y - tileBuffer) * scale;
+    double maxY = (_tileId.y + 1 + tileBuffer) * scale;
+
+    for (auto it = m_changes.rbegin(); it != m_changes.rend() && it->generation > _generation; ++it) {
+        const auto& b = it->bounds;
+        if (clustered) { return true; }
+        if (b.minX <= maxX && b.maxX >= minX && b.minY <= maxY && b.maxY >= minY) {
+            return true;
+        }
+    }
+    return false;
+}
+
+void ClientGeoJsonSource::storeFeature(geojsonvt::ProjectedFeature&& _feature, const Bounds& _bounds, uint64_t _id) {
+
+    std::lock_guard<std::mutex> lock(m_mutexStore);
+    m_storeDirty = true;
+
+    if (_id != 0) {
+        auto it = m_featuresById.find(_id);
+        if (it != m_featuresById.end()) {
+            // Replace the feature in place; tiles where it was are outdated as well
+            logChange(_bounds, it->second.second);
+            m_features[it->second.first] = std::move(_feature);
+            it->second.second = _bounds;
+            return;
+        }
+        m_featuresById.emplace(_id, std::make_pair(m_features.size(), _bounds));
     }
 
+    m_features.push_back(std::move(_feature));
+    m_featureIds.push_back(_id);
+    logChange(_bounds);
+}
+
+bool ClientGeoJsonSource::removeFeature(uint64_t _id) {
+
     std::lock_guard<std::mutex> lock(m_mutexStore);
-    m_store = std::make_unique<GeoJSONVT>(m_features, m_maxZoom, m_maxZoom, indexMaxPoints, tolerance);
-    m_generation++;
 
+    auto it = m_featuresById.find(_id);
+    if (it == m_featuresById.end()) { return false; }
+
+    size_t index = it->second.first;
+    m_storeDirty = true;
+    logChange(it->second.second);
+    m_featuresById.erase(it);
+
+    // Move the last feature into the place of the removed one
+    size_t last = m_features.size() - 1;
+    if (index != last) {
+        m_features[index] = std::move(m_features[last]);
+        m_featureIds[index] = m_featureIds[last];
+        if (m_featureIds[index] != 0) {
+            m_featuresById[m_featureIds[index]].first = index;
+        }
+    }
+    m_features.pop_back();
+    m_featureIds.pop_back();
+
+    return true;
 }
 
 bool ClientGeoJsonSource::loadTileData(std::shared_ptr<TileTask>&& _task, TileTaskCb _cb) {
@@ -87,47 +209,62 @@ bool ClientGeoJsonSource::loadTileData(std::shared_ptr<TileTask>&& _task, TileTa
 
 void ClientGeoJsonSource::clearData() {
 
-    m_features.clear();
-
     std::lock_guard<std::mutex> lock(m_mutexStore);
+    m_features.clear();
+    m_featureIds.clear();
+    m_featuresById.clear();
     m_store.reset();
-    m_generation++;
+    m_storeDirty = true;
+    outdateAll();
 }
 
-void ClientGeoJsonSource::addPoint(const Properties& _tags, LngLat _point) {
+void ClientGeoJsonSource::outdateAll() {
 
-    auto container = geojsonvt::Convert::project({ geojsonvt::LonLat(_point.longitude, _point.latitude) }, tolerance);
+    std::lock_guard<std::mutex> lock(m_mutexChanges);
+    m_changes.clear();
+    m_changesSince = m_generation + 1;
+    m_generation = m_changesSince;
+    m_clusterMaxZoom = m_clusterer ? m_clusterer->options().maxZoom : -1;
+}
 
-    geojsonvt::Tags tags;
+void ClientGeoJsonSource::setClusterOptions(const PointClusterer::Options& _options) {
 
-    auto feature = geojsonvt::Convert::create(geojsonvt::Tags{std::make_shared<Properties>(_tags)},
-                                              geojsonvt::ProjectedFeatureType::Point,
-                                              container.members);
+    std::lock_guard<std::mutex> lock(m_mutexStore);
+    m_clusterer = std::make_unique<PointClusterer>(_options);
+    m_storeDirty = true;
+    outdateAll();
+}
 
-    m_features.push_back(std::move(feature));
+void ClientGeoJsonSource::disableClustering() {
 
     std::lock_guard<std::mutex> lock(m_mutexStore);
-    m_store = std::make_unique<GeoJSONVT>(m_features, m_maxZoom, m_maxZoom, indexMaxPoints, tolerance);
-    m_generation++;
+    if (!m_clusterer) { return; }
+    m_clusterer.reset();
+    m_clusterProperties.clear();
+    m_storeDirty = true;
+    outdateAll();
 }
 
-void ClientGeoJsonSource::addLine(const Properties& _tags, const Coordinates& _line) {
-    auto& line = reinterpret_cast<const std::vector<geojsonvt::LonLat>&>(_line);
+static geojsonvt::ProjectedFeature pointFeature(Properties _tags, LngLat _point) {
 
-    std::vector<geojsonvt::ProjectedGeometry> geometry = { geojsonvt::Convert::project(line, tolerance) };
+    auto container = geojsonvt::Convert::project({ geojsonvt::LonLat(_point.longitude, _point.latitude) }, tolerance);
+
+    return geojsonvt::Convert::create(geojsonvt::Tags{std::make_shared<Properties>(std::move(_tags))},
+                                      geojsonvt::ProjectedFeatureType::Point,
+                                      container.members);
+}
 
-    auto feature = geojsonvt::Convert::create(geojsonvt::Tags{std::make_shared<Properties>(_tags)},
-                                              geojsonvt::ProjectedFeatureType::LineString,
-                                              geometry);
+static geojsonvt::ProjectedFeature lineFeature(Properties _tags, const Coordinates& _line) {
+    auto& line = reinterpret_cast<const std::vector<geojsonvt::LonLat>&>(_line);
 
-    m_features.push_back(std::move(feature));
+    std::vector<geojsonvt::ProjectedGeometry> geometry = { geojsonvt::Convert::project(line, tolerance) };
 
-    std::lock_guard<std::mutex> lock(m_mutexStore);
-    m_store = std::make_unique<GeoJSONVT>(m_features, m_maxZoom, m_maxZoom, indexMaxPoints, tolerance);
-    m_generation++;
+    return geojsonvt::Convert::create(geojsonvt::Tags{std::make_shared<Properties>(std::move(_tags))},
+                                      geojsonvt::ProjectedFeatureType::LineString,
+                                      geometry);
 }
 
-void ClientGeoJsonSource::addPoly(const Properties& _tags, const std::vector<Coordinates>& _poly) {
+static geojsonvt::ProjectedFeature polyFeature(Properties _tags, const std::vector<Coordinates>& _poly) {
 
     geojsonvt::ProjectedGeometryContainer geometry;
     for (auto& _ring : _poly) {
@@ -135,15 +272,264 @@ void ClientGeoJsonSource::addPoly(const Properties& _tags, const std::vector<Coo
         geometry.members.push_back(geojsonvt::Convert::project(ring, tolerance));
     }
 
-    auto feature = geojsonvt::Convert::create(geojsonvt::Tags{std::make_shared<Properties>(_tags)},
-                                              geojsonvt::ProjectedFeatureType::Polygon,
-                                              geometry);
+    return geojsonvt::Convert::create(geojsonvt::Tags{std::make_shared<Properties>(std::move(_tags))},
+                                      geojsonvt::ProjectedFeatureType::Polygon,
+                                      geometry);
+}
+
+ClientGeoJsonSource::Batch::Batch() : m_bounds(emptyBounds) {}
+
+ClientGeoJsonSource::Batch::~Batch() {}
+
+size_t ClientGeoJsonSource::Batch::size() const { return m_features.size(); }
+
+void ClientGeoJsonSource::Batch::addPoint(Properties _tags, LngLat _point) {
+    expand(m_bounds, _point);
+    m_features.push_back(pointFeature(std::move(_tags), _point));
+}
+
+void ClientGeoJsonSource::Batch::addLine(Properties _tags, const Coordinates& _line) {
+    for (const auto& point : _line) {
+        expand(m_bounds, point);
+    }
+    m_features.push_back(lineFeature(std::move(_tags), _line));
+}
+
+void ClientGeoJsonSource::Batch::addPoly(Properties _tags, const std::vector<Coordinates>& _poly) {
+    // Holes are inside of the outer ring
+    if (!_poly.empty()) {
+        for (const auto& point : _poly[0]) {
+            expand(m_bounds, point);
+        }
+    }
+    m_features.push_back(polyFeature(std::move(_tags), _poly));
+}
+
+void ClientGeoJsonSource::addFeatures(Batch& _batch) {
+
+    if (_batch.m_features.empty()) { return; }
+
+    {
+        std::lock_guard<std::mutex> lock(m_mutexStore);
+        m_features.reserve(m_features.size() + _batch.m_features.size());
+        for (auto& f : _batch.m_features) {
+            m_features.push_back(std::move(f));
+            m_featureIds.push_back(0);
+        }
+        m_storeDirty = true;
+        logChange(_batch.m_bounds);
+    }
+
+    _batch.m_features.clear();
+    _batch.m_bounds = emptyBounds;
+}
+
+bool ClientGeoJsonSource::addFeatureBuffer(const uint8_t* _data, size_t _size) {
+
+    Batch batch;
+
+    bool valid = FeatureBuffer::decode(_data, _size,
+        [&](FeatureBuffer::FeatureType _type, std::vector<Coordinates>&& _rings, Properties&& _tags) {
+            switch (_type) {
+            case FeatureBuffer::FeatureType::point:
+                batch.addPoint(std::move(_tags), _rings[0][0]);
+                break;
+            case FeatureBuffer::FeatureType::line:
+                batch.addLine(std::move(_tags), _rings[0]);
+                break;
+            case FeatureBuffer::FeatureType::polygon:
+                batch.addPoly(std::move(_tags), _rings);
+                break;
+            }
+        });
+
+    if (!valid) {
+        LOGW("Malformed feature buffer in data source '%s'", m_name.c_str());
+    }
+
+    addFeatures(batch);
+
+    return valid;
+}
+
+void ClientGeoJsonSource::addPoint(const Properties& _tags, LngLat _point, uint64_t _id) {
+
+    Bounds bounds = emptyBounds;
+    expand(bounds, _point);
+
+    storeFeature(pointFeature(_tags, _point), bounds, _id);
+}
+
+void ClientGeoJsonSource::addLine(const Properties& _tags, const Coordinates& _line, uint64_t _id) {
+
+    Bounds bounds = emptyBounds;
+    for (const auto& point : _line) {
+        expand(bounds, point);
+    }
+
+    storeFeature(lineFeature(_tags, _line), bounds, _id);
+}
+
+void ClientGeoJsonSource::addPoly(const Properties& _tags, const std::vector<Coordinates>& _poly, uint64_t _id) {
+
+    // Holes are inside of the outer ring
+    Bounds bounds = emptyBounds;
+    if (!_poly.empty()) {
+        for (const auto& point : _poly[0]) {
+            expand(bounds, point);
+        }
+    }
+
+    storeFeature(polyFeature(_tags, _poly), bounds, _id);
+}
+
+void ClientGeoJsonSource::updateStore() const {
+
+    if (!m_storeDirty) { return; }
+
+    // Index all features changed since the last build at once, rather than rebuilding the
+    // index for every change; geojson-vt has no incremental updates
+    m_store.reset();
+
+    if (m_clusterer) {
+        // Points go into the clusters, the other features into the tiles as usual
+        std::vector<geojsonvt::ProjectedFeature> features;
+        std::vector<PointClusterer::Input> points;
+        m_clusterProperties.clear();
+
+        for (const auto& feature : m_features) {
+            if (feature.type != geojsonvt::ProjectedFeatureType::Point) {
+                features.push_back(feature);
+                continue;
+            }
+            for (const auto& member : feature.geometry.get<geojsonvt::ProjectedGeometryContainer>().members) {
+                const auto& point = member.get<geojsonvt::ProjectedPoint>();
+                points.push_back({ point.x, point.y, feature.tags.map.get() });
+                m_clusterProperties.push_back(feature.tags.map);
+            }
+        }
+
+        m_clusterer->build(points);
+        if (!features.empty()) {
+            m_store = std::make_unique<GeoJSONVT>(features, m_maxZoom, m_maxZoom, indexMaxPoints, tolerance);
+        }
+    } else if (!m_features.empty()) {
+        m_store = std::make_unique<GeoJSONVT>(m_features, m_maxZoom, m_maxZoom, indexMaxPoints, tolerance);
+    }
+
+    m_storeDirty = false;
+}
+
+void ClientGeoJsonSource::buildIndex() {
+    std::lock_guard<std::mutex> lock(m_mutexStore);
+    updateStore();
+}
+
+void ClientGeoJsonSource::swapData(ClientGeoJsonSource& _other) {
+
+    // Index the new features on this thread, before tiles are parsed from them, and cluster
+    // them as this source does
+    std::unique_ptr<PointClusterer> clusterer;
+    {
+        std::lock_guard<std::mutex> lock(m_mutexStore);
+        if (m_clusterer) { clusterer = std::make_unique<PointClusterer>(m_clusterer->options()); }
+    }
+    {
+        std::lock_guard<std::mutex> lock(_other.m_mutexStore);
+        _other.m_clusterer = std::move(clusterer);
+        _other.m_storeDirty = true;
+        _other.updateStore();
+    }
+
+    std::lock(m_mutexStore, _other.m_mutexStore);
+    std::lock_guard<std::mutex> lock(m_mutexStore, std::adopt_lock);
+    std::lock_guard<std::mutex> otherLock(_other.m_mutexStore, std::adopt_lock);
+
+    std::swap(m_features, _other.m_features);
+    std::swap(m_featureIds, _other.m_featureIds);
+    std::swap(m_featuresById, _other.m_featuresById);
+    std::swap(m_store, _other.m_store);
+    std::swap(m_storeDirty, _other.m_storeDirty);
+    std::swap(m_clusterer, _other.m_clusterer);
+    std::swap(m_clusterProperties, _other.m_clusterProperties);
+
+    // All tiles are outdated; they are drawn until their replacements are built
+    outdateAll();
+}
+
+static LngLat lngLat(double _x, double _y) {
+    return { _x * 360 - 180, std::atan(std::sinh(M_PI * (1 - 2 * _y))) * 180 / M_PI };
+}
+
+ClientGeoJsonSource::ClusterFeature ClientGeoJsonSource::clusterFeature(const PointClusterer::Item& _item) const {
+
+    ClusterFeature feature{ lngLat(_item.x, _item.y), {} };
+
+    if (_item.count == 1) {
+        feature.properties = *m_clusterProperties[_item.id];
+        return feature;
+    }
+
+    // As for boolean properties of other features, 'cluster' is 1 so that filters can test it
+    auto& props = feature.properties;
+    props.set("cluster", 1.0);
+    props.set("cluster_id", std::to_string(_item.id));
+    props.set("point_count", double(_item.count));
+
+    const auto& aggregates = m_clusterer->options().aggregates;
+    for (size_t i = 0; i < aggregates.size(); ++i) {
+        if (!std::isnan(_item.aggregates[i])) {
+            props.set(aggregates[i].property, _item.aggregates[i]);
+        }
+    }
+    return feature;
+}
+
+void ClientGeoJsonSource::addClusters(const TileID& _tileId, Layer& _layer) const {
+
+    double scale = std::ldexp(1.0, _tileId.z);
+
+    for (const auto& item : m_clusterer->getTile(_tileId.z, _tileId.x, _tileId.y, tileBuffer)) {
+        Feature feat(m_id);
+        feat.geometryType = GeometryType::points;
+        feat.points.push_back({ item.x * scale - _tileId.x, 1. - (item.y * scale - _tileId.y), 0 });
+        feat.props = std::move(clusterFeature(item).properties);
+        _layer.features.emplace_back(std::move(feat));
+    }
+}
+
+int ClientGeoJsonSource::clusterExpansionZoom(uint64_t _clusterId) const {
+
+    std::lock_guard<std::mutex> lock(m_mutexStore);
+    updateStore();
+    return m_clusterer ? m_clusterer->getExpansionZoom(_clusterId) : -1;
+}
+
+std::vector<ClientGeoJsonSource::ClusterFeature> ClientGeoJsonSource::clusterChildren(uint64_t _clusterId) const {
+
+    std::vector<ClusterFeature> features;
+    std::lock_guard<std::mutex> lock(m_mutexStore);
+    updateStore();
+    if (m_clusterer) {
+        for (const auto& item : m_clusterer->getChildren(_clusterId)) {
+            features.push_back(clusterFeature(item));
+        }
+    }
+    return features;
+}
 
-    m_features.push_back(std::move(feature));
+std::vector<ClientGeoJsonSource::ClusterFeature> ClientGeoJsonSource::clusterLeaves(uint64_t _clusterId, size_t _limit,
+                                                                                    size_t _offset) const {
 
+    std::vector<ClusterFeature> features;
     std::lock_guard<std::mutex> lock(m_mutexStore);
-    m_store = std::make_unique<GeoJSONVT>(m_features, m_maxZoom, m_maxZoom, indexMaxPoints, tolerance);
-    m_generation++;
+    updateStore();
+    if (m_clusterer) {
+        for (const auto& item : m_clusterer->getLeaves(_clusterId, _limit, _offset)) {
+            features.push_back(clusterFeature(item));
+        }
+    }
+    return features;
 }
 
 std::shared_ptr<TileData> ClientGeoJsonSource::parse(const TileTask& _task,
@@ -152,14 +538,19 @@ std::shared_ptr<TileData> ClientGeoJsonSource::parse(const TileTask& _task,
     auto data = std::make_shared<TileData>();
 
     geojsonvt::Tile tile;
+    Layer layer(""); // empty name will skip filtering by 'collection'
     {
         std::lock_guard<std::mutex> lock(m_mutexStore);
-        if (!m_store) { return nullptr; }
-        tile = m_store->getTile(_task.tileId().z, _task.tileId().x, _task.tileId().y);
+        updateStore();
+        if (!m_store && m_clusterProperties.empty()) { return nullptr; }
+        if (m_store) {
+            tile = m_store->getTile(_task.tileId().z, _task.tileId().x, _task.tileId().y);
+        }
+        if (m_clusterer) {
+            addClusters(_task.tileId(), layer);
+        }
     }
 
-    Layer layer(""); // empty name will skip filtering by 'collection'
-
     for (auto& it : tile.features) {
 
         Feature feat(m_id);
@@ -1,9 +1,13 @@
 #pragma once
 
 #include "dataSource.h"
+#include "data/properties.h"
+#include "util/pointClusterer.h"
 #include "util/types.h"
 
+#include <deque>
 #include <mutex>
+#include <unordered_map>
 
 namespace mapbox {
 namespace util {
@@ -17,7 +21,7 @@ namespace Tangram {
 
 using GeoJSONVT = mapbox::util::geojsonvt::GeoJSONVT;
 
-struct Properties;
+struct Layer;
 
 class ClientGeoJsonSource : public DataSource {
 
@@ -29,9 +33,68 @@ public:
 
     // Add geometry from a GeoJSON string
     void addData(const std::string& _data);
-    void addPoint(const Properties& _tags, LngLat _point);
-    void addLine(const Properties& _tags, const Coordinates& _line);
-    void addPoly(const Properties& _tags, const std::vector<Coordinates>& _poly);
+
+    // A feature added with a non-zero @_id replaces the feature previously added with that id
+    void addPoint(const Properties& _tags, LngLat _point, uint64_t _id = 0);
+    void addLine(const Properties& _tags, const Coordinates& _line, uint64_t _id = 0);
+    void addPoly(const Properties& _tags, const std::vector<Coordinates>& _poly, uint64_t _id = 0);
+
+    // Features that are added together with addFeatures(), see below
+    class Batch;
+
+    // Add the features of @_batch, leaving it empty; they are stored under one lock and are a
+    // single change, whose bounds cover all of them
+    void addFeatures(Batch& _batch);
+
+    // Remove the feature added with @_id; returns false if there is none
+    bool removeFeature(uint64_t _id);
+
+    // Replace all features with those of @_other, which is not part of a map, and index them on
+    // the calling thread first; @_other gets the previous features. Unlike clearData() and adding
+    // features again, the current tiles stay visible until they are rebuilt.
+    void swapData(ClientGeoJsonSource& _other);
+
+    // Index the features now rather than when the next tile is parsed. The index is rebuilt from
+    // all features after any change; platforms call this on the thread that adds the features, so
+    // that tile workers find it built, and parse() only builds it if it is still outdated.
+    void buildIndex();
+
+    // Add the features of a buffer in the format of util/featureBuffer.h; returns false if the
+    // buffer is malformed, after adding the features that precede the error
+    bool addFeatureBuffer(const uint8_t* _data, size_t _size);
+
+    // Draw the points of this source as clusters up to the maximum zoom of @_options. Cluster
+    // features have the properties 'cluster' (1), 'cluster_id', 'point_count' and the aggregates
+    // of @_options; other features are not clustered.
+    void setClusterOptions(const PointClusterer::Options& _options);
+    void disableClustering();
+
+    struct ClusterFeature {
+        LngLat position;
+        Properties properties;
+    };
+
+    // Zoom at which the cluster with the 'cluster_id' @_clusterId splits, or -1 if there is none
+    int clusterExpansionZoom(uint64_t _clusterId) const;
+
+    // Clusters and points that a cluster splits into at its expansion zoom
+    std::vector<ClusterFeature> clusterChildren(uint64_t _clusterId) const;
+
+    // Points of a cluster, skipping the first @_offset and returning at most @_limit
+    std::vector<ClusterFeature> clusterLeaves(uint64_t _clusterId, size_t _limit, size_t _offset) const;
+
+    // Keys of the properties of features added with typed values, e.g. from a PropertySchema
+    // on Android; values are matched to keys by index. Features may be added on another thread
+    // while the keys are replaced, so readers get a snapshot of the keys.
+    void setPropertyKeys(std::vector<std::string> _keys) {
+        auto keys = std::make_shared<const std::vector<std::string>>(std::move(_keys));
+        std::lock_guard<std::mutex> lock(m_mutexPropertyKeys);
+        m_propertyKeys = std::move(keys);
+    }
+    std::shared_ptr<const std::vector<std::string>> propertyKeys() const {
+        std::lock_guard<std::mutex> lock(m_mutexPropertyKeys);
+        return m_propertyKeys;
+    }
 
     virtual bool loadTileData(std::shared_ptr<TileTask>&& _task, TileTaskCb _cb) override;
     std::shared_ptr<TileTask> createTask(TileID _tileId, int _subTask) override;
@@ -39,15 +102,90 @@ public:
     virtual void cancelLoadingTile(const TileID& _tile) override {};
     virtual void clearData() override;
 
+    // Only tiles that intersect the features added, replaced or removed since @_generation are
+    // outdated
+    virtual bool isTileOutdated(const TileID& _tileId, int64_t _generation) const override;
+
 protected:
 
     virtual std::shared_ptr<TileData> parse(const TileTask& _task,
                                             const MapProjection& _projection) const override;
 
-    std::unique_ptr<GeoJSONVT> m_store;
+    // Bounds in web mercator coordinates normalized to [0, 1], with y pointing south
+    struct Bounds {
+        double minX, minY, maxX, maxY;
+    };
+
+    struct Change {
+        int64_t generation;
+        Bounds bounds;
+    };
+
+    static const Bounds emptyBounds;
+    static const Bounds worldBounds;
+    static void expand(Bounds& _bounds, LngLat _point);
+
+    // Build the index of m_features if features changed; requires m_mutexStore
+    void updateStore() const;
+
+    // Start a new generation in which all tiles are outdated; requires m_mutexStore
+    void outdateAll();
+
+    void addClusters(const TileID& _tileId, Layer& _layer) const;
+    ClusterFeature clusterFeature(const PointClusterer::Item& _item) const;
+
+    void storeFeature(mapbox::util::geojsonvt::ProjectedFeature&& _feature, const Bounds& _bounds, uint64_t _id);
+    // Start a new generation that changed @_bounds and @_other; requires m_mutexStore
+    void logChange(const Bounds& _bounds, const Bounds& _other = emptyBounds);
+
+    // The index of m_features is built by buildIndex(), or when a tile is parsed before it;
+    // the members below are guarded by m_mutexStore, except for the log of changes
+    mutable std::unique_ptr<GeoJSONVT> m_store;
     mutable std::mutex m_mutexStore;
     std::vector<mapbox::util::geojsonvt::ProjectedFeature> m_features;
+    mutable bool m_storeDirty = false;
+    // Id of each feature in m_features, or 0; and index and bounds of each feature with an id
+    std::vector<uint64_t> m_featureIds;
+    std::unordered_map<uint64_t, std::pair<size_t, Bounds>> m_featuresById;
+    // Clusters of the point features, if enabled, built with the index of the other features;
+    // and the properties of each clustered point, in the order of the clusterer's input
+    std::unique_ptr<PointClusterer> m_clusterer;
+    mutable std::vector<std::shared_ptr<Properties>> m_clusterProperties;
+    // Areas changed by recent updates; all changes after m_changesSince are in the log.
+    // Guarded by m_mutexChanges, which is taken while holding m_mutexStore; m_generation
+    // is only incremented under it, after the change of the new generation is logged.
+    mutable std::mutex m_mutexChanges;
+    std::deque<Change> m_changes;
+    int64_t m_changesSince = 0;
+    // Highest zoom of clusters, or -1; any change outdates the tiles up to it
+    int m_clusterMaxZoom = -1;
+
     bool m_hasPendingData = false;
+    mutable std::mutex m_mutexPropertyKeys;
+    std::shared_ptr<const std::vector<std::string>> m_propertyKeys = std::make_shared<const std::vector<std::string>>();
+
+};
+
+class ClientGeoJsonSource::Batch {
+
+public:
+
+    Batch();
+    ~Batch();
+
+    // Properties are taken by value, so that callers can move them in
+    void addPoint(Properties _tags, LngLat _point);
+    void addLine(Properties _tags, const Coordinates& _line);
+    void addPoly(Properties _tags, const std::vector<Coordinates>& _poly);
+
+    size_t size() const;
+
+private:
+
+    friend class ClientGeoJsonSource;
+
+    std::vector<mapbox::util::geojsonvt::ProjectedFeature> m_features;
+    Bounds m_bounds;
 
 };
 
@@ -87,6 +87,20 @@ struct RawCache {
         m_cacheList.clear();
         m_usage = 0;
     }
+
+    template<typename P>
+    void removeIf(P _predicate) {
+        std::lock_guard<std::mutex> lock(m_mutex);
+        for (auto it = m_cacheList.begin(); it != m_cacheList.end();) {
+            if (_predicate(it->first)) {
+                m_usage -= it->second->size();
+                m_cacheMap.erase(it->first);
+                it = m_cacheList.erase(it);
+            } else {
+                ++it;
+            }
+        }
+    }
 };
 
 DataSource::DataSource(const std::string& _name, const std::string& _urlTemplate,
@@ -130,6 +144,10 @@ void DataSource::clearData() {
     m_generation++;
 }
 
+void DataSource::clearTileData(const std::string& _url) {
+    m_cache->removeIf([&](const TileID& _id) { return constructURL(_id) == _url; });
+}
+
 void DataSource::constructURL(const TileID& _tileCoord, std::string& _url) const {
     _url.assign(m_urlTemplate);
     try {
@@ -139,6 +157,11 @@ void DataSource::constructURL(const TileID& _tileCoord, std::string& _url) const
         _url.replace(ypos, 3, std::to_string(_tileCoord.y));
         size_t zpos = _url.find("{z}");
         _url.replace(zpos, 3, std::to_string(_tileCoord.z));
+        size_t spos = _url.find("{s}");
+        if (spos != std::string::npos && !m_urlSubdomains.empty()) {
+            size_t index = (size_t(_tileCoord.x) + size_t(_tileCoord.y)) % m_urlSubdomains.size();
+            _url.replace(spos, 3, m_urlSubdomains[index]);
+        }
     } catch(...) {
         LOGE("Bad URL template!");
     }
@@ -147,6 +170,7 @@ void DataSource::constructURL(const TileID& _tileCoord, std::string& _url) const
 bool DataSource::equals(const DataSource& other) const {
     if (m_name != other.m_name) { return false; }
     if (m_urlTemplate != other.m_urlTemplate) { return false; }
+    if (m_urlSubdomains != other.m_urlSubdomains) { return false; }
     if (m_minDisplayZoom != other.m_minDisplayZoom) { return false; }
     if (m_maxDisplayZoom != other.m_maxDisplayZoom) { return false; }
     if (m_maxZoom != other.m_maxZoom) { return false; }
@@ -182,6 +206,7 @@ void DataSource::onTileLoaded(std::vector<char>&& _rawData, std::shared_ptr<Tile
 bool DataSource::loadTileData(std::shared_ptr<TileTask>&& _task, TileTaskCb _cb) {
 
     std::string url(constructURL(_task->tileId()));
+    double priority = _task->getPriority();
 
     // lambda captured parameters are const by default, we want "task" (moved) to be non-const,
     // hence "mutable"
@@ -189,7 +214,7 @@ bool DataSource::loadTileData(std::shared_ptr<TileTask>&& _task, TileTaskCb _cb)
     return startUrlRequest(url,
             [this, _cb, task = std::move(_task)](std::vector<char>&& rawData) mutable {
                 this->onTileLoaded(std::move(rawData), std::move(task), _cb);
-            });
+            }, priority);
 
 }
 
@@ -1,6 +1,8 @@
 #pragma once
 
 
+#include <algorithm>
+#include <atomic>
 #include <string>
 #include <memory>
 #include <vector>
@@ -25,7 +27,8 @@ public:
     /* Tile data sources must have a name and a URL template that defines where to find
      * a tile based on its coordinates. A URL template includes exactly one occurrance
      * each of '{x}', '{y}', and '{z}' which will be replaced by the x index, y index,
-     * and zoom level of tiles to produce their URL.
+     * and zoom level of tiles to produce their URL. It may also include one '{s}', which
+     * is replaced by one of the subdomains set with setUrlSubdomains().
      */
     DataSource(const std::string& _name, const std::string& _urlTemplate,
                int32_t _minDisplayZoom = -1, int32_t _maxDisplayZoom = -1, int32_t _maxZoom = 18);
@@ -50,8 +53,27 @@ public:
     /* Clears all data associated with this DataSource */
     virtual void clearData();
 
+    /* Removes the cached data of tiles loaded from @_url, e.g. when the resource changed */
+    void clearTileData(const std::string& _url);
+
+    /* Constructs the URL of a tile using <m_urlTemplate> */
+    std::string constructURL(const TileID& _tileCoord) const {
+        std::string url;
+        constructURL(_tileCoord, url);
+        return url;
+    }
+
     const std::string& name() const { return m_name; }
 
+    /* URL template used to request tiles, empty for sources without remote tiles */
+    const std::string& urlTemplate() const { return m_urlTemplate; }
+
+    /* Sets the values substituted for '{s}' in the URL template. Tiles are spread over them
+     * by their coordinates, with subdomain index (x + y) % count, so that a tile is always
+     * requested from the same host */
+    void setUrlSubdomains(std::vector<std::string> _subdomains) { m_urlSubdomains = std::move(_subdomains); }
+    const std::vector<std::string>& urlSubdomains() const { return m_urlSubdomains; }
+
     virtual void clearRasters();
     virtual void clearRaster(const TileID& id);
 
@@ -70,9 +92,24 @@ public:
     /* Generation ID of DataSource state (incremented for each update, e.g. on clearData()) */
     int64_t generation() const { return m_generation; }
 
+    /* Whether the tile @_tileId built at generation @_generation differs from the current state
+     * of this source; sources that know which area an update touched can override this to keep
+     * tiles elsewhere */
+    virtual bool isTileOutdated(const TileID& _tileId, int64_t _generation) const {
+        return _generation < m_generation;
+    }
+
     int32_t minDisplayZoom() const { return m_minDisplayZoom; }
     int32_t maxDisplayZoom() const { return m_maxDisplayZoom; }
-    int32_t maxZoom() const { return m_maxZoom; }
+    int32_t maxZoom() const { return std::max(0, m_maxZoom - m_maxZoomReduction); }
+
+    /* Request tiles @_levels zoom levels below the maximum zoom of this source, e.g. to load
+     * fewer and smaller tiles on a slow network; tiles above the reduced zoom are overzoomed */
+    void setMaxZoomReduction(int32_t _levels) { m_maxZoomReduction = std::max(0, _levels); }
+    int32_t maxZoomReduction() const { return m_maxZoomReduction; }
+
+    /* Maximum zoom of this source without a reduction */
+    int32_t fullMaxZoom() const { return m_maxZoom; }
 
     bool isActiveForZoom(const float _zoom) const {
         return _zoom >= m_minDisplayZoom && (m_maxDisplayZoom == -1 || _zoom <= m_maxDisplayZoom);
@@ -97,12 +134,6 @@ protected:
     /* Constructs the URL of a tile using <m_urlTemplate> */
     virtual void constructURL(const TileID& _tileCoord, std::string& _url) const;
 
-    std::string constructURL(const TileID& _tileCoord) const {
-        std::string url;
-        constructURL(_tileCoord, url);
-        return url;
-    }
-
     bool cacheGet(DownloadTileTask& _task);
 
     void cachePut(const TileID& _tileID, std::shared_ptr<std::vector<char>> _rawDataRef);
@@ -122,15 +153,23 @@ protected:
     // Maximum zoom for which tiles will be requested
     int32_t m_maxZoom;
 
+    // Number of zoom levels by which m_maxZoom is currently lowered; set from the platform while
+    // tile workers read it
+    std::atomic<int32_t> m_maxZoomReduction{0};
+
     // Unique id for DataSource
     int32_t m_id;
 
-    // Generation of dynamic DataSource state (incremented for each update)
-    int64_t m_generation = 1;
+    // Generation of dynamic DataSource state (incremented for each update); read by the
+    // TileManager while updates are applied
+    std::atomic<int64_t> m_generation{1};
 
     // URL template for requesting tiles from a network or filesystem
     std::string m_urlTemplate;
 
+    // Values for '{s}' in the URL template
+    std::vector<std::string> m_urlSubdomains;
+
     std::unique_ptr<RawCache> m_cache;
 
     /* vector of raster sources (as raster samplers) referenced by this datasource */
@@ -154,6 +154,7 @@ bool RasterSource::loadTileData(std::shared_ptr<TileTask>&& _task, TileTaskCb _c
     std::string url(constructURL(_task->tileId()));
 
     auto copyTask = _task;
+    double priority = _task->getPriority();
 
     // lambda captured parameters are const by default, we want "task" (moved) to be non-const,
     // hence "mutable"
@@ -161,7 +162,7 @@ bool RasterSource::loadTileData(std::shared_ptr<TileTask>&& _task, TileTaskCb _c
     bool status = startUrlRequest(url,
             [this, _cb, task = std::move(_task)](std::vector<char>&& rawData) mutable {
                 this->onTileLoaded(std::move(rawData), std::move(task), _cb);
-            });
+            }, priority);
 
     // For "dependent" raster datasources if this returns false make sure to create a black texture
     // for tileID in this task, and consider dependent raster ready
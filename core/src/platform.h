@@ -52,8 +52,11 @@ using UrlCallback = std::function<void(std::vector<char>&&)>;
  *
  * When the request is finished, the callback @_callback will be
  * run with the data that was retrieved from the URL @_url
+ *
+ * @_priority orders pending requests; lower values are more urgent.
+ * Platforms may ignore it.
  */
-bool startUrlRequest(const std::string& _url, UrlCallback _callback);
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority = 0);
 
 /* Stop retrieving data from a URL that was previously requested
  */
@@ -933,6 +933,22 @@ void SceneLoader::loadSource(const std::string& name, const Node& source, const
         url = urlStream.str();
     }
 
+    // Values for '{s}' in the URL, to spread requests over several hosts
+    std::vector<std::string> urlSubdomains;
+    if (auto urlSubdomainsNode = source["url_subdomains"]) {
+        if (urlSubdomainsNode.IsSequence()) {
+            for (const auto& subdomain : urlSubdomainsNode) {
+                if (subdomain.IsScalar()) {
+                    urlSubdomains.push_back(subdomain.Scalar());
+                } else {
+                    LOGW("Invalid url_subdomains entry in source '%s', entries should be strings.", name.c_str());
+                }
+            }
+        } else {
+            LOGW("Expected a sequence of values for url_subdomains in source '%s'.", name.c_str());
+        }
+    }
+
     // distinguish tiled and non-tiled sources by url
     bool tiled = url.find("{x}") != std::string::npos &&
         url.find("{y}") != std::string::npos &&
@@ -965,6 +981,7 @@ void SceneLoader::loadSource(const std::string& name, const Node& source, const
 
     if (sourcePtr) {
         sourcePtr->setCacheSize(CACHE_SIZE);
+        sourcePtr->setUrlSubdomains(std::move(urlSubdomains));
         _scene->dataSources().push_back(sourcePtr);
     }
 
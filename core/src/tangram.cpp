@@ -704,6 +704,37 @@ void Map::clearDataSource(DataSource& _source, bool _data, bool _tiles) {
     requestRender();
 }
 
+void Map::reloadTiles(const std::string& _url) {
+    std::lock_guard<std::mutex> lock(impl->tilesMutex);
+
+    if (impl->tileManager.reloadTiles(_url)) {
+        requestRender();
+    }
+}
+
+void Map::setTileZoomReduction(int _levels) {
+    std::lock_guard<std::mutex> lock(impl->tilesMutex);
+
+    if (impl->tileManager.setMaxZoomReduction(_levels)) {
+        requestRender();
+    }
+}
+
+std::vector<std::shared_ptr<DataSource>> Map::getTileSources() {
+    std::shared_ptr<Scene> scene;
+    {
+        std::lock_guard<std::mutex> lock(impl->sceneMutex);
+        scene = impl->scene;
+    }
+
+    std::vector<std::shared_ptr<DataSource>> sources;
+    for (const auto& source : scene->dataSources()) {
+        if (source->urlTemplate().find("{z}") == std::string::npos) { continue; }
+        sources.push_back(source);
+    }
+    return sources;
+}
+
 MarkerID Map::markerAdd() {
     return impl->markerManager.add();
 }
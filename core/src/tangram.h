@@ -150,6 +150,18 @@ public:
 
     void clearDataSource(DataSource& _source, bool _data, bool _tiles);
 
+    // Reload the map tiles that were loaded from a URL, e.g. after the resource at the URL
+    // changed; the current tiles are drawn until their replacements are ready
+    void reloadTiles(const std::string& _url);
+
+    // Request tiles from network data sources @_levels zoom levels below their maximum zoom,
+    // e.g. to load fewer and smaller tiles on a slow network, or restore full detail with 0
+    void setTileZoomReduction(int _levels);
+
+    // Get the data sources of the current scene that load tiles from a URL template,
+    // e.g. to download tiles ahead of time
+    std::vector<std::shared_ptr<DataSource>> getTileSources();
+
     // Add a marker object to the map and return an ID for it; an ID of 0 indicates an invalid marker;
     // the marker will not be drawn until both styling and geometry are set using the functions below.
     MarkerID markerAdd();
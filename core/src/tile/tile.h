@@ -92,6 +92,9 @@ public:
 
     int64_t sourceGeneration() const { return m_sourceGeneration; }
 
+    /* Mark this tile as up to date with a later generation of its source */
+    void setSourceGeneration(int64_t _generation) { m_sourceGeneration = _generation; }
+
     int32_t sourceID() const { return m_sourceId; }
 
     bool isProxy() const { return m_proxyState; }
@@ -112,7 +115,7 @@ private:
     const int32_t m_sourceId;
 
     /* State of the DataSource for which this tile was created */
-    const int64_t m_sourceGeneration;
+    int64_t m_sourceGeneration;
 
     bool m_proxyState = false;
 
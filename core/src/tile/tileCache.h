@@ -105,6 +105,20 @@ public:
         return sum;
     }
 
+    // Remove the tiles of a source for which @_predicate returns true
+    template<typename P>
+    void removeIf(int32_t _sourceId, P _predicate) {
+        for (auto it = m_cacheList.begin(); it != m_cacheList.end();) {
+            if (it->key.first == _sourceId && _predicate(it->key.second)) {
+                m_cacheUsage -= it->tile->getMemoryUsage();
+                m_cacheMap.erase(it->key);
+                it = m_cacheList.erase(it);
+            } else {
+                ++it;
+            }
+        }
+    }
+
     void clear() {
         m_cacheMap.clear();
         m_cacheList.clear();
@@ -75,6 +75,11 @@ void TileManager::setDataSources(const std::vector<std::shared_ptr<DataSource>>&
 
             LOGD("add source %s", source->name().c_str());
 
+            source->setMaxZoomReduction(m_maxZoomReduction);
+            for (auto& raster : source->rasterSources()) {
+                raster->setMaxZoomReduction(m_maxZoomReduction);
+            }
+
             m_tileSets.push_back({ source, false });
         }
     }
@@ -118,6 +123,53 @@ void TileManager::clearTileSet(int32_t _sourceId) {
     m_tileSetChanged = true;
 }
 
+bool TileManager::reloadTiles(const std::string& _url) {
+    bool found = false;
+
+    for (auto& tileSet : m_tileSets) {
+        if (tileSet.clientDataSource) { continue; }
+
+        auto& source = *tileSet.source;
+        auto loadedFromUrl = [&](const TileID& _id) { return source.constructURL(_id) == _url; };
+
+        source.clearTileData(_url);
+        m_tileCache->removeIf(source.id(), loadedFromUrl);
+
+        for (auto& it : tileSet.tiles) {
+            if (loadedFromUrl(it.first)) {
+                it.second.m_reload = true;
+                found = true;
+            }
+        }
+    }
+
+    return found;
+}
+
+bool TileManager::setMaxZoomReduction(int32_t _levels) {
+    m_maxZoomReduction = _levels;
+
+    bool changed = false;
+    auto update = [&](DataSource& _source) {
+        int32_t maxZoom = _source.maxZoom();
+        _source.setMaxZoomReduction(_levels);
+        changed |= _source.maxZoom() != maxZoom;
+    };
+
+    for (auto& tileSet : m_tileSets) {
+        // Client data sources are not loaded from the network
+        if (tileSet.clientDataSource) { continue; }
+
+        update(*tileSet.source);
+        for (auto& raster : tileSet.source->rasterSources()) {
+            update(*raster);
+        }
+    }
+
+    if (changed) { m_tileSetChanged = true; }
+    return changed;
+}
+
 void TileManager::updateTileSets(const ViewState& _view,
                                  const std::set<TileID>& _visibleTiles) {
     m_tiles.clear();
@@ -223,9 +275,15 @@ void TileManager::updateTileSet(TileSet& _tileSet, const ViewState& _view,
                 m_tiles.push_back(entry.tile);
 
                 if (!entry.isLoading() &&
-                    (entry.tile->sourceGeneration() < generation)) {
-                    // Tile needs update - enqueue for loading
-                    enqueueTask(_tileSet, visTileId, _view);
+                    (entry.tile->sourceGeneration() < generation || entry.m_reload)) {
+                    if (entry.m_reload ||
+                        _tileSet.source->isTileOutdated(visTileId, entry.tile->sourceGeneration())) {
+                        // Tile needs update - enqueue for loading
+                        enqueueTask(_tileSet, visTileId, _view);
+                    } else {
+                        // Updates of the source did not touch this tile
+                        entry.tile->setSourceGeneration(generation);
+                    }
                 }
             } else {
 
@@ -396,6 +454,8 @@ void TileManager::loadSubTasks(std::vector<std::shared_ptr<DataSource>>& _subSou
             subTileID = subTileID.withMaxSourceZoom(subSource->maxZoom());
         }
         auto subTask = subSource->createTask(subTileID, index);
+        subTask->setPriority(tileTask->getPriority());
+
         if (subTask->isReady()) {
             subTasks.insert(it, subTask);
             requestRender();
@@ -438,14 +498,19 @@ void TileManager::loadTiles() {
 
         auto task = tileSet.source->createTask(tileId);
 
+        // Use the distance to the view center as initial load priority
+        task->setPriority(std::get<0>(loadTask));
+
         if (task->hasData()) {
             // Note: Set implicit 'loading' state
             entry.task = task;
+            entry.m_reload = false;
             loadSubTasks(tileSet.source->rasterSources(), entry.task, tileId);
             m_dataCallback.func(std::move(task));
 
         } else if (m_loadPending < MAX_DOWNLOADS) {
             entry.task = task;
+            entry.m_reload = false;
             if (tileSet.source->loadTileData(std::move(task), m_dataCallback)) {
                 m_loadPending++;
                 loadSubTasks(tileSet.source->rasterSources(), entry.task, tileId);
@@ -470,7 +535,10 @@ bool TileManager::addTile(TileSet& _tileSet, const TileID& _tileID) {
     auto tile = m_tileCache->get(_tileSet.source->id(), _tileID);
 
     if (tile) {
-        if (tile->sourceGeneration() == _tileSet.source->generation()) {
+        auto generation = _tileSet.source->generation();
+        if (tile->sourceGeneration() == generation ||
+            !_tileSet.source->isTileOutdated(_tileID, tile->sourceGeneration())) {
+            tile->setSourceGeneration(generation);
             m_tiles.push_back(tile);
 
             // Update tile origin based on wrap (set in the new tileID)
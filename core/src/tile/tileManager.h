@@ -47,6 +47,15 @@ public:
 
     void clearTileSet(int32_t _sourceId);
 
+    /* Reloads the tiles that were loaded from @_url, e.g. after the resource changed;
+     * current tiles are kept for rendering until their replacements are ready.
+     * Returns true if any tile was loaded from @_url */
+    bool reloadTiles(const std::string& _url);
+
+    /* Lowers the maximum zoom of the tiles requested from network sources and their raster
+     * sources by @_levels, or restores it with 0; returns true if any source changed */
+    bool setMaxZoomReduction(int32_t _levels);
+
     /* Returns the set of currently visible tiles */
     const auto& getVisibleTiles() { return m_tiles; }
 
@@ -160,6 +169,9 @@ private:
 
         bool m_visible = false;
 
+        /* Set when the data of a ready tile changed and the tile must be loaded again */
+        bool m_reload = false;
+
         /* Method to check whther this tile is in the current set of visible tiles
          * determined by view::updateTiles().
          */
@@ -229,6 +241,8 @@ private:
 
     bool m_tileSetChanged = false;
 
+    int32_t m_maxZoomReduction = 0;
+
     /* Callback for DataSource:
      * Passes TileTask back with data for further processing by <TileWorker>s
      */
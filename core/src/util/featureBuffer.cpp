@@ -0,0 +1,233 @@
+#include "util/featureBuffer.h"
+#include "data/propertyItem.h"
+
+#include <cmath>
+#include <cstring>
+
+namespace Tangram {
+
+namespace FeatureBuffer {
+
+static const double coordinateScale = 1e7;
+
+// Largest integer that is exactly representable as a double
+static const double maxExactInteger = 9007199254740992.0;
+
+static void writeVarint(std::vector<uint8_t>& _out, uint64_t _value) {
+    while (_value >= 0x80) {
+        _out.push_back(static_cast<uint8_t>(_value | 0x80));
+        _value >>= 7;
+    }
+    _out.push_back(static_cast<uint8_t>(_value));
+}
+
+static void writeSigned(std::vector<uint8_t>& _out, int64_t _value) {
+    writeVarint(_out, (static_cast<uint64_t>(_value) << 1) ^ static_cast<uint64_t>(_value >> 63));
+}
+
+static void writeString(std::vector<uint8_t>& _out, const std::string& _value) {
+    writeVarint(_out, _value.size());
+    _out.insert(_out.end(), _value.begin(), _value.end());
+}
+
+struct Reader {
+    const uint8_t* pos;
+    const uint8_t* end;
+    bool ok = true;
+
+    uint64_t varint() {
+        uint64_t value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos == end) { break; }
+            uint8_t byte = *pos++;
+            value |= static_cast<uint64_t>(byte & 0x7f) << shift;
+            if (!(byte & 0x80)) { return value; }
+        }
+        ok = false;
+        return 0;
+    }
+
+    int64_t zigzag() {
+        uint64_t value = varint();
+        return static_cast<int64_t>(value >> 1) ^ -static_cast<int64_t>(value & 1);
+    }
+
+    // Reads a count of items that take at least one byte each, so that a corrupt count cannot
+    // cause a huge allocation
+    size_t count() {
+        uint64_t value = varint();
+        if (value > static_cast<uint64_t>(end - pos)) {
+            ok = false;
+            return 0;
+        }
+        return static_cast<size_t>(value);
+    }
+
+    std::string string() {
+        size_t length = count();
+        if (!ok) { return {}; }
+        std::string value(reinterpret_cast<const char*>(pos), length);
+        pos += length;
+        return value;
+    }
+
+    double float64() {
+        if (end - pos < 8) {
+            ok = false;
+            return 0;
+        }
+        uint64_t bits = 0;
+        for (int i = 0; i < 8; ++i) {
+            bits |= static_cast<uint64_t>(pos[i]) << (8 * i);
+        }
+        pos += 8;
+        double value;
+        std::memcpy(&value, &bits, sizeof(value));
+        return value;
+    }
+};
+
+bool decode(const uint8_t* _data, size_t _size, const FeatureCallback& _callback) {
+
+    Reader in{ _data, _data + _size };
+
+    if (in.varint() != version || !in.ok) { return false; }
+
+    std::vector<std::string> keys(in.count());
+    for (auto& key : keys) {
+        key = in.string();
+    }
+
+    size_t featureCount = in.count();
+    int64_t x = 0, y = 0;
+
+    for (size_t i = 0; i < featureCount && in.ok; ++i) {
+
+        auto type = in.varint();
+        if (type > static_cast<uint64_t>(FeatureType::polygon)) { return false; }
+
+        std::vector<Coordinates> rings(in.count());
+        for (auto& ring : rings) {
+            ring.resize(in.count());
+            for (auto& point : ring) {
+                x += in.zigzag();
+                y += in.zigzag();
+                point = { x / coordinateScale, y / coordinateScale };
+            }
+        }
+
+        size_t propertyCount = in.count();
+        std::vector<PropertyItem> items;
+        items.reserve(propertyCount);
+        for (size_t p = 0; p < propertyCount && in.ok; ++p) {
+            auto keyIndex = in.varint();
+            if (keyIndex >= keys.size()) { return false; }
+            const auto& key = keys[keyIndex];
+
+            switch (static_cast<ValueType>(in.varint())) {
+            case ValueType::string:
+                items.emplace_back(key, in.string());
+                break;
+            case ValueType::number:
+                items.emplace_back(key, in.float64());
+                break;
+            case ValueType::integer:
+                items.emplace_back(key, static_cast<double>(in.zigzag()));
+                break;
+            default:
+                return false;
+            }
+        }
+
+        if (!in.ok) { return false; }
+        if (rings.empty() || rings[0].empty()) { continue; }
+
+        Properties properties;
+        properties.setSorted(std::move(items));
+        properties.sort();
+
+        _callback(static_cast<FeatureType>(type), std::move(rings), std::move(properties));
+    }
+
+    return in.ok;
+}
+
+void Writer::add(FeatureType _type, const std::vector<Coordinates>& _rings, const Properties& _properties) {
+
+    writeVarint(m_features, static_cast<uint8_t>(_type));
+
+    writeVarint(m_features, _rings.size());
+    for (const auto& ring : _rings) {
+        writeVarint(m_features, ring.size());
+        for (const auto& point : ring) {
+            int64_t x = std::llround(point.longitude * coordinateScale);
+            int64_t y = std::llround(point.latitude * coordinateScale);
+            writeSigned(m_features, x - m_lastX);
+            writeSigned(m_features, y - m_lastY);
+            m_lastX = x;
+            m_lastY = y;
+        }
+    }
+
+    size_t propertyCount = 0;
+    for (const auto& item : _properties.items()) {
+        if (!item.value.is<none_type>()) { propertyCount++; }
+    }
+    writeVarint(m_features, propertyCount);
+
+    for (const auto& item : _properties.items()) {
+        if (item.value.is<none_type>()) { continue; }
+
+        auto it = m_keyIndices.find(item.key);
+        if (it == m_keyIndices.end()) {
+            it = m_keyIndices.emplace(item.key, m_keys.size()).first;
+            m_keys.push_back(item.key);
+        }
+        writeVarint(m_features, it->second);
+
+        if (item.value.is<std::string>()) {
+            writeVarint(m_features, static_cast<uint8_t>(ValueType::string));
+            writeString(m_features, item.value.get<std::string>());
+        } else {
+            double value = item.value.get<double>();
+            if (value == std::floor(value) && std::abs(value) < maxExactInteger) {
+                writeVarint(m_features, static_cast<uint8_t>(ValueType::integer));
+                writeSigned(m_features, static_cast<int64_t>(value));
+            } else {
+                uint64_t bits;
+                std::memcpy(&bits, &value, sizeof(bits));
+                writeVarint(m_features, static_cast<uint8_t>(ValueType::number));
+                for (int i = 0; i < 8; ++i) {
+                    m_features.push_back(static_cast<uint8_t>(bits >> (8 * i)));
+                }
+            }
+        }
+    }
+
+    m_featureCount++;
+}
+
+std::vector<uint8_t> Writer::finish() {
+
+    std::vector<uint8_t> out;
+    writeVarint(out, version);
+    writeVarint(out, m_keys.size());
+    for (const auto& key : m_keys) {
+        writeString(out, key);
+    }
+    writeVarint(out, m_featureCount);
+    out.insert(out.end(), m_features.begin(), m_features.end());
+
+    m_features.clear();
+    m_keys.clear();
+    m_keyIndices.clear();
+    m_featureCount = 0;
+    m_lastX = 0;
+    m_lastY = 0;
+
+    return out;
+}
+
+}
+
+}
@@ -0,0 +1,70 @@
+#pragma once
+
+#include "data/properties.h"
+#include "util/types.h"
+
+#include <cstdint>
+#include <functional>
+#include <string>
+#include <unordered_map>
+#include <vector>
+
+namespace Tangram {
+
+/*
+ * Compact binary encoding of map features, used to add many features to a ClientGeoJsonSource
+ * without going through JSON. Integers are unsigned LEB128 varints unless noted otherwise.
+ *
+ *   buffer   := version keyCount key* featureCount feature*
+ *   key      := length bytes                        (UTF-8)
+ *   feature  := type ringCount ring* propertyCount property*
+ *   type     := 0 point | 1 line | 2 polygon
+ *   ring     := pointCount (dx dy)*
+ *   property := keyIndex valueType value
+ *   value    := 0 length bytes                      (UTF-8 string)
+ *             | 1 double                            (8 bytes, little-endian IEEE 754)
+ *             | 2 zigzag varint                     (integer)
+ *
+ * Coordinates are longitudes and latitudes in units of 1e-7 degrees; dx and dy are zigzag
+ * varints of the difference to the previous point of the buffer, starting from (0, 0).
+ * Points and lines have a single ring.
+ */
+namespace FeatureBuffer {
+
+enum class FeatureType : uint8_t { point = 0, line = 1, polygon = 2 };
+
+enum class ValueType : uint8_t { string = 0, number = 1, integer = 2 };
+
+constexpr uint32_t version = 1;
+
+using FeatureCallback = std::function<void(FeatureType _type, std::vector<Coordinates>&& _rings,
+                                           Properties&& _properties)>;
+
+/* Decodes the features of @_data in order; returns false if the buffer is malformed, after
+ * passing the features that precede the error to @_callback */
+bool decode(const uint8_t* _data, size_t _size, const FeatureCallback& _callback);
+
+/* Encodes features in the format read by decode() */
+class Writer {
+
+public:
+
+    void add(FeatureType _type, const std::vector<Coordinates>& _rings, const Properties& _properties);
+
+    /* Returns the encoded features; the writer is empty afterwards */
+    std::vector<uint8_t> finish();
+
+private:
+
+    std::vector<uint8_t> m_features;
+    std::vector<std::string> m_keys;
+    std::unordered_map<std::string, uint32_t> m_keyIndices;
+    uint32_t m_featureCount = 0;
+    int64_t m_lastX = 0;
+    int64_t m_lastY = 0;
+
+};
+
+}
+
+}
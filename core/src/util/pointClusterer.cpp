@@ -0,0 +1,347 @@
+#include "pointClusterer.h"
+
+#include "data/properties.h"
+
+#include <algorithm>
+#include <climits>
+#include <cmath>
+#include <limits>
+
+namespace Tangram {
+
+// Entries of a leaf of the k-d tree, searched linearly
+const size_t nodeSize = 16;
+// Bits of a cluster id that hold its zoom; the rest hold its index in the level
+const uint64_t zoomBits = 5;
+const uint64_t zoomMask = (1 << zoomBits) - 1;
+
+PointClusterer::PointClusterer(Options _options) : m_options(std::move(_options)) {
+    m_options.minZoom = std::max(0, std::min(m_options.minZoom, 30));
+    m_options.maxZoom = std::max(m_options.minZoom, std::min(m_options.maxZoom, 30));
+    m_options.minPoints = std::max(m_options.minPoints, 2u);
+}
+
+std::vector<uint32_t> PointClusterer::Level::index() {
+
+    struct Entry { double x, y; uint32_t from; };
+    std::vector<Entry> entries;
+    entries.reserve(nodes.size());
+    for (uint32_t i = 0; i < nodes.size(); ++i) {
+        entries.push_back({ nodes[i].x, nodes[i].y, i });
+    }
+
+    // Split each range at its median, alternating between x and y
+    struct Range { size_t left, right; int axis; };
+    std::vector<Range> stack;
+    if (!entries.empty()) { stack.push_back({ 0, entries.size() - 1, 0 }); }
+
+    while (!stack.empty()) {
+        Range r = stack.back();
+        stack.pop_back();
+        if (r.right - r.left <= nodeSize) { continue; }
+
+        size_t m = (r.left + r.right) / 2;
+        auto first = entries.begin() + r.left, middle = entries.begin() + m, last = entries.begin() + r.right + 1;
+        if (r.axis == 0) {
+            std::nth_element(first, middle, last, [](const Entry& a, const Entry& b) { return a.x < b.x; });
+        } else {
+            std::nth_element(first, middle, last, [](const Entry& a, const Entry& b) { return a.y < b.y; });
+        }
+        stack.push_back({ r.left, m - 1, 1 - r.axis });
+        stack.push_back({ m + 1, r.right, 1 - r.axis });
+    }
+
+    // Move the nodes and their aggregates into the order of the tree
+    size_t aggregateCount = nodes.empty() ? 0 : aggregates.size() / nodes.size();
+    std::vector<uint32_t> moved(nodes.size());
+    std::vector<Node> sortedNodes;
+    std::vector<double> sortedAggregates;
+    sortedNodes.reserve(nodes.size());
+    sortedAggregates.reserve(aggregates.size());
+    coords.clear();
+    coords.reserve(2 * nodes.size());
+
+    for (const auto& entry : entries) {
+        moved[entry.from] = sortedNodes.size();
+        sortedNodes.push_back(nodes[entry.from]);
+        auto values = aggregates.begin() + entry.from * aggregateCount;
+        sortedAggregates.insert(sortedAggregates.end(), values, values + aggregateCount);
+        coords.push_back(entry.x);
+        coords.push_back(entry.y);
+    }
+    nodes.swap(sortedNodes);
+    aggregates.swap(sortedAggregates);
+
+    return moved;
+}
+
+template <typename F>
+void PointClusterer::Level::range(double _minX, double _minY, double _maxX, double _maxY, F&& _f) const {
+
+    // Each step replaces a range with at most its two halves, so the stack holds at most two
+    // ranges per level of the tree
+    struct Range { size_t left, right; int axis; };
+    Range stack[128];
+    size_t size = 0;
+    if (!nodes.empty()) { stack[size++] = { 0, nodes.size() - 1, 0 }; }
+
+    while (size > 0) {
+        Range r = stack[--size];
+
+        if (r.right - r.left <= nodeSize) {
+            for (size_t i = r.left; i <= r.right; ++i) {
+                double x = coords[2 * i], y = coords[2 * i + 1];
+                if (x >= _minX && x <= _maxX && y >= _minY && y <= _maxY) { _f(uint32_t(i)); }
+            }
+            continue;
+        }
+
+        size_t m = (r.left + r.right) / 2;
+        double x = coords[2 * m], y = coords[2 * m + 1];
+        if (x >= _minX && x <= _maxX && y >= _minY && y <= _maxY) { _f(uint32_t(m)); }
+
+        if (r.axis == 0 ? _minX <= x : _minY <= y) { stack[size++] = { r.left, m - 1, 1 - r.axis }; }
+        if (r.axis == 0 ? _maxX >= x : _maxY >= y) { stack[size++] = { m + 1, r.right, 1 - r.axis }; }
+    }
+}
+
+template <typename F>
+void PointClusterer::Level::within(double _x, double _y, double _r, F&& _f) const {
+
+    double r2 = _r * _r;
+    range(_x - _r, _y - _r, _x + _r, _y + _r, [&](uint32_t _node) {
+        double dx = coords[2 * _node] - _x;
+        double dy = coords[2 * _node + 1] - _y;
+        if (dx * dx + dy * dy <= r2) { _f(_node); }
+    });
+}
+
+double PointClusterer::radius(int _zoom) const {
+    return m_options.radius / (m_options.extent * std::ldexp(1.0, _zoom));
+}
+
+void PointClusterer::build(const std::vector<Input>& _points) {
+
+    m_levels.clear();
+    if (_points.empty()) { return; }
+
+    m_levels.resize(m_options.maxZoom - m_options.minZoom + 2);
+
+    const size_t aggregateCount = m_options.aggregates.size();
+    const double none = std::numeric_limits<double>::quiet_NaN();
+
+    Level& points = level(m_options.maxZoom + 1);
+    points.nodes.reserve(_points.size());
+    points.aggregates.reserve(_points.size() * aggregateCount);
+
+    for (size_t i = 0; i < _points.size(); ++i) {
+        const auto& p = _points[i];
+        points.nodes.push_back({ p.x, p.y, 1, i, 0, INT_MAX });
+        for (const auto& aggregate : m_options.aggregates) {
+            double value = none;
+            if (p.properties) { p.properties->getNumber(aggregate.source, value); }
+            points.aggregates.push_back(value);
+        }
+    }
+    points.index();
+
+    for (int z = m_options.maxZoom; z >= m_options.minZoom; --z) {
+        cluster(level(z + 1), level(z), z);
+    }
+}
+
+void PointClusterer::cluster(Level& _above, Level& _level, int _zoom) {
+
+    const size_t aggregateCount = m_options.aggregates.size();
+    const double r = radius(_zoom);
+    std::vector<uint32_t> neighbors;
+
+    auto copy = [&](uint32_t _index) {
+        Node& node = _above.nodes[_index];
+        node.zoom = _zoom;
+        node.parent = _level.nodes.size();
+        _level.nodes.push_back({ node.x, node.y, node.count, node.id, 0, INT_MAX });
+        auto values = _above.aggregates.begin() + _index * aggregateCount;
+        _level.aggregates.insert(_level.aggregates.end(), values, values + aggregateCount);
+    };
+
+    // The items are in the order of the tree, so that neighbors are found in nearby memory
+    for (uint32_t i = 0; i < _above.nodes.size(); ++i) {
+        Node& node = _above.nodes[i];
+        if (node.zoom <= _zoom) { continue; }
+        node.zoom = _zoom;
+
+        neighbors.clear();
+        uint32_t count = node.count;
+        _above.within(node.x, node.y, r, [&](uint32_t _n) {
+            if (_above.nodes[_n].zoom > _zoom) {
+                neighbors.push_back(_n);
+                count += _above.nodes[_n].count;
+            }
+        });
+
+        if (neighbors.empty() || count < m_options.minPoints) {
+            // Too few to form a cluster; the items stay as they are at this zoom
+            copy(i);
+            for (uint32_t n : neighbors) { copy(n); }
+            continue;
+        }
+
+        uint32_t parent = _level.nodes.size();
+        uint64_t id = (uint64_t(parent) << zoomBits) | uint64_t(_zoom);
+        double x = node.x * node.count;
+        double y = node.y * node.count;
+        node.parent = parent;
+
+        auto values = _above.aggregates.begin() + i * aggregateCount;
+        _level.aggregates.insert(_level.aggregates.end(), values, values + aggregateCount);
+        double* reduced = _level.aggregates.data() + parent * aggregateCount;
+
+        for (uint32_t n : neighbors) {
+            Node& neighbor = _above.nodes[n];
+            neighbor.zoom = _zoom;
+            neighbor.parent = parent;
+            x += neighbor.x * neighbor.count;
+            y += neighbor.y * neighbor.count;
+            reduce(reduced, _above.aggregates.data() + n * aggregateCount);
+        }
+
+        _level.nodes.push_back({ x / count, y / count, count, id, 0, INT_MAX });
+    }
+
+    // Clusters formed at this zoom are identified by their index after sorting
+    auto moved = _level.index();
+    for (auto& node : _above.nodes) {
+        node.parent = moved[node.parent];
+    }
+    for (uint32_t i = 0; i < _level.nodes.size(); ++i) {
+        Node& node = _level.nodes[i];
+        if (node.count > 1 && (node.id & zoomMask) == uint64_t(_zoom)) {
+            node.id = (uint64_t(i) << zoomBits) | uint64_t(_zoom);
+        }
+    }
+}
+
+void PointClusterer::reduce(double* _into, const double* _from) const {
+
+    for (size_t i = 0; i < m_options.aggregates.size(); ++i) {
+        // NaN marks points without the property; fmin and fmax ignore it
+        switch (m_options.aggregates[i].reduce) {
+        case Reduce::sum:
+            if (std::isnan(_into[i])) { _into[i] = _from[i]; }
+            else if (!std::isnan(_from[i])) { _into[i] += _from[i]; }
+            break;
+        case Reduce::min:
+            _into[i] = std::fmin(_into[i], _from[i]);
+            break;
+        case Reduce::max:
+            _into[i] = std::fmax(_into[i], _from[i]);
+            break;
+        }
+    }
+}
+
+PointClusterer::Item PointClusterer::item(const Level& _level, uint32_t _index) const {
+
+    const Node& node = _level.nodes[_index];
+    Item item{ node.x, node.y, node.count, node.id, {} };
+    if (node.count > 1) {
+        auto values = _level.aggregates.begin() + _index * m_options.aggregates.size();
+        item.aggregates.assign(values, values + m_options.aggregates.size());
+    }
+    return item;
+}
+
+std::vector<PointClusterer::Item> PointClusterer::getTile(int _z, int _x, int _y, double _buffer) const {
+
+    std::vector<Item> items;
+    if (m_levels.empty()) { return items; }
+
+    const Level& tileLevel = level(std::max(m_options.minZoom, std::min(_z, m_options.maxZoom + 1)));
+    double scale = std::ldexp(1.0, -_z);
+
+    tileLevel.range((_x - _buffer) * scale, (_y - _buffer) * scale,
+                    (_x + 1 + _buffer) * scale, (_y + 1 + _buffer) * scale,
+                    [&](uint32_t _node) { items.push_back(item(tileLevel, _node)); });
+
+    return items;
+}
+
+bool PointClusterer::find(uint64_t _clusterId, int& _zoom, uint32_t& _index) const {
+
+    _zoom = int(_clusterId & zoomMask);
+    uint64_t index = _clusterId >> zoomBits;
+
+    if (m_levels.empty() || _zoom < m_options.minZoom || _zoom > m_options.maxZoom) { return false; }
+
+    const Level& clusterLevel = level(_zoom);
+    if (index >= clusterLevel.nodes.size()) { return false; }
+
+    const Node& node = clusterLevel.nodes[index];
+    if (node.count < 2 || node.id != _clusterId) { return false; }
+
+    _index = uint32_t(index);
+    return true;
+}
+
+void PointClusterer::children(int _zoom, uint32_t _index, std::vector<Item>& _items) const {
+
+    const Node& node = level(_zoom).nodes[_index];
+    const Level& above = level(_zoom + 1);
+
+    // The items of a cluster are within the radius of its first item, so within twice the
+    // radius of its center
+    above.within(node.x, node.y, 2 * radius(_zoom), [&](uint32_t _n) {
+        if (above.nodes[_n].parent == _index) { _items.push_back(item(above, _n)); }
+    });
+}
+
+std::vector<PointClusterer::Item> PointClusterer::getChildren(uint64_t _clusterId) const {
+
+    std::vector<Item> items;
+    int zoom;
+    uint32_t index;
+    if (find(_clusterId, zoom, index)) {
+        children(zoom, index, items);
+    }
+    return items;
+}
+
+void PointClusterer::leaves(uint64_t _clusterId, size_t _limit, size_t& _skip, std::vector<Item>& _items) const {
+
+    int zoom;
+    uint32_t index;
+    if (!find(_clusterId, zoom, index)) { return; }
+
+    std::vector<Item> items;
+    children(zoom, index, items);
+
+    for (auto& child : items) {
+        if (_items.size() >= _limit) { return; }
+        if (child.count <= _skip) {
+            // Skip a whole cluster without visiting its points
+            _skip -= child.count;
+        } else if (child.count > 1) {
+            leaves(child.id, _limit, _skip, _items);
+        } else {
+            _items.push_back(std::move(child));
+        }
+    }
+}
+
+std::vector<PointClusterer::Item> PointClusterer::getLeaves(uint64_t _clusterId, size_t _limit, size_t _offset) const {
+
+    std::vector<Item> items;
+    leaves(_clusterId, _limit, _offset, items);
+    return items;
+}
+
+int PointClusterer::getExpansionZoom(uint64_t _clusterId) const {
+
+    // A cluster has at least two items at the zoom above the one it was formed at
+    int zoom;
+    uint32_t index;
+    return find(_clusterId, zoom, index) ? zoom + 1 : -1;
+}
+
+}
@@ -0,0 +1,126 @@
+#pragma once
+
+#include <cstdint>
+#include <string>
+#include <vector>
+
+namespace Tangram {
+
+struct Properties;
+
+/*
+ * Hierarchical clustering of points, after the Supercluster algorithm. The points are indexed
+ * once; then, from maxZoom down to minZoom, each zoom level greedily merges the items of the
+ * level above that are within a radius in pixels into clusters, placed at the weighted center of
+ * their points. Every level keeps its own spatial index, so the items of a tile are found with a
+ * range query and a low-zoom tile holds a few clusters rather than all of the points.
+ *
+ * Positions are web mercator coordinates normalized to [0, 1], with y pointing south.
+ */
+class PointClusterer {
+
+public:
+
+    enum class Reduce : uint8_t { sum, min, max };
+
+    // A numeric property of clusters, reduced from the numeric property @source of their points
+    struct Aggregate {
+        std::string property;
+        std::string source;
+        Reduce reduce;
+    };
+
+    struct Options {
+        // Zoom range of the clusters; points are not clustered above maxZoom
+        int minZoom = 0;
+        int maxZoom = 16;
+        // Radius of a cluster in pixels, for tiles of @extent pixels
+        double radius = 40;
+        double extent = 256;
+        // Fewest points that form a cluster
+        uint32_t minPoints = 2;
+        std::vector<Aggregate> aggregates;
+    };
+
+    struct Input {
+        double x, y;
+        // Read while building, for the aggregates; may be null
+        const Properties* properties;
+    };
+
+    // A cluster, or a single point when @count is 1
+    struct Item {
+        double x, y;
+        uint32_t count;
+        // Id of a cluster, or index of a point in the input
+        uint64_t id;
+        // Values of the aggregates of a cluster, NaN where none of its points has the property
+        std::vector<double> aggregates;
+    };
+
+    PointClusterer() = default;
+    explicit PointClusterer(Options _options);
+
+    const Options& options() const { return m_options; }
+
+    // Index @_points, replacing those of a previous build
+    void build(const std::vector<Input>& _points);
+
+    void clear() { m_levels.clear(); }
+
+    // Items in the tile @_x, @_y at zoom @_z, extended by @_buffer of a tile on each side
+    std::vector<Item> getTile(int _z, int _x, int _y, double _buffer = 0) const;
+
+    // Items a cluster splits into at the next zoom; empty if there is no such cluster
+    std::vector<Item> getChildren(uint64_t _clusterId) const;
+
+    // Points of a cluster, skipping the first @_offset and returning at most @_limit
+    std::vector<Item> getLeaves(uint64_t _clusterId, size_t _limit = SIZE_MAX, size_t _offset = 0) const;
+
+    // Zoom at which a cluster splits into its children, or -1 if there is no such cluster
+    int getExpansionZoom(uint64_t _clusterId) const;
+
+private:
+
+    struct Node {
+        double x, y;
+        uint32_t count;
+        uint64_t id;
+        // Index of the node of the next lower zoom that this node is part of
+        uint32_t parent;
+        // Lowest zoom at which the node was visited while clustering
+        int zoom;
+    };
+
+    struct Level {
+        // Nodes in the order of a static k-d tree over their positions
+        std::vector<Node> nodes;
+        // Values of the aggregates of each node, in the order of the nodes
+        std::vector<double> aggregates;
+        // Positions of the nodes, x and y alternating, for searching the tree
+        std::vector<double> coords;
+
+        // Sort the nodes into a k-d tree; returns the new index of each node
+        std::vector<uint32_t> index();
+        template <typename F> void range(double _minX, double _minY, double _maxX, double _maxY, F&& _f) const;
+        template <typename F> void within(double _x, double _y, double _r, F&& _f) const;
+    };
+
+    Level& level(int _zoom) { return m_levels[_zoom - m_options.minZoom]; }
+    const Level& level(int _zoom) const { return m_levels[_zoom - m_options.minZoom]; }
+
+    double radius(int _zoom) const;
+    void cluster(Level& _above, Level& _level, int _zoom);
+    void reduce(double* _into, const double* _from) const;
+    Item item(const Level& _level, uint32_t _index) const;
+    bool find(uint64_t _clusterId, int& _zoom, uint32_t& _index) const;
+    void children(int _zoom, uint32_t _index, std::vector<Item>& _items) const;
+    void leaves(uint64_t _clusterId, size_t _limit, size_t& _skip, std::vector<Item>& _items) const;
+
+    Options m_options;
+    // Levels from minZoom to maxZoom, and the points at maxZoom + 1
+    std::vector<Level> m_levels;
+
+};
+
+}
@@ -136,7 +136,7 @@ std::string systemFontFallbackPath(int _importance, int _weightHint) {
     return "";
 }
 
-bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority) {
 
     NSString* nsUrl = [NSString stringWithUTF8String:_url.c_str()];
 
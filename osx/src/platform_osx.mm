@@ -114,7 +114,7 @@ void NSurlInit() {
     defaultSession = [NSURLSession sessionWithConfiguration: defaultConfigObject];
 }
 
-bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority) {
 
     NSString* nsUrl = [NSString stringWithUTF8String:_url.c_str()];
 
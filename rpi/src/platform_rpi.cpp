@@ -97,7 +97,7 @@ std::string systemFontFallbackPath(int _importance, int _weightHint) {
     return "";
 }
 
-bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority) {
 
     std::unique_ptr<UrlTask> task(new UrlTask(_url, _callback));
     for(auto& worker : s_Workers) {
@@ -0,0 +1,175 @@
+#!/usr/bin/env python
+#
+# tilepack - build and inspect tile archives for TileArchiveStore (Android).
+#
+# Usage:
+#   python tilepack.py pack <tile directory | file.mbtiles> <output.tpak>
+#   python tilepack.py bench <archive.tpak> [lookups]
+#
+# A tile directory is laid out as <z>/<x>/<y>.<ext>, as used by {z}/{x}/{y} URL
+# templates. MBTiles rows are flipped from TMS to XYZ order and gzip-compressed
+# tiles are stored uncompressed, so that the archive can be served without
+# decoding.
+#
+# Archive layout (little-endian):
+#   header     'TPAK', u32 version, u32 tile count, u32 reserved
+#   directory  tile count entries of u64 key, u64 data offset, u32 data length,
+#              sorted by key = z << 58 | x << 29 | y
+#   data       contiguous tile data
+
+from __future__ import print_function
+
+import gzip
+import io
+import mmap
+import os
+import random
+import sqlite3
+import struct
+import sys
+import time
+
+MAGIC = b'TPAK'
+VERSION = 1
+HEADER = struct.Struct('<4sIII')
+ENTRY = struct.Struct('<QQI')
+
+
+def tile_key(z, x, y):
+    return (z << 58) | (x << 29) | y
+
+
+def unpack_key(key):
+    return key >> 58, (key >> 29) & 0x1fffffff, key & 0x1fffffff
+
+
+def maybe_gunzip(data):
+    if data[:2] == b'\x1f\x8b':
+        return gzip.GzipFile(fileobj=io.BytesIO(data)).read()
+    return data
+
+
+def tiles_from_directory(root):
+    for z in os.listdir(root):
+        if not z.isdigit():
+            continue
+        for x in os.listdir(os.path.join(root, z)):
+            if not x.isdigit():
+                continue
+            for name in os.listdir(os.path.join(root, z, x)):
+                y = name.split('.')[0].split('@')[0]
+                if not y.isdigit():
+                    continue
+                with open(os.path.join(root, z, x, name), 'rb') as f:
+                    yield int(z), int(x), int(y), f.read()
+
+
+def tiles_from_mbtiles(path):
+    db = sqlite3.connect(path)
+    try:
+        query = 'SELECT zoom_level, tile_column, tile_row, tile_data FROM tiles'
+        for z, x, row, data in db.execute(query):
+            yield z, x, (1 << z) - 1 - row, bytes(data)
+    finally:
+        db.close()
+
+
+def pack(source, output):
+    if os.path.isdir(source):
+        tiles = tiles_from_directory(source)
+    else:
+        tiles = tiles_from_mbtiles(source)
+
+    # Tile data is spooled to a temporary file so that only the directory is held in memory
+    entries = []
+    spool_path = output + '.data'
+    with open(spool_path, 'wb') as spool:
+        for z, x, y, data in tiles:
+            data = maybe_gunzip(data)
+            entries.append((tile_key(z, x, y), spool.tell(), len(data)))
+            spool.write(data)
+    entries.sort()
+
+    data_start = HEADER.size + len(entries) * ENTRY.size
+    with open(output, 'wb') as out, open(spool_path, 'rb') as spool:
+        out.write(HEADER.pack(MAGIC, VERSION, len(entries), 0))
+        offset = data_start
+        for key, _, length in entries:
+            out.write(ENTRY.pack(key, offset, length))
+            offset += length
+        # Copy data in directory order, so tiles of a zoom level are contiguous
+        for _, spool_offset, length in entries:
+            spool.seek(spool_offset)
+            out.write(spool.read(length))
+    os.remove(spool_path)
+
+    print('Packed %d tiles into %s (%d bytes)' % (len(entries), output, offset))
+
+
+class Archive(object):
+
+    def __init__(self, path):
+        self.file = open(path, 'rb')
+        self.data = mmap.mmap(self.file.fileno(), 0, access=mmap.ACCESS_READ)
+        magic, version, self.count, _ = HEADER.unpack_from(self.data, 0)
+        if magic != MAGIC or version != VERSION:
+            raise ValueError('%s is not a version %d tile archive' % (path, VERSION))
+
+    def key_at(self, index):
+        return struct.unpack_from('<Q', self.data, HEADER.size + index * ENTRY.size)[0]
+
+    def find(self, key):
+        low, high = 0, self.count - 1
+        while low <= high:
+            mid = (low + high) // 2
+            mid_key = self.key_at(mid)
+            if mid_key < key:
+                low = mid + 1
+            elif mid_key > key:
+                high = mid - 1
+            else:
+                _, offset, length = ENTRY.unpack_from(self.data, HEADER.size + mid * ENTRY.size)
+                return offset, length
+        return None
+
+
+def bench(path, lookups):
+    archive = Archive(path)
+    if archive.count == 0:
+        print('Archive is empty')
+        return
+
+    keys = [archive.key_at(random.randrange(archive.count)) for _ in range(lookups)]
+    # Rows past the end of the tile grid are never present
+    misses = [tile_key(z, x, 0x1fffffff) for z, x, _ in map(unpack_key, keys[:lookups // 10 + 1])]
+
+    start = time.time()
+    for key in keys:
+        offset, length = archive.find(key)
+        archive.data[offset:offset + length]
+    hit_time = time.time() - start
+
+    start = time.time()
+    for key in misses:
+        assert archive.find(key) is None
+    miss_time = time.time() - start
+
+    print('%d tiles, %d lookups' % (archive.count, lookups))
+    print('hit:  %.2f us/lookup' % (hit_time / len(keys) * 1e6))
+    print('miss: %.2f us/lookup' % (miss_time / len(misses) * 1e6))
+
+
+def main(args):
+    if len(args) == 3 and args[0] == 'pack':
+        pack(args[1], args[2])
+    elif len(args) in (2, 3) and args[0] == 'bench':
+        bench(args[1], int(args[2]) if len(args) == 3 else 100000)
+    else:
+        print('usage: tilepack.py pack <tile directory | file.mbtiles> <output>')
+        print('       tilepack.py bench <archive> [lookups]')
+        return 1
+    return 0
+
+
+if __name__ == '__main__':
+    sys.exit(main(sys.argv[1:]))
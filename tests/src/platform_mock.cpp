@@ -71,7 +71,7 @@ std::string systemFontFallbackPath(int _importance, int _weightHint) {
     return "";
 }
 
-bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority) {
     return true;
 }
 
@@ -0,0 +1,188 @@
+#include "catch.hpp"
+
+#include "data/clientGeoJsonSource.h"
+#include "data/properties.h"
+#include "data/propertyItem.h"
+#include "data/tileData.h"
+#include "tile/tileTask.h"
+#include "util/mapProjection.h"
+
+#include <algorithm>
+#include <atomic>
+#include <thread>
+
+using namespace Tangram;
+
+TEST_CASE( "Only tiles touched by an update are outdated", "[Core][ClientGeoJsonSource]" ) {
+
+    ClientGeoJsonSource source("test", "");
+    Properties properties;
+
+    // Tiles at zoom 4: (100, 45) is in (12, 5), (-100, -45) in (3, 10); (2, 12) is away from both
+    TileID tileA(12, 5, 4), tileB(3, 10, 4), tileAway(2, 12, 4);
+
+    source.addPoint(properties, { 100, 45 }, 7);
+    auto added = source.generation();
+
+    REQUIRE_FALSE(source.isTileOutdated(tileA, added));
+    REQUIRE_FALSE(source.isTileOutdated(TileID(0, 0, 0), added));
+
+    SECTION( "Replacing a feature outdates its old and new tiles" ) {
+        source.addPoint(properties, { -100, -45 }, 7);
+
+        REQUIRE(source.isTileOutdated(tileA, added));
+        REQUIRE(source.isTileOutdated(tileB, added));
+        REQUIRE(source.isTileOutdated(TileID(0, 0, 0), added));
+        REQUIRE_FALSE(source.isTileOutdated(tileAway, added));
+        REQUIRE_FALSE(source.isTileOutdated(tileA, source.generation()));
+    }
+
+    SECTION( "Removing a feature outdates its tile" ) {
+        REQUIRE(source.removeFeature(7));
+        REQUIRE_FALSE(source.removeFeature(7));
+
+        REQUIRE(source.isTileOutdated(tileA, added));
+        REQUIRE_FALSE(source.isTileOutdated(tileB, added));
+        REQUIRE_FALSE(source.isTileOutdated(tileAway, added));
+    }
+
+    SECTION( "Clearing outdates all tiles" ) {
+        source.clearData();
+
+        REQUIRE(source.isTileOutdated(tileAway, added));
+        REQUIRE_FALSE(source.removeFeature(7));
+    }
+}
+
+TEST_CASE( "A batch of features is a single change", "[Core][ClientGeoJsonSource]" ) {
+
+    ClientGeoJsonSource source("test", "");
+    Properties properties;
+
+    // More features than the log of changes holds, all around (100, 45) in tile (12, 5, 4)
+    TileID tileA(12, 5, 4), tileAway(2, 12, 4);
+    auto before = source.generation();
+
+    ClientGeoJsonSource::Batch batch;
+    for (int i = 0; i < 2000; ++i) {
+        batch.addPoint(properties, { 100 + i * 1e-4, 45 });
+    }
+    REQUIRE(batch.size() == 2000);
+    source.addFeatures(batch);
+
+    REQUIRE(batch.size() == 0);
+    REQUIRE(source.generation() == before + 1);
+    REQUIRE(source.isTileOutdated(tileA, before));
+    REQUIRE_FALSE(source.isTileOutdated(tileAway, before));
+}
+
+TEST_CASE( "A tile is outdated by changes made while its generation is read", "[Core][ClientGeoJsonSource]" ) {
+
+    ClientGeoJsonSource source("test", "");
+    Properties properties;
+
+    // Every update moves a feature within tile (12, 5, 4)
+    TileID tileA(12, 5, 4);
+    std::atomic<bool> done{false};
+
+    std::thread writer([&]() {
+        for (int i = 0; i < 20000; ++i) {
+            source.addPoint(properties, { 100 + (i % 100) * 1e-4, 45 }, 1 + i % 3);
+        }
+        done = true;
+    });
+
+    // Like the TileManager: keep the tile if it is not outdated, and take the current generation
+    int64_t tileGeneration = source.generation();
+    int missed = 0;
+    while (!done) {
+        auto generation = source.generation();
+        if (tileGeneration < generation && !source.isTileOutdated(tileA, tileGeneration)) {
+            missed++;
+        }
+        tileGeneration = generation;
+    }
+    writer.join();
+
+    REQUIRE(missed == 0);
+}
+
+TEST_CASE( "Swap in the features of another source", "[Core][ClientGeoJsonSource]" ) {
+
+    ClientGeoJsonSource source("test", "");
+    ClientGeoJsonSource staging("staging", "");
+    Properties properties;
+
+    source.addPoint(properties, { 100, 45 }, 1);
+    staging.addPoint(properties, { -100, -45 }, 2);
+    auto before = source.generation();
+
+    source.swapData(staging);
+
+    REQUIRE(source.generation() > before);
+    REQUIRE(source.isTileOutdated(TileID(2, 12, 4), before));
+    REQUIRE_FALSE(source.isTileOutdated(TileID(2, 12, 4), source.generation()));
+
+    // Each source has the features of the other
+    REQUIRE_FALSE(source.removeFeature(1));
+    REQUIRE(source.removeFeature(2));
+    REQUIRE(staging.removeFeature(1));
+}
+
+TEST_CASE( "Cluster the points of a source", "[Core][ClientGeoJsonSource]" ) {
+
+    auto source = std::make_shared<ClientGeoJsonSource>("test", "");
+    MercatorProjection projection;
+
+    PointClusterer::Options options;
+    options.maxZoom = 10;
+    options.aggregates.push_back({ "total", "size", PointClusterer::Reduce::sum });
+    source->setClusterOptions(options);
+
+    Properties small, large;
+    small.set("size", 1.0);
+    large.set("size", 2.0);
+
+    source->addPoint(small, { 100, 45 });
+    source->addPoint(large, { 100.0001, 45 });
+    source->addPoint(small, { -100, -45 });
+    source->addLine(small, { { 0, 0 }, { 1, 1 } });
+
+    auto task = source->createTask(TileID(0, 0, 0), 0);
+    auto data = static_cast<DataSource&>(*source).parse(*task, projection);
+    REQUIRE(data);
+
+    // A cluster of the first two points, the third point and the line
+    const auto& features = data->layers[0].features;
+    REQUIRE(features.size() == 3);
+
+    auto cluster = std::find_if(features.begin(), features.end(),
+                                [](const Feature& f) { return f.props.contains("cluster"); });
+    REQUIRE(cluster != features.end());
+    REQUIRE(cluster->props.getNumber("point_count") == 2);
+    REQUIRE(cluster->props.getNumber("total") == 3);
+
+    uint64_t clusterId = std::stoull(cluster->props.getString("cluster_id"));
+    int zoom = source->clusterExpansionZoom(clusterId);
+    REQUIRE(zoom > 0);
+    REQUIRE(zoom <= options.maxZoom + 1);
+
+    auto leaves = source->clusterLeaves(clusterId, 10, 0);
+    REQUIRE(leaves.size() == 2);
+    REQUIRE(leaves[0].position.latitude == Approx(45));
+    REQUIRE(leaves[0].properties.contains("size"));
+
+    SECTION( "Any change outdates clustered tiles" ) {
+        auto generation = source->generation();
+        source->addPoint(small, { -100, -45 });
+        REQUIRE(source->isTileOutdated(TileID(2, 12, 4), generation));
+        REQUIRE_FALSE(source->isTileOutdated(TileID(2 << 7, 12 << 7, 11), generation));
+    }
+
+    SECTION( "Points are not clustered when clustering is disabled" ) {
+        source->disableClustering();
+        data = static_cast<DataSource&>(*source).parse(*task, projection);
+        REQUIRE(data->layers[0].features.size() == 4);
+        REQUIRE(source->clusterLeaves(clusterId, 10, 0).empty());
+    }
+}
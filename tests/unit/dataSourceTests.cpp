@@ -0,0 +1,23 @@
+#include "catch.hpp"
+
+#include "data/mvtSource.h"
+
+using namespace Tangram;
+
+TEST_CASE( "Construct tile URLs with subdomains", "[Core][DataSource]" ) {
+
+    MVTSource source("test", "https://{s}.tiles.example.com/{z}/{x}/{y}.mvt", 0, 18, 18);
+    source.setUrlSubdomains({ "a", "b", "c" });
+
+    REQUIRE(source.constructURL(TileID(0, 0, 3)) == "https://a.tiles.example.com/3/0/0.mvt");
+    REQUIRE(source.constructURL(TileID(1, 0, 3)) == "https://b.tiles.example.com/3/1/0.mvt");
+    REQUIRE(source.constructURL(TileID(1, 1, 3)) == "https://c.tiles.example.com/3/1/1.mvt");
+    REQUIRE(source.constructURL(TileID(2, 1, 3)) == "https://a.tiles.example.com/3/2/1.mvt");
+}
+
+TEST_CASE( "Construct tile URLs without subdomains", "[Core][DataSource]" ) {
+
+    MVTSource source("test", "https://tiles.example.com/{z}/{x}/{y}.mvt", 0, 18, 18);
+
+    REQUIRE(source.constructURL(TileID(1, 2, 3)) == "https://tiles.example.com/3/1/2.mvt");
+}
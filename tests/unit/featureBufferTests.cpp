@@ -0,0 +1,121 @@
+#include "catch.hpp"
+
+#include "util/featureBuffer.h"
+#include "data/propertyItem.h"
+
+#include <vector>
+
+using namespace Tangram;
+using namespace Tangram::FeatureBuffer;
+
+struct DecodedFeature {
+    FeatureType type;
+    std::vector<Coordinates> rings;
+    Properties properties;
+};
+
+static bool decodeAll(const std::vector<uint8_t>& _buffer, std::vector<DecodedFeature>& _features) {
+    return decode(_buffer.data(), _buffer.size(),
+                  [&](FeatureType _type, std::vector<Coordinates>&& _rings, Properties&& _properties) {
+                      _features.push_back({ _type, std::move(_rings), std::move(_properties) });
+                  });
+}
+
+TEST_CASE( "Round-trip features through a feature buffer", "[Core][FeatureBuffer]" ) {
+
+    Properties pointProps;
+    pointProps.set("name", "café");
+    pointProps.set("height", 12.0);
+    pointProps.set("ratio", 0.25);
+
+    Properties lineProps;
+    lineProps.set("name", "road");
+    lineProps.set("lanes", -2.0);
+
+    Writer writer;
+    writer.add(FeatureType::point, { { { -122.4194155, 37.7749295 } } }, pointProps);
+    writer.add(FeatureType::line, { { { 0, 0 }, { 1.5, -1.5 }, { 179.9999999, -89.9999999 } } }, lineProps);
+    writer.add(FeatureType::polygon, { { { 0, 0 }, { 1, 0 }, { 1, 1 }, { 0, 0 } },
+                                       { { 0.2, 0.2 }, { 0.2, 0.4 }, { 0.4, 0.2 }, { 0.2, 0.2 } } }, {});
+
+    auto buffer = writer.finish();
+
+    std::vector<DecodedFeature> features;
+    REQUIRE(decodeAll(buffer, features));
+    REQUIRE(features.size() == 3);
+
+    REQUIRE(features[0].type == FeatureType::point);
+    REQUIRE(features[0].rings.size() == 1);
+    REQUIRE(features[0].rings[0][0].longitude == Approx(-122.4194155).epsilon(1e-9));
+    REQUIRE(features[0].rings[0][0].latitude == Approx(37.7749295).epsilon(1e-9));
+    REQUIRE(features[0].properties.getString("name") == "café");
+    REQUIRE(features[0].properties.getNumber("height") == 12.0);
+    REQUIRE(features[0].properties.getNumber("ratio") == 0.25);
+
+    REQUIRE(features[1].type == FeatureType::line);
+    REQUIRE(features[1].rings[0].size() == 3);
+    REQUIRE(features[1].rings[0][2].longitude == Approx(179.9999999).epsilon(1e-9));
+    REQUIRE(features[1].rings[0][2].latitude == Approx(-89.9999999).epsilon(1e-9));
+    REQUIRE(features[1].properties.getNumber("lanes") == -2.0);
+
+    REQUIRE(features[2].type == FeatureType::polygon);
+    REQUIRE(features[2].rings.size() == 2);
+    REQUIRE(features[2].rings[1][1].latitude == Approx(0.4));
+    REQUIRE(features[2].properties.items().empty());
+}
+
+TEST_CASE( "Decode a feature buffer written by hand", "[Core][FeatureBuffer]" ) {
+
+    // The layout written by other encoders, e.g. FeatureBufferEncoder on Android
+    std::vector<uint8_t> buffer = {
+        1,                          // version
+        1, 4, 'k', 'i', 'n', 'd',   // key table
+        2,                          // feature count
+        0, 1, 1,                    // point, one ring of one point
+        0x80, 0xad, 0xe2, 0x04,     // dx = 5000000 (0.5 degrees)
+        0x01,                       // dy = -1
+        1, 0, 0, 3, 'b', 'u', 's',  // kind = "bus"
+        0, 1, 1, 4, 4,              // point at dx = 2, dy = 2 from the previous point
+        1, 0, 2, 0x0d,              // kind = -7
+    };
+
+    std::vector<DecodedFeature> features;
+    REQUIRE(decodeAll(buffer, features));
+    REQUIRE(features.size() == 2);
+    REQUIRE(features[0].rings[0][0].longitude == Approx(0.5));
+    REQUIRE(features[0].rings[0][0].latitude == Approx(-1e-7));
+    REQUIRE(features[0].properties.getString("kind") == "bus");
+    REQUIRE(features[1].rings[0][0].longitude == Approx(0.5000002));
+    REQUIRE(features[1].properties.getNumber("kind") == -7.0);
+}
+
+TEST_CASE( "Reject malformed feature buffers", "[Core][FeatureBuffer]" ) {
+
+    Properties props;
+    props.set("kind", "a");
+
+    Writer writer;
+    writer.add(FeatureType::point, { { { 1, 1 } } }, props);
+    writer.add(FeatureType::line, { { { 1, 1 }, { 2, 2 } } }, props);
+    auto buffer = writer.finish();
+
+    SECTION( "Truncated buffer keeps the features before the error" ) {
+        buffer.resize(buffer.size() - 2);
+        std::vector<DecodedFeature> features;
+        REQUIRE_FALSE(decodeAll(buffer, features));
+        REQUIRE(features.size() == 1);
+    }
+
+    SECTION( "Unknown version" ) {
+        buffer[0] = 2;
+        std::vector<DecodedFeature> features;
+        REQUIRE_FALSE(decodeAll(buffer, features));
+        REQUIRE(features.empty());
+    }
+
+    SECTION( "Oversized count" ) {
+        std::vector<uint8_t> bad = { 1, 0, 0xff, 0xff, 0xff, 0xff, 0x0f };
+        std::vector<DecodedFeature> features;
+        REQUIRE_FALSE(decodeAll(bad, features));
+    }
+}
@@ -0,0 +1,95 @@
+#include "catch.hpp"
+
+#include "util/pointClusterer.h"
+#include "data/properties.h"
+
+#include <cmath>
+#include <vector>
+
+using namespace Tangram;
+
+TEST_CASE( "Cluster nearby points by zoom", "[Core][PointClusterer]" ) {
+
+    PointClusterer::Options options;
+    options.maxZoom = 10;
+    options.aggregates.push_back({ "total", "size", PointClusterer::Reduce::sum });
+    options.aggregates.push_back({ "largest", "size", PointClusterer::Reduce::max });
+
+    std::vector<Properties> properties(4);
+    properties[0].set("size", 1.0);
+    properties[1].set("size", 2.0);
+    properties[2].set("size", 4.0);
+
+    // Three points close together near the center of the world and one far away
+    std::vector<PointClusterer::Input> points = {
+        { 0.5, 0.5, &properties[0] },
+        { 0.5001, 0.5, &properties[1] },
+        { 0.5, 0.5001, &properties[2] },
+        { 0.1, 0.1, &properties[3] },
+    };
+
+    PointClusterer clusterer(options);
+    clusterer.build(points);
+
+    auto world = clusterer.getTile(0, 0, 0);
+    REQUIRE(world.size() == 2);
+
+    auto& cluster = world[0].count > 1 ? world[0] : world[1];
+    auto& single = world[0].count > 1 ? world[1] : world[0];
+
+    REQUIRE(cluster.count == 3);
+    REQUIRE(cluster.x == Approx(0.5000333));
+    REQUIRE(cluster.aggregates[0] == Approx(7));
+    REQUIRE(cluster.aggregates[1] == Approx(4));
+    REQUIRE(single.count == 1);
+    REQUIRE(single.id == 3);
+
+    SECTION( "Points are not clustered above the maximum zoom" ) {
+        REQUIRE(clusterer.getTile(11, 1024, 1024).size() == 3);
+        REQUIRE(clusterer.getTile(11, 0, 0).empty());
+    }
+
+    SECTION( "Expand a cluster" ) {
+        int zoom = clusterer.getExpansionZoom(cluster.id);
+        REQUIRE(zoom > 0);
+        REQUIRE(zoom <= options.maxZoom + 1);
+
+        auto children = clusterer.getChildren(cluster.id);
+        REQUIRE(children.size() >= 2);
+        uint32_t count = 0;
+        for (const auto& child : children) { count += child.count; }
+        REQUIRE(count == 3);
+
+        auto leaves = clusterer.getLeaves(cluster.id);
+        REQUIRE(leaves.size() == 3);
+        for (const auto& leaf : leaves) {
+            REQUIRE(leaf.count == 1);
+            REQUIRE(leaf.id < 3);
+        }
+
+        REQUIRE(clusterer.getLeaves(cluster.id, 1, 1).size() == 1);
+        REQUIRE(clusterer.getLeaves(cluster.id, 10, 2).size() == 1);
+    }
+
+    SECTION( "Unknown clusters have no children" ) {
+        REQUIRE(clusterer.getChildren(single.id).empty());
+        REQUIRE(clusterer.getExpansionZoom(cluster.id + (1 << 20)) == -1);
+    }
+}
+
+TEST_CASE( "Aggregates skip points without the property", "[Core][PointClusterer]" ) {
+
+    PointClusterer::Options options;
+    options.aggregates.push_back({ "smallest", "size", PointClusterer::Reduce::min });
+
+    Properties sized;
+    sized.set("size", 3.0);
+
+    PointClusterer clusterer(options);
+    clusterer.build({ { 0.5, 0.5, &sized }, { 0.5, 0.5, nullptr } });
+
+    auto world = clusterer.getTile(0, 0, 0);
+    REQUIRE(world.size() == 1);
+    REQUIRE(world[0].count == 2);
+    REQUIRE(world[0].aggregates[0] == Approx(3));
+}
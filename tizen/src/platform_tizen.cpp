@@ -30,7 +30,7 @@ static FcConfig* s_fcConfig = nullptr;
 
 static UrlWorker s_workers;
 
-bool startUrlRequest(const std::string& _url, UrlCallback _callback) {
+bool startUrlRequest(const std::string& _url, UrlCallback _callback, double _priority) {
     s_workers.enqueue(std::make_unique<UrlTask>(_url, _callback));
     return true;
 }